@@ -4,11 +4,16 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import javafx.application.Application;
 import javafx.stage.Stage;
+import me.XXX.eesearcher.common.FolderWatcher;
+import me.XXX.eesearcher.common.ImportJournal;
+import me.XXX.eesearcher.common.IndexDataController;
+import me.XXX.eesearcher.common.SearchBackend;
 import me.XXX.eesearcher.data.DataUtil;
 import me.XXX.eesearcher.module.BackendModule;
 import me.XXX.eesearcher.module.FrontendModule;
 import me.XXX.eesearcher.ui.GuestHomepage;
 
+import java.io.IOException;
 import java.sql.SQLException;
 
 public final class MainApplication extends Application {
@@ -32,7 +37,7 @@ public final class MainApplication extends Application {
         if (HEART_BEAT != null) {
             HEART_BEAT = Thread.currentThread();
         }
-        final Injector injector = Guice.createInjector(com.google.inject.Stage.PRODUCTION, new BackendModule(), new FrontendModule(primaryStage));
+        final Injector injector = Guice.createInjector(com.google.inject.Stage.PRODUCTION, new BackendModule(), new FrontendModule(primaryStage, getHostServices()));
         initBackend(injector);
         // Draw the homepage
         final GuestHomepage homepage = injector.getInstance(GuestHomepage.class);
@@ -50,6 +55,35 @@ public final class MainApplication extends Application {
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
+        final SearchBackend searchBackend = injector.getInstance(SearchBackend.class);
+        try {
+            searchBackend.open();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        final FolderWatcher folderWatcher = injector.getInstance(FolderWatcher.class);
+        try {
+            folderWatcher.start();
+        } catch (IOException ex) {
+            // Essays can still be imported by hand
+            ex.printStackTrace();
+        }
+        final ImportJournal importJournal = injector.getInstance(ImportJournal.class);
+        final IndexDataController indexDataController = injector.getInstance(IndexDataController.class);
+        // Essays imported by earlier versions may have no title
+        indexDataController.performTitleMigration().exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                folderWatcher.close();
+                importJournal.close();
+                searchBackend.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }));
     }
 
 }
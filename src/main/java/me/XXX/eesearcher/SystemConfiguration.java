@@ -1,12 +1,15 @@
 package me.XXX.eesearcher;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.regex.Pattern;
@@ -23,12 +26,28 @@ public class SystemConfiguration {
     public static final String PASS_KEY = "db.pass";
     public static final String PATH_KEY = "db.path";
     public static final String IO_KEY = "io.max-threads";
+    public static final String SEARCH_BACKEND_KEY = "search.backend";
+    public static final String COVER_PAGES_KEY = "parser.cover-pages";
+    public static final String WATCH_DIRECTORY_KEY = "import.watch-directory";
+    public static final String BLOB_STORE_KEY = "storage.blob-store";
+    public static final String PDF_MAX_MAIN_MEMORY_KEY = "pdf.max-main-memory";
+    public static final String PDF_TEMP_DIRECTORY_KEY = "pdf.temp-directory";
+    public static final String ESSAY_CACHE_BUDGET_KEY = "cache.essay-budget";
 
     private final Properties properties = new Properties();
     private String databaseUsername = "username";
     private String databasePassword = "password";
     private File databasePath = new File(new File(getClass().getProtectionDomain().getCodeSource().getLocation().getFile()).getParent(), "data.db");
     private int maxIO = -1;
+    private SearchBackendType searchBackend = SearchBackendType.H2;
+    private int coverPages = 1;
+    private File watchDirectory = null;
+    private boolean blobStore = false;
+    // In megabytes per document, -1 for no limit
+    private long pdfMaxMainMemory = 8;
+    private File pdfTempDirectory = null;
+    // In megabytes of PDF across every cached essay
+    private long essayCacheBudget = 64;
 
     public SystemConfiguration() {
     }
@@ -38,6 +57,13 @@ public class SystemConfiguration {
         this.databasePassword = other.databasePassword;
         this.databasePath = other.databasePath;
         this.maxIO = other.maxIO;
+        this.searchBackend = other.searchBackend;
+        this.coverPages = other.coverPages;
+        this.watchDirectory = other.watchDirectory;
+        this.blobStore = other.blobStore;
+        this.pdfMaxMainMemory = other.pdfMaxMainMemory;
+        this.pdfTempDirectory = other.pdfTempDirectory;
+        this.essayCacheBudget = other.essayCacheBudget;
         updateProperties();
     }
 
@@ -59,6 +85,29 @@ public class SystemConfiguration {
         if (this.maxIO == 0 || this.maxIO < -1) {
             throw new IOException(String.format("Invalid configuration detected! Max IO is invalid: %d", maxIO));
         }
+        final String rawBackend = properties.getProperty(SEARCH_BACKEND_KEY, searchBackend.name());
+        try {
+            this.searchBackend = SearchBackendType.valueOf(rawBackend.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(String.format("Invalid configuration detected! Search backend is invalid: %s", rawBackend));
+        }
+        this.coverPages = Integer.parseInt(properties.getProperty(COVER_PAGES_KEY, String.valueOf(coverPages)));
+        if (this.coverPages < 1) {
+            throw new IOException(String.format("Invalid configuration detected! Cover pages is invalid: %d", coverPages));
+        }
+        final String rawWatchDirectory = properties.getProperty(WATCH_DIRECTORY_KEY, "").trim();
+        this.watchDirectory = rawWatchDirectory.isEmpty() ? null : new File(rawWatchDirectory);
+        this.blobStore = Boolean.parseBoolean(properties.getProperty(BLOB_STORE_KEY, String.valueOf(blobStore)).trim());
+        this.pdfMaxMainMemory = Long.parseLong(properties.getProperty(PDF_MAX_MAIN_MEMORY_KEY, String.valueOf(pdfMaxMainMemory)).trim());
+        if (this.pdfMaxMainMemory < -1) {
+            throw new IOException(String.format("Invalid configuration detected! PDF max main memory is invalid: %d", pdfMaxMainMemory));
+        }
+        final String rawPdfTempDirectory = properties.getProperty(PDF_TEMP_DIRECTORY_KEY, "").trim();
+        this.pdfTempDirectory = rawPdfTempDirectory.isEmpty() ? null : new File(rawPdfTempDirectory);
+        this.essayCacheBudget = Long.parseLong(properties.getProperty(ESSAY_CACHE_BUDGET_KEY, String.valueOf(essayCacheBudget)).trim());
+        if (this.essayCacheBudget < 0) {
+            throw new IOException(String.format("Invalid configuration detected! Essay cache budget is invalid: %d", essayCacheBudget));
+        }
     }
 
     private void updateProperties() {
@@ -68,6 +117,13 @@ public class SystemConfiguration {
         final String currentDatabasePath = databasePath.getAbsolutePath();
         properties.setProperty(PATH_KEY, currentDatabasePath.replace(currentDir, "%dir%"));
         properties.setProperty(IO_KEY, String.valueOf(maxIO));
+        properties.setProperty(SEARCH_BACKEND_KEY, searchBackend.name().toLowerCase(Locale.ROOT));
+        properties.setProperty(COVER_PAGES_KEY, String.valueOf(coverPages));
+        properties.setProperty(WATCH_DIRECTORY_KEY, watchDirectory == null ? "" : watchDirectory.getAbsolutePath());
+        properties.setProperty(BLOB_STORE_KEY, String.valueOf(blobStore));
+        properties.setProperty(PDF_MAX_MAIN_MEMORY_KEY, String.valueOf(pdfMaxMainMemory));
+        properties.setProperty(PDF_TEMP_DIRECTORY_KEY, pdfTempDirectory == null ? "" : pdfTempDirectory.getAbsolutePath());
+        properties.setProperty(ESSAY_CACHE_BUDGET_KEY, String.valueOf(essayCacheBudget));
     }
 
     public void save() throws IOException {
@@ -85,6 +141,43 @@ public class SystemConfiguration {
         this.maxIO = maxIO;
     }
 
+    public void setSearchBackend(@NotNull final SearchBackendType searchBackend) {
+        this.searchBackend = Objects.requireNonNull(searchBackend);
+    }
+
+    public void setCoverPages(int coverPages) throws IllegalArgumentException {
+        if (coverPages < 1) {
+            throw new IllegalArgumentException("Invalid CoverPages!");
+        }
+        this.coverPages = coverPages;
+    }
+
+    public void setWatchDirectory(@Nullable final File watchDirectory) {
+        this.watchDirectory = watchDirectory;
+    }
+
+    public void setBlobStoreEnabled(final boolean blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    public void setPdfMaxMainMemory(long pdfMaxMainMemory) throws IllegalArgumentException {
+        if (pdfMaxMainMemory < -1) {
+            throw new IllegalArgumentException("Invalid PdfMaxMainMemory!");
+        }
+        this.pdfMaxMainMemory = pdfMaxMainMemory;
+    }
+
+    public void setPdfTempDirectory(@Nullable final File pdfTempDirectory) {
+        this.pdfTempDirectory = pdfTempDirectory;
+    }
+
+    public void setEssayCacheBudget(long essayCacheBudget) throws IllegalArgumentException {
+        if (essayCacheBudget < 0) {
+            throw new IllegalArgumentException("Invalid EssayCacheBudget!");
+        }
+        this.essayCacheBudget = essayCacheBudget;
+    }
+
     public void setDatabasePassword(@NotNull final String databasePassword) {
         this.databasePassword = Objects.requireNonNull(databasePassword);
     }
@@ -113,6 +206,122 @@ public class SystemConfiguration {
         return this.databasePath;
     }
 
+    public @NotNull SearchBackendType searchBackend() {
+        return this.searchBackend;
+    }
+
+    /**
+     * Get the number of leading pages which are searched for the metadata of an essay.
+     *
+     * @return Returns the number of cover pages, always positive
+     */
+    public int coverPages() {
+        return this.coverPages;
+    }
+
+    /**
+     * Get the directory which is watched for essays to index automatically.
+     *
+     * @return Returns the directory, or null if no directory is watched
+     */
+    public @Nullable File watchDirectory() {
+        return this.watchDirectory;
+    }
+
+    /**
+     * Check whether the PDFs of newly imported essays are kept in the blob store instead of the database.
+     * Essays imported before this was changed are still read from wherever they were stored.
+     *
+     * @return Returns true if the blob store is used
+     */
+    public boolean blobStoreEnabled() {
+        return this.blobStore;
+    }
+
+    /**
+     * Get the amount of memory each open PDF may use for its decoded streams before the rest is
+     * spilled to temporary files.
+     *
+     * @return Returns the limit in megabytes, 0 to only use temporary files or -1 for no limit
+     */
+    public long pdfMaxMainMemory() {
+        return this.pdfMaxMainMemory;
+    }
+
+    /**
+     * Get the directory temporary files of open PDFs are written to.
+     *
+     * @return Returns the directory, or null to use the default temporary directory
+     */
+    public @Nullable File pdfTempDirectory() {
+        return this.pdfTempDirectory;
+    }
+
+    /**
+     * Create the memory settings of a PDF from {@link #pdfMaxMainMemory()} and {@link #pdfTempDirectory()}.
+     * Every document needs its own settings, as the limit applies to each document separately.
+     *
+     * @return Returns a new {@link MemoryUsageSetting}
+     */
+    public @NotNull MemoryUsageSetting pdfMemoryUsage() {
+        final MemoryUsageSetting setting;
+        if (pdfMaxMainMemory == -1) {
+            setting = MemoryUsageSetting.setupMainMemoryOnly();
+        } else if (pdfMaxMainMemory == 0) {
+            setting = MemoryUsageSetting.setupTempFileOnly();
+        } else {
+            setting = MemoryUsageSetting.setupMixed(pdfMaxMainMemory * 1024 * 1024);
+        }
+        return pdfTempDirectory == null ? setting : setting.setTempDir(pdfTempDirectory);
+    }
+
+    /**
+     * Get the total size of the PDFs of the essays which are kept cached once loaded. The least recently
+     * used essays are evicted once the budget is exceeded.
+     *
+     * @return Returns the budget in megabytes, 0 to disable the cache
+     */
+    public long essayCacheBudget() {
+        return this.essayCacheBudget;
+    }
+
+    /**
+     * Get the directory of the blob store, which is always stored next to the database.
+     *
+     * @return Returns the directory the PDFs of the blob store are saved to
+     */
+    public @NotNull File blobStorePath() {
+        return new File(this.databasePath.getAbsoluteFile().getParentFile(), "blobs");
+    }
+
+    /**
+     * Get the path of the import journal, which is always stored next to the database.
+     *
+     * @return Returns the {@link File} the import journal is saved to
+     * @see me.XXX.eesearcher.common.ImportJournal
+     */
+    public @NotNull File importJournalPath() {
+        return new File(this.databasePath.getAbsoluteFile().getParentFile(), "import.journal");
+    }
+
+    /**
+     * Get the path of the full text index, which is always stored next to the database.
+     *
+     * @return Returns the {@link File} the full text index is saved to
+     */
+    public @NotNull File fullTextIndexPath() {
+        return new File(this.databasePath.getAbsoluteFile().getParentFile(), "fulltext.idx");
+    }
+
+    /**
+     * Get the directory of the Lucene index, which is always stored next to the database.
+     *
+     * @return Returns the directory the Lucene index is saved to
+     */
+    public @NotNull File luceneIndexPath() {
+        return new File(this.databasePath.getAbsoluteFile().getParentFile(), "lucene");
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -121,6 +330,13 @@ public class SystemConfiguration {
         SystemConfiguration that = (SystemConfiguration) o;
 
         if (maxIO != that.maxIO) return false;
+        if (searchBackend != that.searchBackend) return false;
+        if (coverPages != that.coverPages) return false;
+        if (blobStore != that.blobStore) return false;
+        if (pdfMaxMainMemory != that.pdfMaxMainMemory) return false;
+        if (!Objects.equals(pdfTempDirectory, that.pdfTempDirectory)) return false;
+        if (essayCacheBudget != that.essayCacheBudget) return false;
+        if (!Objects.equals(watchDirectory, that.watchDirectory)) return false;
         if (!databaseUsername.equals(that.databaseUsername)) return false;
         if (!databasePassword.equals(that.databasePassword)) return false;
         return databasePath.equals(that.databasePath);
@@ -132,6 +348,20 @@ public class SystemConfiguration {
         result = 31 * result + databasePassword.hashCode();
         result = 31 * result + databasePath.hashCode();
         result = 31 * result + maxIO;
+        result = 31 * result + searchBackend.hashCode();
+        result = 31 * result + coverPages;
+        result = 31 * result + Objects.hashCode(watchDirectory);
+        result = 31 * result + (blobStore ? 1 : 0);
+        result = 31 * result + Long.hashCode(pdfMaxMainMemory);
+        result = 31 * result + Objects.hashCode(pdfTempDirectory);
+        result = 31 * result + Long.hashCode(essayCacheBudget);
         return result;
     }
+
+    /**
+     * Represents the implementations of {@link me.XXX.eesearcher.common.SearchBackend} which can be configured.
+     */
+    public enum SearchBackendType {
+        H2, LUCENE
+    }
 }
@@ -0,0 +1,51 @@
+package me.XXX.eesearcher.common;
+
+import me.XXX.eesearcher.data.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Represents a listener which groups results into batches, starting small so the first batch
+ * can be displayed immediately. This class is NOT thread safe.
+ *
+ * @see IndexDataController#MIN_BATCH_SIZE
+ * @see IndexDataController#MAX_BATCH_SIZE
+ */
+final class BatchCollector implements Consumer<SearchResult> {
+
+    private final Consumer<List<SearchResult>> onBatch;
+    private final List<SearchResult> results = new ArrayList<>();
+    private int batchSize = IndexDataController.MIN_BATCH_SIZE;
+    private List<SearchResult> batch = new ArrayList<>(batchSize);
+
+    BatchCollector(final Consumer<List<SearchResult>> onBatch) {
+        this.onBatch = onBatch;
+    }
+
+    @Override
+    public void accept(final SearchResult result) {
+        results.add(result);
+        batch.add(result);
+        if (batch.size() >= batchSize) {
+            onBatch.accept(batch);
+            // Grow batches so large result sets don't flood the listener
+            batchSize = Math.min(batchSize * 2, IndexDataController.MAX_BATCH_SIZE);
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Hand any remaining results to the listener.
+     *
+     * @return Returns every result collected, in order
+     */
+    List<SearchResult> finish() {
+        if (!batch.isEmpty()) {
+            onBatch.accept(batch);
+            batch = new ArrayList<>();
+        }
+        return results;
+    }
+}
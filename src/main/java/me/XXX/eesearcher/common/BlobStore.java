@@ -0,0 +1,156 @@
+package me.XXX.eesearcher.common;
+
+import com.google.common.io.BaseEncoding;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.data.Essay;
+import me.XXX.eesearcher.data.IndexData;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents a content-addressed store of essay PDFs on the disk, used instead of the {@code pdf}
+ * column when {@link SystemConfiguration#blobStoreEnabled()} is set. Every PDF is stored once under
+ * the hex form of its SHA-256 hash, sharded by the first two bytes of the hash so that no directory
+ * grows too large, for example {@code blobs/3f/a2/3fa2....pdf}. Only the hash is kept in the database.
+ * <p>
+ * PDFs are read through memory-mapped files. Files are written to a temporary file and then moved
+ * into place, so a partially written PDF is never visible. A mapped PDF is only unmapped once it is
+ * garbage collected, and some platforms refuse to delete a mapped file, so PDFs which could not be
+ * deleted are kept and deleted again later. All methods in this class are thread-safe.
+ * </p>
+ */
+@Singleton
+public final class BlobStore {
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    @Inject
+    private SystemConfiguration configuration;
+    @Inject
+    private Parser parser;
+
+    // The hex hashes of the PDFs which could not be deleted yet
+    private final Set<String> pendingDeletions = ConcurrentHashMap.newKeySet();
+
+    public boolean isEnabled() {
+        return configuration.blobStoreEnabled();
+    }
+
+    /**
+     * Get the location of a PDF in this store.
+     *
+     * @param contentHash The SHA-256 hash of the PDF
+     * @return Returns the path of the PDF, which may not exist
+     */
+    public @NotNull Path path(final byte[] contentHash) {
+        final String hex = HEX.encode(contentHash);
+        return configuration.blobStorePath().toPath()
+                .resolve(hex.substring(0, 2))
+                .resolve(hex.substring(2, 4))
+                .resolve(hex + ".pdf");
+    }
+
+    /**
+     * Copy a PDF into this store, unless a PDF with the same hash is already stored.
+     *
+     * @param contentHash The SHA-256 hash of the PDF
+     * @param source      The PDF
+     * @throws IOException Thrown if the PDF could not be stored
+     */
+    public void store(final byte[] contentHash, @NotNull final File source) throws IOException {
+        final Path target = path(contentHash);
+        // A PDF stored again must survive a pending deletion of the same PDF
+        synchronized (pendingDeletions) {
+            pendingDeletions.remove(HEX.encode(contentHash));
+            if (Files.exists(target)) {
+                return;
+            }
+        }
+        final Path directory = target.getParent();
+        Files.createDirectories(directory);
+        final Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(source.toPath(), temporary, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ex) {
+            // Stored by another thread in the meantime
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Load an essay whose PDF is held in this store. The PDF is memory-mapped rather than read
+     * onto the heap.
+     *
+     * @param indexData   The characteristics of the essay
+     * @param contentHash The SHA-256 hash of the PDF
+     * @return Returns a new {@link Essay}
+     * @throws IOException Thrown if the PDF is missing or could not be parsed
+     */
+    public @NotNull Essay load(@NotNull final IndexData indexData, final byte[] contentHash) throws IOException {
+        final MappedRandomAccessRead source = new MappedRandomAccessRead(path(contentHash));
+        try {
+            final PDFParser pdfParser = parser.newPDFParser(source);
+            pdfParser.parse();
+            return new Essay(indexData, pdfParser.getPDDocument(), source.length());
+        } catch (IOException ex) {
+            source.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Remove a PDF from this store, if present. A PDF which could not be removed, for example as it is
+     * still mapped, is removed by a later {@link #retryDeletions()} unless it is stored again first.
+     *
+     * @param contentHash The SHA-256 hash of the PDF
+     * @return Returns false if the PDF could not be removed yet
+     */
+    public boolean delete(final byte[] contentHash) {
+        final String hex = HEX.encode(contentHash);
+        synchronized (pendingDeletions) {
+            pendingDeletions.remove(hex);
+            try {
+                Files.deleteIfExists(path(contentHash));
+                return true;
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                pendingDeletions.add(hex);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the PDFs which could not be removed before, see {@link #delete(byte[])}.
+     *
+     * @return Returns true if no PDF is left to be removed
+     */
+    public boolean retryDeletions() {
+        synchronized (pendingDeletions) {
+            final Iterator<String> iterator = pendingDeletions.iterator();
+            while (iterator.hasNext()) {
+                try {
+                    Files.deleteIfExists(path(HEX.decode(iterator.next())));
+                    iterator.remove();
+                } catch (IOException ex) {
+                    // Still in use, try again next time
+                }
+            }
+            return pendingDeletions.isEmpty();
+        }
+    }
+}
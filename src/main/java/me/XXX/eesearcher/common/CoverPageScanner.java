@@ -0,0 +1,348 @@
+package me.XXX.eesearcher.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Month;
+
+/**
+ * Represents the fields found on the cover pages of an essay. The text is read in a single pass
+ * over its characters, line by line, without regular expressions or recursion, so the time taken
+ * grows linearly with the length of the text and the stack depth is constant.
+ * <p>
+ * A field is introduced by a label, which is matched case-insensitively anywhere in a line as long
+ * as it does not follow a letter or digit, and ends at the end of the line or at the next label on the
+ * same line:
+ * <ul>
+ *     <li>{@code Subject:} the first word of the value, for example {@code English} for {@code English A}</li>
+ *     <li>{@code Title:} or {@code Topic:} the value without a trailing full stop. If the value is empty,
+ *     the next non-blank line is used</li>
+ *     <li>{@code Research Question:} the value up to its last question mark. If the value has no question
+ *     mark, it is continued on the following lines until one which has</li>
+ * </ul>
+ * Without a title label, the first unlabelled line which is not a question or an exam session is used.
+ * Without a research question label, the first unlabelled line which contains a question mark is used.
+ * The exam session is the first {@code May} or {@code November} followed by a four digit year, optionally
+ * separated by a single whitespace. Only the first occurrence of every field counts.
+ * </p>
+ */
+final class CoverPageScanner {
+
+    private static final String SUBJECT_LABEL = "subject:";
+    private static final String TITLE_LABEL = "title:";
+    private static final String TOPIC_LABEL = "topic:";
+    private static final String RESEARCH_QUESTION_LABEL = "research question:";
+    private static final Month[] SESSION_MONTHS = {Month.MAY, Month.NOVEMBER};
+
+    private final CharSequence text;
+
+    private String subject;
+    private String title;
+    private String researchQuestion;
+    private Month examMonth;
+    private int examYear = -1;
+
+    // Fallbacks used when a field has no label
+    private String unlabelledTitle;
+    private String unlabelledQuestion;
+    // Set while a labelled field continues on the next line
+    private boolean titlePending;
+    private StringBuilder pendingQuestion;
+
+    private CoverPageScanner(@NotNull final CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Scan the text of the cover pages of an essay.
+     *
+     * @param text The text of the cover pages, which is only read through {@link CharSequence#charAt(int)}
+     *             and {@link CharSequence#subSequence(int, int)}
+     * @return Returns the fields found, any of which may be missing
+     */
+    static @NotNull CoverPageScanner scan(@NotNull final CharSequence text) {
+        final CoverPageScanner scanner = new CoverPageScanner(text);
+        scanner.scanLines();
+        return scanner;
+    }
+
+    /**
+     * @return Returns the first word following the subject label, or null if none was found
+     */
+    @Nullable String getSubject() {
+        return subject;
+    }
+
+    /**
+     * @return Returns the title or topic, or null if none was found
+     */
+    @Nullable String getTitle() {
+        return title != null ? title : unlabelledTitle;
+    }
+
+    /**
+     * @return Returns the research question ending with a question mark, or null if none was found
+     */
+    @Nullable String getResearchQuestion() {
+        return researchQuestion != null ? researchQuestion : unlabelledQuestion;
+    }
+
+    /**
+     * @return Returns the month of the exam session, or null if none was found
+     */
+    @Nullable Month getExamMonth() {
+        return examMonth;
+    }
+
+    /**
+     * @return Returns the year of the exam session, only meaningful if {@link #getExamMonth()} is not null
+     */
+    int getExamYear() {
+        return examYear;
+    }
+
+    private void scanLines() {
+        final int length = text.length();
+        int start = 0;
+        while (start <= length) {
+            int end = start;
+            while (end < length && !isLineTerminator(text.charAt(end))) {
+                end++;
+            }
+            scanLine(start, end);
+            if (end == length) {
+                break;
+            }
+            // Treat \r\n as a single terminator
+            start = text.charAt(end) == '\r' && end + 1 < length && text.charAt(end + 1) == '\n' ? end + 2 : end + 1;
+        }
+    }
+
+    private void scanLine(final int start, final int end) {
+        Field field = null;
+        int valueStart = -1;
+        boolean labelled = false;
+        boolean session = false;
+        int lastQuestionMark = -1;
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            if (c == '?') {
+                lastQuestionMark = i;
+            }
+            if (examMonth == null && matchSession(i)) {
+                session = true;
+            }
+            final Field next = matchLabel(i, start);
+            if (next == null) {
+                continue;
+            }
+            if (field != null) {
+                assign(field, valueStart, i);
+            }
+            field = next;
+            valueStart = i + next.label.length();
+            labelled = true;
+            // A label contains neither a question mark nor an exam session
+            i = valueStart - 1;
+        }
+        if (field != null) {
+            assign(field, valueStart, end);
+        }
+        if (labelled) {
+            // A label ends any field continued from the previous lines
+            if (field != Field.RESEARCH_QUESTION || researchQuestion != null) {
+                pendingQuestion = null;
+            }
+            return;
+        }
+        final String line = text.subSequence(start, end).toString().trim();
+        if (line.isEmpty()) {
+            pendingQuestion = null;
+            return;
+        }
+        if (titlePending) {
+            titlePending = false;
+            title = stripFullStop(line);
+        } else if (pendingQuestion != null) {
+            pendingQuestion.append(' ');
+            if (lastQuestionMark >= 0) {
+                pendingQuestion.append(text.subSequence(start, lastQuestionMark + 1).toString().trim());
+                researchQuestion = pendingQuestion.toString().trim();
+                pendingQuestion = null;
+            } else {
+                pendingQuestion.append(line);
+            }
+        } else if (lastQuestionMark >= 0) {
+            if (unlabelledQuestion == null) {
+                unlabelledQuestion = text.subSequence(start, lastQuestionMark + 1).toString().trim();
+            }
+        } else if (!session && unlabelledTitle == null) {
+            unlabelledTitle = stripFullStop(line);
+        }
+    }
+
+    private void assign(@NotNull final Field field, final int start, final int end) {
+        switch (field) {
+            case SUBJECT:
+                if (subject == null) {
+                    subject = firstWord(start, end);
+                }
+                break;
+            case TITLE:
+            case TOPIC:
+                if (title == null && !titlePending) {
+                    final String value = stripFullStop(text.subSequence(start, end).toString().trim());
+                    if (value.isEmpty()) {
+                        titlePending = true;
+                    } else {
+                        title = value;
+                    }
+                }
+                break;
+            case RESEARCH_QUESTION:
+                if (researchQuestion == null) {
+                    final int questionMark = lastQuestionMark(start, end);
+                    if (questionMark >= start) {
+                        researchQuestion = text.subSequence(start, questionMark + 1).toString().trim();
+                        pendingQuestion = null;
+                    } else {
+                        pendingQuestion = new StringBuilder(text.subSequence(start, end).toString().trim());
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Find the last question mark of a value. Unlike {@link String#lastIndexOf(int, int)}, the search never
+     * goes beyond the start of the value, so a line is only searched once however many lines precede it.
+     */
+    private int lastQuestionMark(final int start, final int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (text.charAt(i) == '?') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first word of a value, which must be followed by whitespace, a full stop or the end of the value.
+     */
+    private @Nullable String firstWord(int start, final int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int wordEnd = start;
+        while (wordEnd < end && isWordCharacter(text.charAt(wordEnd))) {
+            wordEnd++;
+        }
+        if (wordEnd == start) {
+            return null;
+        }
+        if (wordEnd < end && !Character.isWhitespace(text.charAt(wordEnd)) && text.charAt(wordEnd) != '.') {
+            return null;
+        }
+        return text.subSequence(start, wordEnd).toString();
+    }
+
+    private @Nullable Field matchLabel(final int index, final int lineStart) {
+        if (index > lineStart && Character.isLetterOrDigit(text.charAt(index - 1))) {
+            return null;
+        }
+        final char initial = Character.toLowerCase(text.charAt(index));
+        for (Field field : Field.LABELLED) {
+            // Compare the first character before the whole label, most positions start no label
+            if (field.label.charAt(0) == initial && regionMatches(index, field.label)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Match an exam session starting at an index, for example {@code May 2021} or {@code november2019}.
+     */
+    private boolean matchSession(final int index) {
+        final char initial = Character.toUpperCase(text.charAt(index));
+        for (Month month : SESSION_MONTHS) {
+            final String name = month.name();
+            if (name.charAt(0) != initial || !regionMatches(index, name)) {
+                continue;
+            }
+            int yearStart = index + name.length();
+            if (yearStart < text.length() && isWhitespace(text.charAt(yearStart))) {
+                yearStart++;
+            }
+            if (yearStart + 4 > text.length()) {
+                continue;
+            }
+            int year = 0;
+            int i = yearStart;
+            for (; i < yearStart + 4; i++) {
+                final char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                year = year * 10 + (c - '0');
+            }
+            if (i == yearStart + 4) {
+                examMonth = month;
+                examYear = year;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compare the text at an index with a value, ignoring case as {@link String#regionMatches(boolean, int, String, int, int)} does.
+     */
+    private boolean regionMatches(final int index, @NotNull final String value) {
+        if (index + value.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            final char c = text.charAt(index + i);
+            final char expected = value.charAt(i);
+            if (c != expected && Character.toUpperCase(c) != Character.toUpperCase(expected)
+                    && Character.toLowerCase(c) != Character.toLowerCase(expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static @NotNull String stripFullStop(@NotNull final String value) {
+        return value.endsWith(".") ? value.substring(0, value.length() - 1).trim() : value;
+    }
+
+    private static boolean isWordCharacter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private enum Field {
+        SUBJECT(SUBJECT_LABEL),
+        TITLE(TITLE_LABEL),
+        TOPIC(TOPIC_LABEL),
+        RESEARCH_QUESTION(RESEARCH_QUESTION_LABEL);
+
+        private static final Field[] LABELLED = values();
+
+        private final String label;
+
+        Field(@NotNull final String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package me.XXX.eesearcher.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Represents a compressed set of dense document ids in the manner of a roaring bitmap. The ids are split
+ * into chunks of 65536 by their upper 16 bits. A chunk holding at most {@link #ARRAY_LIMIT} ids is stored
+ * as a sorted array of their lower 16 bits, a fuller chunk as a bitmap, so no chunk takes more than 8KB.
+ * As the ids are dense, chunks are looked up by position rather than searched for.
+ * <p>
+ * {@link #and(DocIdBitmap)} and {@link #or(DocIdBitmap)} return new bitmaps and leave their operands
+ * unchanged. This class is NOT thread safe.
+ * </p>
+ */
+final class DocIdBitmap {
+
+    /**
+     * The maximum number of ids in a chunk stored as an array, beyond which a bitmap is smaller.
+     */
+    static final int ARRAY_LIMIT = 4096;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int BITMAP_WORDS = (1 << CHUNK_BITS) / Long.SIZE;
+
+    private Chunk[] chunks = new Chunk[0];
+
+    /**
+     * Add an id to this bitmap.
+     *
+     * @param id The id, which must not be negative
+     */
+    void add(final int id) {
+        final int index = id >>> CHUNK_BITS;
+        if (index >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, index + 1);
+        }
+        if (chunks[index] == null) {
+            chunks[index] = new Chunk();
+        }
+        chunks[index].add((char) (id & CHUNK_MASK));
+    }
+
+    /**
+     * Remove an id from this bitmap.
+     *
+     * @param id The id
+     */
+    void remove(final int id) {
+        final int index = id >>> CHUNK_BITS;
+        if (index >= chunks.length || chunks[index] == null) {
+            return;
+        }
+        chunks[index].remove((char) (id & CHUNK_MASK));
+        if (chunks[index].cardinality == 0) {
+            chunks[index] = null;
+        }
+    }
+
+    boolean contains(final int id) {
+        final int index = id >>> CHUNK_BITS;
+        return index < chunks.length && chunks[index] != null && chunks[index].contains((char) (id & CHUNK_MASK));
+    }
+
+    /**
+     * @return Returns the number of ids in this bitmap
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != null) {
+                cardinality += chunk.cardinality;
+            }
+        }
+        return cardinality;
+    }
+
+    /**
+     * Intersect this bitmap with another.
+     *
+     * @param other The other bitmap
+     * @return Returns a new bitmap of the ids in both bitmaps
+     */
+    @NotNull DocIdBitmap and(@NotNull final DocIdBitmap other) {
+        final DocIdBitmap result = new DocIdBitmap();
+        final int length = Math.min(chunks.length, other.chunks.length);
+        result.chunks = new Chunk[length];
+        for (int i = 0; i < length; i++) {
+            if (chunks[i] != null && other.chunks[i] != null) {
+                final Chunk chunk = Chunk.and(chunks[i], other.chunks[i]);
+                result.chunks[i] = chunk.cardinality == 0 ? null : chunk;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Unite this bitmap with another.
+     *
+     * @param other The other bitmap
+     * @return Returns a new bitmap of the ids in either bitmap
+     */
+    @NotNull DocIdBitmap or(@NotNull final DocIdBitmap other) {
+        final DocIdBitmap result = new DocIdBitmap();
+        result.chunks = new Chunk[Math.max(chunks.length, other.chunks.length)];
+        for (int i = 0; i < result.chunks.length; i++) {
+            final Chunk a = i < chunks.length ? chunks[i] : null;
+            final Chunk b = i < other.chunks.length ? other.chunks[i] : null;
+            if (a != null && b != null) {
+                result.chunks[i] = Chunk.or(a, b);
+            } else if (a != null || b != null) {
+                result.chunks[i] = (a != null ? a : b).copy();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns a new bitmap of the same ids
+     */
+    @NotNull DocIdBitmap copy() {
+        final DocIdBitmap result = new DocIdBitmap();
+        result.chunks = new Chunk[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            result.chunks[i] = chunks[i] == null ? null : chunks[i].copy();
+        }
+        return result;
+    }
+
+    /**
+     * Call a consumer for every id in this bitmap, in ascending order.
+     *
+     * @param consumer The consumer
+     */
+    void forEach(@NotNull final IntConsumer consumer) {
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                chunks[i].forEach(i << CHUNK_BITS, consumer);
+            }
+        }
+    }
+
+    /**
+     * Represents the ids of a bitmap which share their upper 16 bits. Only one of {@link #values}
+     * and {@link #bits} is set. This class is NOT thread safe.
+     */
+    private static final class Chunk {
+
+        // The sorted lower 16 bits of every id, used while the chunk holds at most ARRAY_LIMIT ids
+        private char[] values = new char[4];
+        private long[] bits;
+        private int cardinality;
+
+        void add(final char value) {
+            if (bits != null) {
+                final long mask = 1L << value;
+                if ((bits[value >>> 6] & mask) == 0) {
+                    bits[value >>> 6] |= mask;
+                    cardinality++;
+                }
+                return;
+            }
+            final int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) {
+                return;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBitmap();
+                add(value);
+                return;
+            }
+            final int insertion = -position - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+            System.arraycopy(values, insertion, values, insertion + 1, cardinality - insertion);
+            values[insertion] = value;
+            cardinality++;
+        }
+
+        void remove(final char value) {
+            if (bits != null) {
+                final long mask = 1L << value;
+                if ((bits[value >>> 6] & mask) != 0) {
+                    bits[value >>> 6] &= ~mask;
+                    cardinality--;
+                    if (cardinality <= ARRAY_LIMIT) {
+                        toArray();
+                    }
+                }
+                return;
+            }
+            final int position = Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, cardinality - position - 1);
+                cardinality--;
+            }
+        }
+
+        boolean contains(final char value) {
+            if (bits != null) {
+                return (bits[value >>> 6] & (1L << value)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        void forEach(final int base, @NotNull final IntConsumer consumer) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    consumer.accept(base | values[i]);
+                }
+                return;
+            }
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    consumer.accept(base | (word << 6) | Long.numberOfTrailingZeros(remaining));
+                    remaining &= remaining - 1;
+                }
+            }
+        }
+
+        @NotNull Chunk copy() {
+            final Chunk result = new Chunk();
+            result.values = values == null ? null : Arrays.copyOf(values, Math.max(1, cardinality));
+            result.bits = bits == null ? null : bits.clone();
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void toArray() {
+            final char[] array = new char[Math.max(1, cardinality)];
+            int size = 0;
+            for (int word = 0; word < BITMAP_WORDS; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    array[size++] = (char) ((word << 6) | Long.numberOfTrailingZeros(remaining));
+                    remaining &= remaining - 1;
+                }
+            }
+            values = array;
+            bits = null;
+        }
+
+        static @NotNull Chunk and(@NotNull final Chunk a, @NotNull final Chunk b) {
+            final Chunk result = new Chunk();
+            if (a.bits != null && b.bits != null) {
+                result.bits = new long[BITMAP_WORDS];
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    result.bits[word] = a.bits[word] & b.bits[word];
+                    result.cardinality += Long.bitCount(result.bits[word]);
+                }
+                if (result.cardinality <= ARRAY_LIMIT) {
+                    result.toArray();
+                }
+                return result;
+            }
+            // Walk the array, which is the smaller side
+            final Chunk array = a.bits == null ? a : b;
+            final Chunk other = array == a ? b : a;
+            result.values = new char[Math.max(1, array.cardinality)];
+            for (int i = 0; i < array.cardinality; i++) {
+                if (other.contains(array.values[i])) {
+                    result.values[result.cardinality++] = array.values[i];
+                }
+            }
+            return result;
+        }
+
+        static @NotNull Chunk or(@NotNull final Chunk a, @NotNull final Chunk b) {
+            if (a.bits != null || b.bits != null) {
+                final Chunk result = (a.bits != null ? a : b).copy();
+                final Chunk other = a.bits != null ? b : a;
+                if (other.bits != null) {
+                    result.cardinality = 0;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        result.bits[word] |= other.bits[word];
+                        result.cardinality += Long.bitCount(result.bits[word]);
+                    }
+                } else {
+                    for (int i = 0; i < other.cardinality; i++) {
+                        result.add(other.values[i]);
+                    }
+                }
+                return result;
+            }
+            // Merge the sorted arrays
+            final char[] merged = new char[a.cardinality + b.cardinality];
+            int i = 0, j = 0, size = 0;
+            while (i < a.cardinality || j < b.cardinality) {
+                if (j == b.cardinality || (i < a.cardinality && a.values[i] < b.values[j])) {
+                    merged[size++] = a.values[i++];
+                } else if (i == a.cardinality || b.values[j] < a.values[i]) {
+                    merged[size++] = b.values[j++];
+                } else {
+                    merged[size++] = a.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            final Chunk result = new Chunk();
+            result.values = merged.length == 0 ? new char[1] : merged;
+            result.cardinality = size;
+            if (size > ARRAY_LIMIT) {
+                result.toBitmap();
+            }
+            return result;
+        }
+    }
+}
@@ -37,8 +37,8 @@ public final class ExamSession implements Comparable<ExamSession> {
         }
         this.month = month;
 
-        GregorianCalendar gregorianCalendar = new GregorianCalendar();
-        gregorianCalendar.set(year, month.getValue() - 1);
+        // Midnight on the first of the month, so the same session always has the same epoch
+        GregorianCalendar gregorianCalendar = new GregorianCalendar(year, month.getValue() - 1, 1);
         this.epochMilli = gregorianCalendar.getTimeInMillis();
 
         // Example: M21 or N20
@@ -0,0 +1,225 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import me.XXX.eesearcher.SystemConfiguration;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents a watcher of the directory configured by {@link SystemConfiguration#watchDirectory()},
+ * including its sub-directories. PDFs which are created or modified are indexed and essays whose file is
+ * deleted are removed, so the index stays fresh without rescanning the directory.
+ * <p>
+ * Events are debounced: a path is only processed once no event has been seen for it for
+ * {@link #DEBOUNCE_DELAY} milliseconds, so a file which is still being copied is indexed once it is
+ * complete. Repeated events for a path are coalesced and the state of the path on the disk decides
+ * whether it is indexed or removed. Removals are completed before files are indexed, so a file which was
+ * renamed or moved is indexed again rather than lost, and a file recognised by its content hash is recorded
+ * as the new source of its essay. Only one run is performed at a time, events which arrive in the meantime
+ * are processed by the next run. All methods in this class are thread-safe.
+ * </p>
+ */
+@Singleton
+public final class FolderWatcher implements Closeable {
+
+    public static final long DEBOUNCE_DELAY = 2000;
+
+    @Inject
+    private SystemConfiguration configuration;
+    @Inject
+    private IndexDataController indexDataController;
+    @Inject
+    private ScheduledExecutorService executorService;
+
+    // The time of the last event of every path which has not been processed yet
+    private final Map<Path, Long> pending = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private ScheduledFuture<?> flushTask;
+    private volatile boolean indexing;
+
+    /**
+     * Start watching the configured directory, if any. Every PDF already in the directory is queued
+     * once so that changes made while the application was closed are picked up; files which were
+     * already indexed are skipped by their content hash.
+     *
+     * @throws IOException Thrown if the directory could not be watched
+     */
+    public synchronized void start() throws IOException {
+        final File directory = configuration.watchDirectory();
+        if (directory == null || watchService != null) {
+            return;
+        }
+        if (!directory.isDirectory()) {
+            throw new IOException(String.format("Watch directory is not a directory: %s", directory));
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(directory.toPath().toAbsolutePath());
+        final Thread thread = new Thread(this::watch, "folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        flushTask = executorService.scheduleWithFixedDelay(this::flush, DEBOUNCE_DELAY, DEBOUNCE_DELAY / 2, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService == null) {
+            return;
+        }
+        flushTask.cancel(false);
+        // Stops the watching thread
+        watchService.close();
+        watchService = null;
+        directories.clear();
+        pending.clear();
+    }
+
+    private static boolean isPDF(@NotNull final Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    /**
+     * Watch a directory and every directory within it, queueing every PDF found.
+     */
+    private void registerTree(@NotNull final Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    final WatchKey key = dir.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                    directories.put(key, dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && isPDF(file)) {
+                        pending.put(file, System.nanoTime());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // The file may have been deleted while walking
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | ClosedWatchServiceException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void watch() {
+        final WatchService watchService = this.watchService;
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            final Path directory = directories.get(key);
+            if (directory == null) {
+                key.cancel();
+                continue;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, so queue everything in the directory again
+                    registerTree(directory);
+                    continue;
+                }
+                final Path path = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    registerTree(path);
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE || isPDF(path)) {
+                    // A deleted path may have been a directory, so it is queued regardless of its name
+                    pending.put(path, System.nanoTime());
+                }
+            }
+            if (!key.reset()) {
+                // The directory itself is no longer accessible
+                directories.remove(key);
+                pending.put(directory, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Process every path which has been quiet for at least {@link #DEBOUNCE_DELAY} milliseconds.
+     */
+    private void flush() {
+        if (indexing) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final List<File> changed = new ArrayList<>();
+        final List<File> removed = new ArrayList<>();
+        for (Map.Entry<Path, Long> entry : pending.entrySet()) {
+            final Path path = entry.getKey();
+            if (now - entry.getValue() < TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_DELAY)) {
+                continue;
+            }
+            // Only remove the path if no event arrived in the meantime
+            if (!pending.remove(path, entry.getValue())) {
+                continue;
+            }
+            if (Files.isRegularFile(path)) {
+                changed.add(path.toFile());
+            } else if (!Files.exists(path)) {
+                removed.add(path.toFile());
+            }
+        }
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        indexing = true;
+        final CompletableFuture<?>[] deletions = removed.stream()
+                .map(file -> indexDataController.performDeletion(file).exceptionally(ex -> {
+                    ex.printStackTrace();
+                    return 0;
+                }))
+                .toArray(CompletableFuture[]::new);
+        // Remove essays first, otherwise the new name of a renamed file would be skipped by its content
+        // hash before the essay of the old name is removed
+        CompletableFuture.allOf(deletions).thenCompose(unused -> changed.isEmpty()
+                ? CompletableFuture.completedFuture(null)
+                : indexDataController.performIndexing(changed, (file, status) -> {
+                })).whenComplete((unused, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+            }
+            indexing = false;
+        });
+    }
+}
@@ -0,0 +1,589 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import me.XXX.eesearcher.SystemConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Represents a persistent inverted index over the body text of essays. The index maps every term
+ * to a posting list, which in turn maps the unique id of an essay to the positions at which the term
+ * occurs in that essay. All methods in this class are thread-safe.
+ * <p>
+ * The index is held in memory and is written to disk next to the database
+ * (see {@link SystemConfiguration#fullTextIndexPath()}) whenever {@link #save()} is called. To keep
+ * the heap small, the positions of a posting list are delta encoded into a single byte array, in the
+ * same form as on disk, and the terms of every essay are remembered so it can be removed without
+ * scanning the whole dictionary.
+ * </p>
+ */
+@Singleton
+public final class FullTextIndex {
+
+    private static final int MAGIC = 0x45454649;
+    private static final int VERSION = 1;
+
+    // Non-fair sync as we expect much more reads than writes
+    private final ReentrantReadWriteLock parentLock = new ReentrantReadWriteLock(false);
+    private final Map<String, PostingList> postings = new HashMap<>();
+    // The terms of every essay, shared with the posting lists rather than copied
+    private final Map<Integer, String[]> documentTerms = new HashMap<>();
+
+    private volatile boolean dirty;
+    private volatile boolean unsorted;
+
+    @Inject
+    private SystemConfiguration configuration;
+
+    /**
+     * Split a piece of text into lower-case terms. Characters escaped by a backslash are treated as
+     * separators so that regex escapes such as {@code \Q} and {@code \E} are not mistaken for terms.
+     *
+     * @param text The text to tokenize
+     * @return Returns a never-null {@link List} of terms in the order they appear
+     */
+    public static @NotNull List<@NotNull String> tokenize(@NotNull final String text) {
+        final List<String> terms = new ArrayList<>();
+        tokenize(text, (term, start, end) -> terms.add(term));
+        return terms;
+    }
+
+    private static void tokenize(@NotNull final String text, @NotNull final TermConsumer consumer) {
+        final StringBuilder builder = new StringBuilder();
+        final int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c == '\\') {
+                // Skip the escaped character
+                i++;
+            } else if (Character.isLetterOrDigit(c)) {
+                if (builder.length() == 0) {
+                    start = i;
+                }
+                builder.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (builder.length() != 0) {
+                consumer.accept(builder.toString(), start, start + builder.length());
+                builder.setLength(0);
+            }
+        }
+        if (builder.length() != 0) {
+            consumer.accept(builder.toString(), start, start + builder.length());
+        }
+    }
+
+    /**
+     * Find every occurrence of a phrase in a piece of text, which is tokenized as by {@link #tokenize(String)}.
+     * These are the occurrences {@link #search(String)} matches an essay by, as long as they do not span two pages.
+     *
+     * @param text   The text to search
+     * @param phrase The terms of the phrase, see {@link #tokenize(String)}
+     * @return Returns a never-null {@link List} of the start and end offsets of every occurrence in the text, in order
+     */
+    public static @NotNull List<int[]> findPhrase(@NotNull final String text, @NotNull final List<@NotNull String> phrase) {
+        if (phrase.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> terms = new ArrayList<>();
+        final List<int[]> offsets = new ArrayList<>();
+        tokenize(text, (term, start, end) -> {
+            terms.add(term);
+            offsets.add(new int[]{start, end});
+        });
+        final List<int[]> occurrences = new ArrayList<>();
+        int i = 0;
+        while (i + phrase.size() <= terms.size()) {
+            if (terms.subList(i, i + phrase.size()).equals(phrase)) {
+                occurrences.add(new int[]{offsets.get(i)[0], offsets.get(i + phrase.size() - 1)[1]});
+                i += phrase.size();
+            } else {
+                i++;
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * Add the text of an essay to this index. Any text previously indexed under the same id
+     * will be replaced.
+     *
+     * @param uniqueID The unique id of the essay
+     * @param pages    The text of the essay, split by page
+     */
+    public void index(final int uniqueID, @NotNull final List<@NotNull String> pages) {
+        // Collect positions outside of the lock
+        final Map<String, List<Integer>> positions = new HashMap<>();
+        int position = 0;
+        for (String page : pages) {
+            for (String term : tokenize(page)) {
+                positions.computeIfAbsent(term, unused -> new ArrayList<>()).add(position++);
+            }
+        }
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            unsafeRemove(uniqueID);
+            final String[] terms = new String[positions.size()];
+            int i = 0;
+            for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+                final PostingList postingList = postings.computeIfAbsent(entry.getKey(), PostingList::new);
+                postingList.add(uniqueID, entry.getValue());
+                unsorted |= !postingList.sorted;
+                terms[i++] = postingList.term;
+            }
+            if (terms.length != 0) {
+                documentTerms.put(uniqueID, terms);
+            }
+            dirty = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove an essay from this index.
+     *
+     * @param uniqueID The unique id of the essay
+     */
+    public void remove(final int uniqueID) {
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            unsafeRemove(uniqueID);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void unsafeRemove(final int uniqueID) {
+        // Only the posting lists of the terms of the essay can contain it
+        final String[] terms = documentTerms.remove(uniqueID);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            final PostingList postingList = postings.get(term);
+            if (postingList != null && postingList.remove(uniqueID) && postingList.size == 0) {
+                postings.remove(term);
+            }
+        }
+        dirty = true;
+    }
+
+    /**
+     * Find all essays which contain the terms of a query as a phrase, that is every term
+     * of the query appears in order and adjacent to one another.
+     * <p>
+     * The query is NOT evaluated as a regular expression: its metacharacters only separate terms, so
+     * {@code colou?r} is the phrase {@code colou r} and matches neither {@code color} nor {@code colour}.
+     * Deep searches therefore only find body text for queries which are plain words or phrases.
+     * </p>
+     *
+     * @param query The query text, which will be tokenized using {@link #tokenize(String)}
+     * @return Returns a never-null {@link Set} of the unique ids of all matching essays
+     */
+    public @NotNull Set<@NotNull Integer> search(@NotNull final String query) {
+        final List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final Lock readLock = parentLock.readLock();
+        while (true) {
+            sortPostings();
+            try {
+                readLock.lock();
+                // An essay may have been indexed since the postings were sorted
+                if (!unsorted) {
+                    return unsafeSearch(terms);
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sort posting lists which were appended to out of order since the last search, so essays can be
+     * looked up while only holding the read lock. Appending and sorting lazily keeps bulk indexing linear.
+     */
+    private void sortPostings() {
+        if (!unsorted) {
+            return;
+        }
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            for (PostingList postingList : postings.values()) {
+                postingList.sort();
+            }
+            unsorted = false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private @NotNull Set<Integer> unsafeSearch(@NotNull final List<String> terms) {
+        final List<PostingList> lists = new ArrayList<>(terms.size());
+        PostingList smallest = null;
+        for (String term : terms) {
+            final PostingList postingList = postings.get(term);
+            if (postingList == null) {
+                // A term which is not in the dictionary can never match
+                return Collections.emptySet();
+            }
+            lists.add(postingList);
+            if (smallest == null || postingList.size < smallest.size) {
+                smallest = postingList;
+            }
+        }
+        final Set<Integer> matches = new HashSet<>();
+        for (int i = 0; i < smallest.size; i++) {
+            if (containsPhrase(lists, smallest.ids[i])) {
+                matches.add(smallest.ids[i]);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean containsPhrase(final List<PostingList> lists, final int uniqueID) {
+        final int[][] positions = new int[lists.size()][];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = lists.get(i).positions(uniqueID);
+            if (positions[i] == null) {
+                return false;
+            }
+        }
+        // Positions are sorted, so binary search for each subsequent term
+        outer:
+        for (int start : positions[0]) {
+            for (int i = 1; i < positions.length; i++) {
+                if (Arrays.binarySearch(positions[i], start + i) < 0) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of distinct terms in this index.
+     *
+     * @return Returns the size of the term dictionary
+     */
+    public int termCount() {
+        final Lock readLock = parentLock.readLock();
+        try {
+            readLock.lock();
+            return postings.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of essays in this index.
+     *
+     * @return Returns the number of essays with at least one term
+     */
+    public int documentCount() {
+        final Lock readLock = parentLock.readLock();
+        try {
+            readLock.lock();
+            return documentTerms.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Load this index from disk, replacing any values currently held in memory. If no index
+     * has been saved yet, this index is left empty.
+     *
+     * @return Returns true if an index was loaded, false if no index has been saved yet
+     * @throws IOException Thrown if the index file could not be read or is corrupted
+     */
+    public boolean load() throws IOException {
+        final File file = configuration.fullTextIndexPath();
+        if (!file.isFile()) {
+            return false;
+        }
+        final Map<String, PostingList> loaded = new HashMap<>();
+        final Map<Integer, List<String>> loadedTerms = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(String.format("Invalid full text index: %s", file));
+            }
+            final int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                final String term = in.readUTF();
+                final int documentCount = readVarInt(in);
+                final PostingList postingList = new PostingList(term);
+                for (int j = 0; j < documentCount; j++) {
+                    final int uniqueID = in.readInt();
+                    postingList.read(uniqueID, in);
+                    loadedTerms.computeIfAbsent(uniqueID, unused -> new ArrayList<>()).add(term);
+                }
+                loaded.put(term, postingList);
+            }
+        }
+        final Map<Integer, String[]> loadedDocuments = new HashMap<>(loadedTerms.size() * 2);
+        for (Map.Entry<Integer, List<String>> entry : loadedTerms.entrySet()) {
+            loadedDocuments.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+        }
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            postings.clear();
+            postings.putAll(loaded);
+            documentTerms.clear();
+            documentTerms.putAll(loadedDocuments);
+            dirty = false;
+            unsorted = true;
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Save this index to disk if it has changed since it was last loaded or saved. The index is
+     * written to a temporary file first so a failed write never corrupts the existing index.
+     *
+     * @throws IOException Thrown if the index could not be written to disk
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        final File file = configuration.fullTextIndexPath();
+        final File temp = new File(file.getPath() + ".tmp");
+        final Lock readLock = parentLock.readLock();
+        readLock.lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                final PostingList postingList = entry.getValue();
+                writeVarInt(out, postingList.size);
+                for (int i = 0; i < postingList.size; i++) {
+                    out.writeInt(postingList.ids[i]);
+                    // Positions are held in the same form as on disk
+                    postingList.write(i, out);
+                }
+            }
+            dirty = false;
+        } finally {
+            readLock.unlock();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeVarInt(final DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(final DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed full text index!");
+    }
+
+    /**
+     * Represents the essays containing a term and the positions of the term in each of them. Every
+     * essay is an entry of {@link #ids} and {@link #offsets}, where the offset points at its positions
+     * in {@link #data}: their count followed by the gaps between them, each as a variable length
+     * integer. Entries are appended in any order and sorted by id when an essay is looked up.
+     * This class is NOT thread safe.
+     */
+    private static final class PostingList {
+
+        private final String term;
+        private int[] ids = new int[1];
+        private int[] offsets = new int[1];
+        private int size;
+        private byte[] data = new byte[4];
+        private int dataSize;
+        // Bytes of data no longer referenced by an entry, reclaimed once they make up half of it
+        private int garbage;
+        private boolean sorted = true;
+
+        private PostingList(@NotNull final String term) {
+            this.term = term;
+        }
+
+        void add(final int uniqueID, @NotNull final List<Integer> positions) {
+            appendEntry(uniqueID);
+            appendVarInt(positions.size());
+            int previous = 0;
+            // Delta encode positions as they are sorted
+            for (int position : positions) {
+                appendVarInt(position - previous);
+                previous = position;
+            }
+        }
+
+        void read(final int uniqueID, @NotNull final DataInput in) throws IOException {
+            appendEntry(uniqueID);
+            final int count = readVarInt(in);
+            appendVarInt(count);
+            for (int i = 0; i < count; i++) {
+                appendVarInt(readVarInt(in));
+            }
+        }
+
+        void write(final int index, @NotNull final DataOutput out) throws IOException {
+            final int offset = offsets[index];
+            out.write(data, offset, entryLength(offset));
+        }
+
+        boolean remove(final int uniqueID) {
+            final int index = indexOf(uniqueID);
+            if (index < 0) {
+                return false;
+            }
+            garbage += entryLength(offsets[index]);
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(offsets, index + 1, offsets, index, size - index - 1);
+            size--;
+            if (garbage > dataSize / 2) {
+                compact();
+            }
+            return true;
+        }
+
+        /**
+         * Get the positions of the term in an essay. The entries must have been sorted, see {@link #sort()}.
+         *
+         * @return Returns the sorted positions of the term in an essay, or null if the essay does not contain it
+         */
+        @Nullable int[] positions(final int uniqueID) {
+            final int index = Arrays.binarySearch(ids, 0, size, uniqueID);
+            if (index < 0) {
+                return null;
+            }
+            final int[] offset = {offsets[index]};
+            final int[] positions = new int[nextVarInt(offset)];
+            int previous = 0;
+            for (int i = 0; i < positions.length; i++) {
+                previous += nextVarInt(offset);
+                positions[i] = previous;
+            }
+            return positions;
+        }
+
+        private int indexOf(final int uniqueID) {
+            if (!sorted) {
+                sort();
+            }
+            return Arrays.binarySearch(ids, 0, size, uniqueID);
+        }
+
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            // Sort the entries by id, carrying the index of each entry in the lower half
+            final long[] entries = new long[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(entries);
+            final int[] sortedOffsets = new int[offsets.length];
+            for (int i = 0; i < size; i++) {
+                ids[i] = (int) (entries[i] >> 32);
+                sortedOffsets[i] = offsets[(int) entries[i]];
+            }
+            offsets = sortedOffsets;
+            sorted = true;
+        }
+
+        private void compact() {
+            final byte[] compacted = new byte[Math.max(4, dataSize - garbage)];
+            int position = 0;
+            for (int i = 0; i < size; i++) {
+                final int length = entryLength(offsets[i]);
+                System.arraycopy(data, offsets[i], compacted, position, length);
+                offsets[i] = position;
+                position += length;
+            }
+            data = compacted;
+            dataSize = position;
+            garbage = 0;
+        }
+
+        private void appendEntry(final int uniqueID) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            if (size != 0 && ids[size - 1] >= uniqueID) {
+                sorted = false;
+            }
+            ids[size] = uniqueID;
+            offsets[size] = dataSize;
+            size++;
+        }
+
+        private void appendVarInt(int value) {
+            if (dataSize + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[dataSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[dataSize++] = (byte) value;
+        }
+
+        /**
+         * Read a variable length integer from {@link #data}, advancing the offset held in the array past it.
+         */
+        private int nextVarInt(final int[] offset) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = data[offset[0]++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private int entryLength(final int offset) {
+            final int[] end = {offset};
+            final int count = nextVarInt(end);
+            for (int i = 0; i < count; i++) {
+                nextVarInt(end);
+            }
+            return end[0] - offset;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TermConsumer {
+        void accept(@NotNull String term, int start, int end);
+    }
+}
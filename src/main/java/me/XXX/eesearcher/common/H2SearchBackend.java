@@ -0,0 +1,352 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.data.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Represents a {@link SearchBackend} which searches the database directly. Regular expressions are
+ * evaluated against an in-memory {@link MetadataCatalog}, narrowed down by a {@link TrigramIndex},
+ * while body text is searched using the {@link FullTextIndex}. Until the catalog has been loaded,
+ * queries are answered by H2 instead. All methods in this class are thread-safe.
+ */
+@Singleton
+public final class H2SearchBackend implements SearchBackend {
+
+    /**
+     * The maximum number of trigram candidates which are passed to the database, a regular expression
+     * with more candidates is not selective enough to be worth the IN list.
+     */
+    public static final int MAX_TRIGRAM_CANDIDATES = 2048;
+
+    @Inject
+    private DataUtil dataUtil;
+    @Inject
+    @Named("internal-pool")
+    private HikariPool connectionPool;
+    @Inject
+    private ScheduledExecutorService executorService;
+    @Inject
+    private SystemConfiguration configuration;
+    @Inject
+    private FullTextIndex fullTextIndex;
+    @Inject
+    private TrigramIndex trigramIndex;
+    @Inject
+    private MetadataCatalog catalog;
+    @Inject
+    private PatternCache patternCache;
+
+    // Completes once the full text index holds every essay, deep searches wait for it
+    private volatile CompletableFuture<Void> fullTextIndexReady = CompletableFuture.completedFuture(null);
+    // Essays deleted while an index is rebuilt, which the rebuild may have read before they were deleted
+    private final Set<Integer> deletedDuringRebuild = new HashSet<>();
+    // Guarded by deletedDuringRebuild
+    private int rebuilds;
+
+    @Override
+    public void open() throws IOException {
+        boolean loaded;
+        try {
+            loaded = fullTextIndex.load();
+        } catch (IOException ex) {
+            // A corrupted index is not fatal, it can be rebuilt from the stored page text
+            ex.printStackTrace();
+            loaded = false;
+        }
+        if (!loaded) {
+            fullTextIndexReady = rebuildFullTextIndex();
+            fullTextIndexReady.exceptionally(ex -> {
+                ex.printStackTrace();
+                return null;
+            });
+        }
+        // Metadata indexes are cheap to build, so they are never persisted
+        rebuildMetadataIndexes().exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+
+    @Override
+    public void index(@NotNull IndexData indexData, @NotNull List<@NotNull String> pages) {
+        synchronized (deletedDuringRebuild) {
+            // Imported again, so it must not be removed once a rebuild completes
+            deletedDuringRebuild.remove(indexData.getUniqueID());
+        }
+        fullTextIndex.index(indexData.getUniqueID(), pages);
+        catalog.put(indexData);
+        trigramIndex.index(indexData.getUniqueID(), indexData.getTitle(), indexData.getResearchQuestion());
+    }
+
+    @Override
+    public void delete(@NotNull IndexData indexData) {
+        synchronized (deletedDuringRebuild) {
+            if (rebuilds != 0) {
+                deletedDuringRebuild.add(indexData.getUniqueID());
+            }
+            remove(indexData.getUniqueID());
+        }
+    }
+
+    private void remove(final int uniqueID) {
+        fullTextIndex.remove(uniqueID);
+        catalog.remove(uniqueID);
+        trigramIndex.remove(uniqueID);
+    }
+
+    /**
+     * Run a rebuild of an index from the database. An essay deleted during the rebuild may have been read
+     * by it before the deletion, so every such essay is removed again once the rebuild completes.
+     */
+    private @NotNull CompletableFuture<Void> rebuild(@NotNull final Runnable rebuild) {
+        synchronized (deletedDuringRebuild) {
+            rebuilds++;
+        }
+        return CompletableFuture.runAsync(rebuild, executorService).whenComplete((unused, ex) -> {
+            synchronized (deletedDuringRebuild) {
+                deletedDuringRebuild.forEach(this::remove);
+                if (--rebuilds == 0) {
+                    deletedDuringRebuild.clear();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void commit() throws IOException {
+        fullTextIndex.save();
+    }
+
+    @Override
+    public @NotNull Stats stats() throws IOException {
+        final long documentCount;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement query = dataUtil.newCount(connection);
+             ResultSet resultSet = query.executeQuery()) {
+            documentCount = resultSet.next() ? resultSet.getLong(1) : 0;
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+        final File database = new File(configuration.databasePath().getAbsolutePath() + ".mv.db");
+        return new Stats(documentCount, database.length() + configuration.fullTextIndexPath().length());
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+    }
+
+    @Override
+    public @NotNull SearchPage query(@NotNull QueryParameters queryParameters,
+                                     @Nullable QueryCursor cursor,
+                                     int pageSize,
+                                     @NotNull Consumer<@NotNull List<@NotNull SearchResult>> onBatch) throws IOException {
+        // Look up matching body text in the full text index if a deep search was requested
+        final Set<Integer> deepMatches;
+        if (queryParameters.deepSearch && queryParameters.regex != null) {
+            // A partially rebuilt index would silently miss matches
+            awaitFullTextIndex();
+            deepMatches = fullTextIndex.search(queryParameters.regex);
+        } else {
+            deepMatches = Collections.emptySet();
+        }
+        // Narrow down the essays the regular expression has to be checked against
+        final Optional<int[]> candidates = queryParameters.regex == null
+                ? Optional.empty() : trigramIndex.candidates(queryParameters.regex);
+        if (catalog.isComplete()) {
+            return performCatalogQuery(queryParameters, candidates.orElse(null), deepMatches, cursor, pageSize, onBatch);
+        }
+        final BatchCollector collector = new BatchCollector(onBatch);
+        QueryCursor last = null;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement query = dataUtil.newSearch(connection, queryParameters,
+                     candidates.filter(ids -> ids.length <= MAX_TRIGRAM_CANDIDATES).orElse(null),
+                     deepMatches, cursor, pageSize);
+             ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next()) {
+                // Only metadata is read, PDFs are loaded through loadEssay when needed
+                final IndexData indexData = dataUtil.extractIndexData(resultSet);
+                last = dataUtil.extractCursor(resultSet);
+                collector.accept(new SearchResult(indexData, Collections.emptyList()));
+            }
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+        final List<SearchResult> results = collector.finish();
+        // A full page means there may be more results after it
+        return new SearchPage(results, pageSize != -1 && results.size() == pageSize ? last : null);
+    }
+
+    private void awaitFullTextIndex() throws IOException {
+        try {
+            fullTextIndexReady.join();
+        } catch (CompletionException ex) {
+            throw new IOException("The full text index could not be rebuilt", ex.getCause());
+        }
+    }
+
+    /**
+     * Perform a query for a single page of results against the {@link MetadataCatalog} on the
+     * current thread. The regular expression is compiled once. A page is found by walking the essays in
+     * result order until the page is full, see {@link MetadataCatalog#scan}, unless the trigram index leaves
+     * so few candidates that the walk would cover most of the catalog. Those are checked directly and only
+     * the first page of matches is kept in a bounded heap. A query for every result is evaluated in parallel.
+     * @param queryParameters The query parameters
+     * @param candidates The sorted unique ids of essays which could match the regular expression, null for every essay
+     * @param deepMatches The unique ids of essays whose body text matched the query
+     * @param cursor The cursor of the previous page, null for the first page
+     * @param pageSize The maximum number of results, -1 for an unbounded query
+     * @param onBatch A listener for every batch of results
+     * @return Returns a never-null {@link SearchPage}
+     * @throws IllegalArgumentException Thrown if the regular expression or its flags are invalid
+     */
+    private SearchPage performCatalogQuery(@NotNull QueryParameters queryParameters,
+                                           @Nullable int[] candidates,
+                                           @NotNull Set<Integer> deepMatches,
+                                           @Nullable QueryCursor cursor,
+                                           int pageSize,
+                                           @NotNull Consumer<List<SearchResult>> onBatch) throws IllegalArgumentException {
+        final String regex = queryParameters.regex;
+        final Pattern pattern = regex == null || regex.isEmpty() ? null : patternCache.compile(regex, queryParameters.flags);
+        final Predicate<IndexData> matches = indexData -> pattern == null
+                || deepMatches.contains(indexData.getUniqueID())
+                || pattern.matcher(indexData.getTitle()).find()
+                || pattern.matcher(indexData.getResearchQuestion()).find();
+        final int candidateCount = pattern == null || candidates == null ? -1 : candidates.length + deepMatches.size();
+        // Walking the catalog costs about as much per essay as matching a candidate, and a walk is expected to
+        // cover pageSize / candidateCount of the catalog, so it is cheaper unless there are only a few candidates
+        if (pageSize != -1 && (candidateCount == -1
+                || (long) candidateCount * candidateCount > (long) pageSize * catalog.size())) {
+            // Only candidates and deep matches can possibly match
+            final Predicate<IndexData> candidate = candidateCount == -1 ? indexData -> true
+                    : indexData -> Arrays.binarySearch(candidates, indexData.getUniqueID()) >= 0
+                    || deepMatches.contains(indexData.getUniqueID());
+            final List<IndexData> page = catalog.scan(queryParameters.subjects, queryParameters.examSessionConstraint,
+                    cursor, candidate.and(matches), pageSize);
+            return toSearchPage(page, pageSize, onBatch);
+        }
+        // Only candidates and deep matches can possibly match
+        final Collection<Integer> textCandidates = candidateCount == -1 ? null
+                : Stream.concat(Arrays.stream(candidates).boxed(), deepMatches.stream()).distinct()
+                .collect(Collectors.toList());
+        // Subject and exam session filters are answered by the bitmaps of the catalog
+        final Collection<IndexData> source = catalog.select(queryParameters.subjects,
+                queryParameters.examSessionConstraint, textCandidates);
+        // Only a query for every result is worth splitting, a page is found among a few candidates
+        final Stream<IndexData> filtered = (pageSize == -1 ? source.parallelStream() : source.stream())
+                .filter(indexData -> cursor == null || cursor.isBefore(indexData))
+                .filter(matches);
+        final List<IndexData> page;
+        if (pageSize == -1) {
+            page = filtered.sorted(QueryCursor.RESULT_ORDER).collect(Collectors.toList());
+        } else {
+            // The head of the heap is the last match of the page, which is dropped once a match precedes it
+            final PriorityQueue<IndexData> heap = filtered.collect(
+                    () -> new PriorityQueue<>(pageSize + 1, QueryCursor.RESULT_ORDER.reversed()),
+                    (queue, indexData) -> offer(queue, indexData, pageSize),
+                    (queue, other) -> other.forEach(indexData -> offer(queue, indexData, pageSize)));
+            page = new ArrayList<>(heap);
+            page.sort(QueryCursor.RESULT_ORDER);
+        }
+        return toSearchPage(page, pageSize, onBatch);
+    }
+
+    private static SearchPage toSearchPage(@NotNull List<IndexData> page, int pageSize, @NotNull Consumer<List<SearchResult>> onBatch) {
+        final BatchCollector collector = new BatchCollector(onBatch);
+        for (IndexData indexData : page) {
+            collector.accept(new SearchResult(indexData, Collections.emptyList()));
+        }
+        final List<SearchResult> results = collector.finish();
+        final QueryCursor last = page.isEmpty() ? null : QueryCursor.of(page.get(page.size() - 1));
+        return new SearchPage(results, pageSize != -1 && results.size() == pageSize ? last : null);
+    }
+
+    private static void offer(@NotNull PriorityQueue<IndexData> heap, @NotNull IndexData indexData, int pageSize) {
+        heap.offer(indexData);
+        if (heap.size() > pageSize) {
+            heap.poll();
+        }
+    }
+
+    /**
+     * Rebuild the {@link FullTextIndex} from the page text stored in the database, so that
+     * no PDFs have to be decoded. The rebuilt index is saved to disk once complete.
+     *
+     * @return Returns a never-null {@link CompletableFuture} which represents current state of execution.
+     * The result of the future will always be null.
+     */
+    public @NotNull CompletableFuture<Void> rebuildFullTextIndex() {
+        return rebuild(() -> {
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newPageTextScan(connection);
+                 ResultSet resultSet = query.executeQuery()) {
+                int current = 0;
+                boolean hasCurrent = false;
+                final List<String> pages = new ArrayList<>();
+                // Rows are ordered by essay, so flush the pages every time the essay changes
+                while (resultSet.next()) {
+                    final int uniqueID = resultSet.getInt(DataUtil.COLUMN_ESSAY);
+                    if (hasCurrent && uniqueID != current) {
+                        fullTextIndex.index(current, pages);
+                        pages.clear();
+                    }
+                    current = uniqueID;
+                    hasCurrent = true;
+                    pages.add(dataUtil.extractPageText(resultSet));
+                }
+                if (hasCurrent) {
+                    fullTextIndex.index(current, pages);
+                }
+                fullTextIndex.save();
+            } catch (SQLException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    /**
+     * Rebuild the {@link MetadataCatalog} and the {@link TrigramIndex} from the metadata stored in the database.
+     *
+     * @return Returns a never-null {@link CompletableFuture} which represents current state of execution.
+     * The result of the future will always be null.
+     */
+    public @NotNull CompletableFuture<Void> rebuildMetadataIndexes() {
+        return rebuild(() -> {
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newMetadataScan(connection);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    final IndexData indexData = dataUtil.extractIndexData(resultSet);
+                    catalog.put(indexData);
+                    trigramIndex.index(indexData.getUniqueID(), indexData.getTitle(), indexData.getResearchQuestion());
+                }
+                catalog.markComplete();
+                trigramIndex.markComplete();
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+}
@@ -0,0 +1,339 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import me.XXX.eesearcher.SystemConfiguration;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents an append-only journal of the files passed to
+ * {@link IndexDataController#performImport(Collection, java.util.function.BiConsumer)}, so an import which
+ * was interrupted can be resumed with only the files which were never processed. Every line of the journal
+ * records the state of one file, either {@link #QUEUED} or an {@link IndexDataController.IndexingStatus}, and
+ * the last line for a file wins. A line which was only partially written when the application stopped is ignored.
+ * <p>
+ * Once every import has finished the journal is compacted: it is deleted if no file is still queued,
+ * otherwise it is rewritten with the final state of each file so the progress of the import is kept. Queued
+ * files which no longer exist are dropped, and an interrupted import which will not be resumed is removed with
+ * {@link #discard()}. All methods in this class are thread-safe.
+ * </p>
+ */
+@Singleton
+public final class ImportJournal implements Closeable {
+
+    private static final String QUEUED = "QUEUED";
+    private static final char SEPARATOR = '\t';
+
+    @Inject
+    private SystemConfiguration configuration;
+
+    // The latest state of every file in the journal, in the order the files were queued
+    private final Map<String, String> states = new LinkedHashMap<>();
+    private boolean loaded;
+    private int activeRuns;
+    private Writer writer;
+
+    /**
+     * Get the progress of the files in the journal, including the files of an import which was interrupted.
+     *
+     * @return Returns a snapshot of the journal
+     */
+    public synchronized @NotNull Progress progress() {
+        load();
+        if (dropMissingFiles() && activeRuns == 0) {
+            try {
+                compact();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        final List<File> remaining = new ArrayList<>();
+        int indexed = 0;
+        int skipped = 0;
+        int failed = 0;
+        for (Map.Entry<String, String> entry : states.entrySet()) {
+            switch (entry.getValue()) {
+                case QUEUED:
+                    remaining.add(new File(entry.getKey()));
+                    break;
+                case "INDEXED":
+                    indexed++;
+                    break;
+                case "SKIPPED":
+                    skipped++;
+                    break;
+                default:
+                    failed++;
+                    break;
+            }
+        }
+        return new Progress(remaining, indexed, skipped, failed);
+    }
+
+    /**
+     * Record the start of an indexing run.
+     *
+     * @param files Every file of the run, all of which are queued
+     */
+    public synchronized void begin(@NotNull final Collection<File> files) {
+        load();
+        activeRuns++;
+        try {
+            final Writer writer = writer();
+            for (File file : files) {
+                final String path = file.getAbsolutePath();
+                states.put(path, QUEUED);
+                writeLine(writer, QUEUED, path);
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            // The import itself does not depend on the journal
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Record that a file has been processed. The record is flushed immediately, so it survives the
+     * application being stopped.
+     *
+     * @param file   The file
+     * @param status The outcome of indexing the file
+     */
+    public synchronized void record(@NotNull final File file, @NotNull final IndexDataController.IndexingStatus status) {
+        final String path = file.getAbsolutePath();
+        states.put(path, status.name());
+        try {
+            final Writer writer = writer();
+            writeLine(writer, status.name(), path);
+            writer.flush();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Record the end of an indexing run, compacting the journal if no other run is active. Files of the run
+     * which were never processed, for example because the run was interrupted, stay queued.
+     */
+    public synchronized void end() {
+        if (activeRuns > 0) {
+            activeRuns--;
+        }
+        if (activeRuns > 0) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Forget an interrupted import which will not be resumed, deleting the journal. Nothing is discarded while
+     * an indexing run is active, as the journal then records the progress of that run.
+     */
+    public synchronized void discard() {
+        load();
+        if (activeRuns > 0) {
+            return;
+        }
+        states.clear();
+        try {
+            compact();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Forget the queued files of an interrupted import which will not be resumed, for example because they
+     * were removed from the selection. The journal is deleted if no other file is still queued.
+     *
+     * @param files The files which will not be resumed
+     */
+    public synchronized void discard(@NotNull final Collection<File> files) {
+        load();
+        if (activeRuns > 0) {
+            return;
+        }
+        boolean changed = false;
+        for (File file : files) {
+            changed |= states.remove(file.getAbsolutePath(), QUEUED);
+        }
+        if (!changed) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        final Path path = configuration.importJournalPath().toPath();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(SEPARATOR);
+                if (separator <= 0 || separator == line.length() - 1) {
+                    continue;
+                }
+                final String state = line.substring(0, separator);
+                if (isValidState(state)) {
+                    states.put(line.substring(separator + 1), state);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Drop the queued files which no longer exist, as they can never be resumed.
+     *
+     * @return Returns true if a file was dropped
+     */
+    private boolean dropMissingFiles() {
+        return states.entrySet().removeIf(entry -> QUEUED.equals(entry.getValue()) && !new File(entry.getKey()).isFile());
+    }
+
+    private static boolean isValidState(@NotNull final String state) {
+        if (QUEUED.equals(state)) {
+            return true;
+        }
+        for (IndexDataController.IndexingStatus status : IndexDataController.IndexingStatus.values()) {
+            if (status.name().equals(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private @NotNull Writer writer() throws IOException {
+        if (writer == null) {
+            final Path path = configuration.importJournalPath().toPath();
+            // The last line may be incomplete, so start on a new line
+            final boolean existing = Files.exists(path) && Files.size(path) > 0;
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (existing) {
+                writer.write(System.lineSeparator());
+            }
+        }
+        return writer;
+    }
+
+    private static void writeLine(@NotNull final Writer writer, @NotNull final String state, @NotNull final String path) throws IOException {
+        writer.write(state);
+        writer.write(SEPARATOR);
+        writer.write(path);
+        writer.write(System.lineSeparator());
+    }
+
+    /**
+     * Replace the journal with one line per file, or delete it if no file is queued.
+     */
+    private void compact() throws IOException {
+        close();
+        dropMissingFiles();
+        final Path path = configuration.importJournalPath().toPath();
+        if (!states.containsValue(QUEUED)) {
+            states.clear();
+            Files.deleteIfExists(path);
+            return;
+        }
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : states.entrySet()) {
+                writeLine(writer, entry.getValue(), entry.getKey());
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Represents the state of the files in the journal.
+     */
+    public static final class Progress {
+
+        private final List<File> remaining;
+        private final int indexed;
+        private final int skipped;
+        private final int failed;
+
+        private Progress(@NotNull final List<File> remaining, final int indexed, final int skipped, final int failed) {
+            this.remaining = Collections.unmodifiableList(remaining);
+            this.indexed = indexed;
+            this.skipped = skipped;
+            this.failed = failed;
+        }
+
+        /**
+         * Get the files which were queued but never processed.
+         *
+         * @return Returns an unmodifiable list of files, in the order they were queued
+         */
+        public @NotNull List<File> getRemaining() {
+            return remaining;
+        }
+
+        public int getIndexed() {
+            return indexed;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Get the number of files which have been processed, whatever the outcome.
+         *
+         * @return Returns the number of indexed, skipped and failed files
+         */
+        public int getCompleted() {
+            return indexed + skipped + failed;
+        }
+
+        public int getTotal() {
+            return getCompleted() + remaining.size();
+        }
+    }
+}
@@ -2,45 +2,75 @@ package me.XXX.eesearcher.common;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
 import me.XXX.eesearcher.data.*;
-import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
 import org.apache.pdfbox.pdfparser.PDFParser;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Represents a controller for queries for {@link IndexData}. All methods in this class are
  * thread-safe and can be called from multiple threads.
  * <p>
- * This controller will periodically
- * synchronise cached {@link IndexData} back to the database; however, this process is not
- * scheduled. In fact, synchronization back to the database for cached objects <strong>only</strong>
- * occurs when there are no strong references to them.
+ * Loaded {@link Essay}s are cached up to {@link SystemConfiguration#essayCacheBudget()}, weighed by the
+ * size of their PDFs, and the least recently used essays are evicted first. An evicted essay is not
+ * closed, since a caller may still be reading it; its PDF is released once it is no longer referenced.
+ * Essays are never written back when evicted, as the stored PDF is never modified.
  * </p>
  */
 public final class IndexDataController {
 
     public static final int MAX_QUERY_CACHE_SIZE = 20;
+    public static final int MIN_BATCH_SIZE = 10;
+    public static final int MAX_BATCH_SIZE = 200;
+    public static final int INDEXING_QUEUE_CAPACITY = 4;
+    public static final int WRITE_BATCH_SIZE = 32;
+    public static final long WRITE_BATCH_BYTES = 16L * 1024 * 1024;
+    public static final long WRITE_BATCH_DELAY = 250;
+    public static final long BLOB_DELETION_RETRY_DELAY = 30;
+    public static final int HASH_BUFFER_SIZE = 64 * 1024;
 
-    private final Cache<QueryParameters, Set<SearchResult>> queryCache = CacheBuilder.newBuilder()
+    // Keyed by the canonical form of each query, so equivalent queries share their results
+    private final Cache<QueryKey, CachedResults> queryCache = CacheBuilder.newBuilder()
             .concurrencyLevel(2)
             .maximumSize(MAX_QUERY_CACHE_SIZE)
             .build();
-    private final Map<QueryParameters, CompletableFuture<Set<SearchResult>>> pendingQueries = new ConcurrentHashMap<>();
+    private final Map<QueryKey, CompletableFuture<Set<SearchResult>>> pendingQueries = new ConcurrentHashMap<>();
+    // Increased whenever essays are added or removed, so results computed before then are never cached
+    private final AtomicLong queryGeneration = new AtomicLong();
 
     @Inject
     private Parser parser;
@@ -51,100 +81,311 @@ public final class IndexDataController {
     private HikariPool connectionPool;
     @Inject
     private ScheduledExecutorService executorService;
+    @Inject
+    @Named("pipeline-pool")
+    private ExecutorService pipelineExecutorService;
+    @Inject
+    private SearchBackend searchBackend;
+    @Inject
+    private SnippetGenerator snippetGenerator;
+    @Inject
+    private SystemConfiguration configuration;
+    @Inject
+    private BlobStore blobStore;
+    @Inject
+    private ImportJournal importJournal;
 
-    private final Cache<IndexData, Essay> indexDataCache = CacheBuilder.newBuilder()
-            // Expecting 2 concurrent threads, no more.
-            .concurrencyLevel(2)
-            // Remove entries if they are weakly referenced
-            .weakKeys()
-            .weakValues()
-            .<IndexData, Essay>removalListener(listener -> {
-                final Essay value = listener.getValue();
-                if (value == null) {
-                    return;
-                }
-                // Delegate the save task to the IO thread pool so as to keep the thread managing
-                // this map free to clean up other entries.
-                executorService.execute(() -> {
-                    // Close the essay's underlying PDF using try-with resources
-                    try (Essay essay = value; Connection connection = connectionPool.getConnection();
-                         PreparedStatement statement = dataUtil.newEntry(connection, essay, true)) {
-                        statement.execute();
-                    } catch (SQLException | IOException ex) {
-                        // Should never happen!
-                        ex.printStackTrace();
-                    }
-                });
-            }).build();
+    // Built on first use, as the budget is read from the injected configuration
+    private volatile Cache<IndexData, Essay> indexDataCache;
+    private final AtomicBoolean blobDeletionScheduled = new AtomicBoolean();
 
 
     /**
-     * Perform a query asynchronously from the current thread.
+     * Perform a query asynchronously on the IO thread pool. If an identical query is already
+     * being performed, its results are delivered in a single batch once it completes.
      * @param queryParameters The query parameters
+     * @param onBatch A listener for every batch of results as they are read from the database
      * @return Returns a {@link CompletableFuture} representing the state of execution
-     * @see #performQueryAsync(QueryParameters)
+     * @see #performQuerySync(QueryParameters, Consumer)
      */
-    private CompletableFuture<Set<SearchResult>> performQueryAsync(@NotNull QueryParameters queryParameters) {
-        final CompletableFuture<Set<SearchResult>> pending = pendingQueries.get(queryParameters);
+    private CompletableFuture<Set<SearchResult>> performQueryAsync(@NotNull QueryParameters queryParameters,
+                                                                   @NotNull Consumer<List<SearchResult>> onBatch) {
+        final QueryKey key = QueryKey.of(queryParameters);
+        final CompletableFuture<Set<SearchResult>> pending = pendingQueries.get(key);
         if (pending != null) {
-            return pending;
+            return pending.thenApply(results -> {
+                if (!results.isEmpty()) {
+                    onBatch.accept(new ArrayList<>(results));
+                }
+                return results;
+            });
         }
-        return CompletableFuture.completedFuture(performQuerySync(queryParameters));
+        final CompletableFuture<Set<SearchResult>> completableFuture = new CompletableFuture<>();
+        pendingQueries.put(key, completableFuture);
+        executorService.execute(() -> {
+            try {
+                completableFuture.complete(performQuerySync(queryParameters, onBatch));
+            } catch (IOException | RuntimeException ex) {
+                completableFuture.completeExceptionally(ex);
+            } finally {
+                pendingQueries.remove(key);
+            }
+        });
+        return completableFuture;
     }
 
     /**
-     * Perform a query to the database on the current thread.
+     * Perform a query to the database on the current thread. Results are handed to the listener
+     * in batches as rows arrive; the first batch is kept small so it can be displayed immediately.
      * @param queryParameters The query parameters
+     * @param onBatch A listener for every batch of results as they are read from the database
      * @return Returns a never-null {@link Set} of {@link SearchResult}s
-     * @see #performQueryAsync(QueryParameters)
+     * @throws IOException Thrown if the query could not be performed
+     * @see #performQueryAsync(QueryParameters, Consumer)
      */
-    private Set<SearchResult> performQuerySync(QueryParameters queryParameters) {
-        final CompletableFuture<Set<SearchResult>> completableFuture = new CompletableFuture<>();
-        pendingQueries.put(queryParameters, completableFuture);
-        final Set<SearchResult> results = new HashSet<>();
-        try (Connection connection = connectionPool.getConnection();
-             PreparedStatement query = dataUtil.newSearch(connection, queryParameters, -1);
-             ResultSet resultSet = query.executeQuery()) {
-            while (resultSet.next()) {
-                Essay essay;
-                try {
-                    essay = dataUtil.extractEssay(resultSet, this::getCachedEssay);
-                    indexDataCache.put(essay.getIndexData(), essay);
-                    results.add(new SearchResult(essay, Collections.emptyList()));
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+    private Set<SearchResult> performQuerySync(@NotNull QueryParameters queryParameters,
+                                               @NotNull Consumer<List<SearchResult>> onBatch) throws IOException {
+        final long generation = queryGeneration.get();
+        final List<SearchResult> results = new ArrayList<>(performBackendQuery(queryParameters, null, -1, onBatch).getResults());
+        results.sort(Comparator.comparing(SearchResult::getIndexData, QueryCursor.RESULT_ORDER));
+        cacheResults(QueryKey.of(queryParameters), generation, null, results, true);
+        return new HashSet<>(results);
+    }
+
+    /**
+     * Cache the results of a query, or of a page of a query. A page is only cached if it is the first
+     * page, or if it directly follows the results already cached.
+     * @param key The canonical form of the query
+     * @param generation The value of {@link #queryGeneration} before the query was performed
+     * @param cursor The cursor of the previous page, null for the first page
+     * @param results The results in result order
+     * @param complete Whether no results follow these
+     */
+    private void cacheResults(@NotNull QueryKey key,
+                              long generation,
+                              @Nullable QueryCursor cursor,
+                              @NotNull List<SearchResult> results,
+                              boolean complete) {
+        queryCache.asMap().compute(key, (unused, existing) -> {
+            // Essays were added or removed while the query was performed
+            if (generation != queryGeneration.get()) {
+                return existing;
+            }
+            if (cursor == null) {
+                final boolean covered = existing != null && (existing.complete || existing.results.length >= results.size());
+                return covered ? existing : new CachedResults(results, complete);
+            }
+            if (existing == null || existing.complete || !existing.endsAt(cursor)) {
+                return existing;
+            }
+            return existing.append(results, complete);
+        });
+    }
+
+    /**
+     * Discard every cached query result, as essays have been added or removed.
+     */
+    private void invalidateQueries() {
+        queryGeneration.incrementAndGet();
+        queryCache.invalidateAll();
+    }
+
+    /**
+     * Perform a query against the search backend on the current thread. The snippets of each batch
+     * are computed before the batch is handed to the listener.
+     * @param queryParameters The query parameters
+     * @param cursor The cursor of the previous page, null for the first page
+     * @param pageSize The maximum number of results, -1 for an unbounded query
+     * @param onBatch A listener for every batch of results
+     * @return Returns a never-null {@link SearchPage} whose results carry their snippets
+     * @throws IOException Thrown if the query could not be performed
+     */
+    private SearchPage performBackendQuery(@NotNull QueryParameters queryParameters,
+                                          @Nullable QueryCursor cursor,
+                                          int pageSize,
+                                          @NotNull Consumer<List<SearchResult>> onBatch) throws IOException {
+        final List<SearchResult> results = new ArrayList<>();
+        final SearchPage page = searchBackend.query(queryParameters, cursor, pageSize, batch -> {
+            final List<SearchResult> highlighted = snippetGenerator.highlight(queryParameters, batch);
+            results.addAll(highlighted);
+            onBatch.accept(highlighted);
+        });
+        return new SearchPage(results, page.getNextCursor().orElse(null));
+    }
+
+    /**
+     * Get the cache of loaded essays, building it on first use.
+     *
+     * @return Returns the cache of essays, bounded by the size of their PDFs
+     */
+    private Cache<IndexData, Essay> indexDataCache() {
+        Cache<IndexData, Essay> cache = indexDataCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = indexDataCache;
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                            // Expecting 2 concurrent threads, no more.
+                            .concurrencyLevel(2)
+                            .maximumWeight(configuration.essayCacheBudget() * 1024 * 1024)
+                            .<IndexData, Essay>weigher((indexData, essay) -> weigh(essay))
+                            .recordStats()
+                            .removalListener(listener -> {
+                                final Essay essay = listener.getValue();
+                                if (essay == null) {
+                                    return;
+                                }
+                                // Deleted essays are closed at once, evicted essays once they are no longer in use
+                                if (listener.getCause() == RemovalCause.EXPLICIT) {
+                                    try {
+                                        essay.close();
+                                    } catch (IOException ex) {
+                                        ex.printStackTrace();
+                                    }
+                                } else {
+                                    release(essay);
+                                }
+                            }).build();
+                    indexDataCache = cache;
                 }
             }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            completableFuture.completeExceptionally(ex);
         }
-        queryCache.put(queryParameters, results);
-        pendingQueries.remove(queryParameters);
-        if (!completableFuture.isCompletedExceptionally()) {
-            completableFuture.complete(results);
+        return cache;
+    }
+
+    /**
+     * Release a reference to an essay, see {@link Essay#release()}.
+     *
+     * @param essay The essay
+     */
+    private static void release(@NotNull Essay essay) {
+        try {
+            essay.release();
+        } catch (IOException ex) {
+            ex.printStackTrace();
         }
-        return results;
+    }
+
+    /**
+     * Estimate the memory an essay occupies from the size of its PDF.
+     *
+     * @param essay The essay
+     * @return Returns the weight of the essay in the cache, always positive
+     */
+    private static int weigh(@NotNull Essay essay) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, essay.getSize()));
+    }
+
+    /**
+     * Get the statistics of the essay cache since the application was started, for example
+     * {@link CacheStats#hitRate()} and {@link CacheStats#evictionCount()}.
+     *
+     * @return Returns a snapshot of the statistics
+     */
+    public @NotNull CacheStats getEssayCacheStats() {
+        return indexDataCache().stats();
     }
 
     /**
      * Get a copy of {@link Essay}s instances which this controller has cached. Changes to
      * the returned Set will not be reflected in this cache. The same is true vice-versa, changes
-     * to the cache after the set has been returned will not affect the returned set
+     * to the cache after the set has been returned will not affect the returned set. The essays are
+     * not retained, so they are closed once evicted, see {@link #getCachedEssay(IndexData)}
      * @return Returns a {@link Set<Essay>} which is a copy of the cached instances
      */
     public @NotNull Set<@NotNull Essay> getCachedEssays() {
-        return new HashSet<>(this.indexDataCache.asMap().values());
+        return new HashSet<>(indexDataCache().asMap().values());
     }
 
     /**
      * Get an essay based on its characteristics represented by an {@link IndexData} instance
      * @param indexData The characteristics of the essay represented by an IndexData instance
      * @return Returns a never-null {@link Optional} which is populated by the {@link Essay}
-     * instance if cached
+     * instance if cached. The essay is retained, and must be released with {@link Essay#release()}
+     * once no longer used
      */
     public @NotNull Optional<@NotNull Essay> getCachedEssay(@NotNull IndexData indexData) {
-        return Optional.ofNullable(indexDataCache.getIfPresent(indexData));
+        final Essay essay = indexDataCache().getIfPresent(indexData);
+        // Evicted essays are closed once released by the cache
+        if (essay == null || !essay.retain()) {
+            return Optional.empty();
+        }
+        return Optional.of(essay);
+    }
+
+    /**
+     * Load an essay, including its PDF. The cached essay is returned if present, otherwise the PDF
+     * is streamed from the database, or mapped from the {@link BlobStore} if it is kept there, and the
+     * loaded essay is cached. The essay is retained, and must be released with {@link Essay#release()}
+     * once no longer used, as evicted essays are closed once they are released.
+     *
+     * @param indexData The characteristics of the essay represented by an IndexData instance
+     * @return Returns a {@link CompletableFuture} which contains an {@link Optional} populated by the
+     * {@link Essay} if it exists in the database
+     */
+    public @NotNull CompletableFuture<@NotNull Optional<@NotNull Essay>> loadEssay(@NotNull IndexData indexData) {
+        final Optional<Essay> cached = getCachedEssay(indexData);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newPDFSearch(connection, indexData);
+                 ResultSet resultSet = query.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+                final Essay essay;
+                if (dataUtil.isStoredExternally(resultSet)) {
+                    essay = blobStore.load(indexData, dataUtil.extractContentHash(resultSet));
+                } else {
+                    essay = dataUtil.extractEssay(resultSet, indexData);
+                }
+                // One reference for the cache, one for the caller
+                essay.retain();
+                // Another thread may have loaded the same essay in the meantime
+                final Essay existing = indexDataCache().asMap().putIfAbsent(indexData, essay);
+                if (existing == null) {
+                    return Optional.of(essay);
+                }
+                if (existing.retain()) {
+                    essay.close();
+                    return Optional.of(existing);
+                }
+                // The cached essay is being evicted, so hand out the loaded essay uncached
+                essay.release();
+                return Optional.of(essay);
+            } catch (SQLException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executorService);
+    }
+
+    /**
+     * Write the PDF of an essay to a temporary file, for example to open it in another application. The
+     * essay is loaded with {@link #loadEssay(IndexData)}, so an essay which is opened again is not read from
+     * the database again while it is cached. The file is deleted when the application exits.
+     *
+     * @param indexData The characteristics of the essay represented by an IndexData instance
+     * @return Returns a {@link CompletableFuture} which contains an {@link Optional} populated by the
+     * written file if the essay exists in the database
+     */
+    public @NotNull CompletableFuture<@NotNull Optional<@NotNull File>> exportEssay(@NotNull IndexData indexData) {
+        return loadEssay(indexData).thenApplyAsync(loaded -> loaded.map(essay -> {
+            try {
+                final File file = File.createTempFile("essay", ".pdf");
+                file.deleteOnExit();
+                // A document must not be saved by two threads at once, and closing an essay synchronises on it
+                synchronized (essay) {
+                    essay.getDocument().save(file);
+                }
+                return file;
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            } finally {
+                release(essay);
+            }
+        }), executorService);
     }
 
     /**
@@ -154,66 +395,826 @@ public final class IndexDataController {
      * @param queryParameters An instance of the {@link QueryParameters} to use when searching
      * @return Returns a {@link CompletableFuture} which contains a {@link Set<SearchResult>}
      * corresponding to the query parameters.
+     * @see #performQuery(QueryParameters, Consumer)
+     */
+    public @NotNull CompletableFuture<@NotNull Set<@NotNull SearchResult>> performQuery(@NotNull QueryParameters queryParameters) {
+        return performQuery(queryParameters, batch -> {
+        });
+    }
+
+    /**
+     * Perform a query based on some parameters, streaming results to a listener as they are read
+     * from the database. This method will attempt to look for a cached result before performing a
+     * query asynchronously, in which case the cached results are delivered as a single batch once
+     * their snippets have been computed again.
+     * <p>
+     * The listener is called from the IO thread pool and must synchronise back to the display thread itself.
+     * </p>
+     *
+     * @param queryParameters An instance of the {@link QueryParameters} to use when searching
+     * @param onBatch         A listener for every batch of results. Batches are never empty.
+     * @return Returns a {@link CompletableFuture} which contains a {@link Set<SearchResult>} of every
+     * result once the query is complete.
      */
-    public synchronized @NotNull CompletableFuture<@NotNull Set<@NotNull SearchResult>> performQuery(@NotNull QueryParameters queryParameters) {
-        final Optional<Set<SearchResult>> optionalSearchResult = getCachedResult(queryParameters);
-        return optionalSearchResult.map(CompletableFuture::completedFuture).orElseGet(() -> performQueryAsync(queryParameters));
+    public synchronized @NotNull CompletableFuture<@NotNull Set<@NotNull SearchResult>> performQuery(@NotNull QueryParameters queryParameters,
+                                                                                                  @NotNull Consumer<@NotNull List<@NotNull SearchResult>> onBatch) {
+        final CachedResults cached = queryCache.getIfPresent(QueryKey.of(queryParameters));
+        if (cached != null && cached.complete) {
+            return CompletableFuture.supplyAsync(() -> {
+                final List<SearchResult> results = highlight(queryParameters, Arrays.asList(cached.results));
+                if (!results.isEmpty()) {
+                    onBatch.accept(results);
+                }
+                return new HashSet<>(results);
+            }, executorService);
+        }
+        return performQueryAsync(queryParameters, onBatch);
+    }
+
+    /**
+     * Perform a query for a single page of results. Results are ordered by exam session and then
+     * by unique id, and the limit is applied by the database so the cost of a page does not grow with
+     * the number of essays. The page is taken from the cached results of the query if they cover it,
+     * and pages fetched in order from the first page are added to the cache.
+     * <p>
+     * The listener is called from the IO thread pool, or the current thread if the page was cached and
+     * its snippets do not need the text of the essays, and must synchronise back to the display thread itself.
+     * </p>
+     *
+     * @param queryParameters An instance of the {@link QueryParameters} to use when searching
+     * @param cursor          The cursor obtained from the previous page, null for the first page
+     * @param pageSize        The maximum number of results in the page, must be positive
+     * @param onBatch         A listener for every batch of results. Batches are never empty.
+     * @return Returns a {@link CompletableFuture} which contains the {@link SearchPage}
+     */
+    public @NotNull CompletableFuture<@NotNull SearchPage> performPagedQuery(@NotNull QueryParameters queryParameters,
+                                                                            @Nullable QueryCursor cursor,
+                                                                            int pageSize,
+                                                                            @NotNull Consumer<@NotNull List<@NotNull SearchResult>> onBatch) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(String.format("Invalid page size: %d!", pageSize));
+        }
+        final QueryKey key = QueryKey.of(queryParameters);
+        final CachedResults cached = queryCache.getIfPresent(key);
+        final CachedResults.Page cachedPage = cached == null ? null : cached.page(cursor, pageSize);
+        if (cachedPage != null) {
+            final Supplier<SearchPage> rehydrate = () -> {
+                final List<SearchResult> results = highlight(queryParameters, cachedPage.results);
+                if (!results.isEmpty()) {
+                    onBatch.accept(results);
+                }
+                return new SearchPage(results, cachedPage.nextCursor);
+            };
+            // Body snippets are read from the database
+            return queryParameters.deepSearch ? CompletableFuture.supplyAsync(rehydrate, executorService)
+                    : CompletableFuture.completedFuture(rehydrate.get());
+        }
+        final long generation = queryGeneration.get();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final SearchPage page = performBackendQuery(queryParameters, cursor, pageSize, onBatch);
+                cacheResults(key, generation, cursor, page.getResults(), !page.getNextCursor().isPresent());
+                return page;
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executorService);
     }
 
     /**
      * Get the results of a given query from the cache
      * @param searchQueryParameters An instance of the {@link QueryParameters} to use when searching
      * @return Returns an {@link Optional} which is populated by a {@link Set<SearchResult>} if the
-     * query was previously performed and cached in the database.
+     * query was previously performed and cached in the database. Snippets are computed on the current thread.
      */
     public @NotNull Optional<@NotNull Set<@NotNull SearchResult>> getCachedResult(@NotNull QueryParameters searchQueryParameters) {
-        return Optional.ofNullable(queryCache.getIfPresent(searchQueryParameters));
+        final CachedResults cached = queryCache.getIfPresent(QueryKey.of(searchQueryParameters));
+        if (cached == null || !cached.complete) {
+            return Optional.empty();
+        }
+        return Optional.of(new HashSet<>(highlight(searchQueryParameters, Arrays.asList(cached.results))));
+    }
+
+    /**
+     * Turn cached results back into search results, computing their snippets again.
+     */
+    private @NotNull List<SearchResult> highlight(@NotNull QueryParameters queryParameters, @NotNull List<IndexData> results) {
+        final List<SearchResult> batch = new ArrayList<>(results.size());
+        for (IndexData indexData : results) {
+            batch.add(new SearchResult(indexData, Collections.emptyList()));
+        }
+        return snippetGenerator.highlight(queryParameters, batch);
+    }
+
+    /**
+     * Get the text of an essay which was stored when the essay was indexed. The PDF of the essay
+     * is never decoded by this method.
+     *
+     * @param indexData The characteristics of the essay represented by an IndexData instance
+     * @return Returns a {@link CompletableFuture} which contains the text of each page, in order. The list
+     * is empty if no text was stored for the essay.
+     */
+    public @NotNull CompletableFuture<@NotNull List<@NotNull String>> getPageText(@NotNull IndexData indexData) {
+        return CompletableFuture.supplyAsync(() -> {
+            final List<String> pages = new ArrayList<>();
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newPageTextSearch(connection, indexData);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    pages.add(dataUtil.extractPageText(resultSet));
+                }
+            } catch (SQLException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+            return pages;
+        }, executorService);
+    }
+
+
+    /**
+     * Remove an essay and its page text from the database and the search backend.
+     *
+     * @param indexData The characteristics of the essay
+     * @return Returns a never-null {@link CompletableFuture} which represents current state of execution.
+     * The result of the future will always be null.
+     */
+    public @NotNull CompletableFuture<Void> performDeletion(@NotNull IndexData indexData) {
+        return CompletableFuture.runAsync(() -> deleteEssay(indexData), executorService);
+    }
+
+    private void deleteEssay(@NotNull IndexData indexData) {
+        byte[] contentHash = null;
+        try (Connection connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement hash = dataUtil.newContentHashSearch(connection, Collections.singleton(indexData));
+                 PreparedStatement entry = dataUtil.newDeletion(connection, indexData);
+                 PreparedStatement text = dataUtil.newPageTextDeletion(connection, indexData)) {
+                try (ResultSet resultSet = hash.executeQuery()) {
+                    if (resultSet.next()) {
+                        contentHash = dataUtil.extractContentHash(resultSet);
+                    }
+                }
+                entry.executeUpdate();
+                text.executeUpdate();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            searchBackend.delete(indexData);
+            searchBackend.commit();
+            invalidateQueries();
+        } catch (SQLException | IOException ex) {
+            throw new CompletionException(ex);
+        }
+        // Drop and close the cached essay without writing it back, so its PDF is no longer in use
+        indexDataCache().invalidate(indexData);
+        // Essays are keyed by their metadata, so no other essay refers to the same PDF
+        if (contentHash != null) {
+            deleteBlob(contentHash);
+        }
+    }
+
+    /**
+     * Remove a PDF which is no longer referenced from the {@link BlobStore}. The essays which referred to
+     * it have already been committed, so a PDF which cannot be removed yet only takes up space, and is
+     * removed again every {@link #BLOB_DELETION_RETRY_DELAY} seconds until it is gone.
+     *
+     * @param contentHash The SHA-256 hash of the PDF
+     */
+    private void deleteBlob(final byte[] contentHash) {
+        if (!blobStore.delete(contentHash)) {
+            scheduleBlobDeletions();
+        }
+    }
+
+    private void scheduleBlobDeletions() {
+        if (blobDeletionScheduled.compareAndSet(false, true)) {
+            executorService.schedule(() -> {
+                blobDeletionScheduled.set(false);
+                if (!blobStore.retryDeletions()) {
+                    scheduleBlobDeletions();
+                }
+            }, BLOB_DELETION_RETRY_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Remove every essay which was imported from a file, or from any file within a directory, see
+     * {@link #performDeletion(IndexData)}.
+     *
+     * @param source The file or directory
+     * @return Returns a never-null {@link CompletableFuture} which contains the number of essays removed
+     */
+    public @NotNull CompletableFuture<Integer> performDeletion(@NotNull File source) {
+        return CompletableFuture.supplyAsync(() -> {
+            final List<IndexData> essays = new ArrayList<>();
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newSourceSearch(connection, source);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    essays.add(dataUtil.extractIndexData(resultSet));
+                }
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+            return essays;
+        }, executorService).thenCompose(essays -> {
+            final CompletableFuture<?>[] deletions = essays.stream().map(this::performDeletion).toArray(CompletableFuture[]::new);
+            return CompletableFuture.allOf(deletions).thenApply(unused -> essays.size());
+        });
+    }
+
+    /**
+     * Read the titles of the essays whose title is empty or a single character from their cover pages again.
+     * The title pattern of earlier versions captured no more than that, and importing the files of these
+     * essays again skips them as their content is unchanged. The cover pages are read from the stored page
+     * text, or from the PDF of essays imported before page text was stored. An essay keeps its title if no
+     * title is found, or if another essay already has the characteristics it would be given.
+     *
+     * @return Returns a never-null {@link CompletableFuture} which contains the number of essays retitled
+     */
+    public @NotNull CompletableFuture<Integer> performTitleMigration() {
+        return CompletableFuture.supplyAsync(() -> {
+            final List<IndexData> untitled = new ArrayList<>();
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newUntitledSearch(connection);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    untitled.add(dataUtil.extractIndexData(resultSet));
+                }
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+            int retitled = 0;
+            for (IndexData indexData : untitled) {
+                try {
+                    if (retitle(indexData)) {
+                        retitled++;
+                    }
+                } catch (SQLException | IOException ex) {
+                    // The essay keeps its title, the others are still migrated
+                    ex.printStackTrace();
+                }
+            }
+            if (retitled != 0) {
+                try {
+                    searchBackend.commit();
+                } catch (IOException ex) {
+                    throw new CompletionException(ex);
+                }
+                invalidateQueries();
+            }
+            return retitled;
+        }, executorService);
+    }
+
+    /**
+     * Read the title of an essay from its cover pages again, and move the essay and its page text to its
+     * new unique id, see {@link #performTitleMigration()}.
+     *
+     * @return Returns true if the essay was retitled
+     */
+    private boolean retitle(@NotNull IndexData indexData) throws SQLException, IOException {
+        final IndexData retitled;
+        final List<String> pages = new ArrayList<>();
+        try (Connection connection = connectionPool.getConnection()) {
+            try (PreparedStatement query = dataUtil.newPageTextSearch(connection, indexData);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    pages.add(dataUtil.extractPageText(resultSet));
+                }
+            }
+            final String title = parser.parseTitle(pages.isEmpty() ? readCoverPages(connection, indexData) : pages);
+            if (title == null || title.length() <= 1) {
+                return false;
+            }
+            retitled = IndexData.from(title, indexData.getSubject(), indexData.getResearchQuestion(), indexData.getExamSession());
+            connection.setAutoCommit(false);
+            try (PreparedStatement entry = dataUtil.newRetitle(connection, indexData, retitled);
+                 PreparedStatement text = dataUtil.newPageTextMove(connection, indexData, retitled)) {
+                if (entry.executeUpdate() == 0) {
+                    connection.rollback();
+                    return false;
+                }
+                text.executeUpdate();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+        searchBackend.delete(indexData);
+        searchBackend.index(retitled, pages);
+        indexDataCache().invalidate(indexData);
+        return true;
     }
 
     /**
-     * Request for files to be indexed and subsequently cached. Any existing files which were
-     * already cached will be overwritten.
+     * Extract the text of the cover pages of an essay from its PDF, which is not cached.
+     *
+     * @return Returns the text of each cover page, empty if the essay no longer exists
+     */
+    private @NotNull List<String> readCoverPages(@NotNull Connection connection, @NotNull IndexData indexData) throws SQLException, IOException {
+        try (PreparedStatement query = dataUtil.newPDFSearch(connection, indexData);
+             ResultSet resultSet = query.executeQuery()) {
+            if (!resultSet.next()) {
+                return Collections.emptyList();
+            }
+            final boolean external = dataUtil.isStoredExternally(resultSet);
+            try (Essay essay = external ? blobStore.load(indexData, dataUtil.extractContentHash(resultSet))
+                    : dataUtil.extractEssay(resultSet, indexData)) {
+                return parser.parseCoverPages(essay.getDocument());
+            }
+        }
+    }
+
+    /**
+     * Close the document of a file which was rejected, releasing its file handle.
+     *
+     * @param pdfParser The parser of the file, null if it was never created
+     */
+    private static void closeQuietly(@Nullable PDFParser pdfParser) {
+        if (pdfParser == null) {
+            return;
+        }
+        try {
+            pdfParser.getPDDocument().close();
+        } catch (IOException ex) {
+            // Thrown if the file was never parsed, in which case there is nothing to close
+        }
+    }
+
+    /**
+     * Get the content hash of every essay in the database, see {@link #hashContent(File)}, along with
+     * the path of the file it was imported from.
+     *
+     * @return Returns a new {@link Map} of hashes to source paths, which are empty if unknown
+     */
+    private @NotNull Map<ByteBuffer, String> loadContentHashes() {
+        final Map<ByteBuffer, String> hashes = new HashMap<>();
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement query = dataUtil.newContentHashScan(connection);
+             ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next()) {
+                final String source = resultSet.getString(DataUtil.COLUMN_SOURCE_PATH);
+                hashes.put(ByteBuffer.wrap(resultSet.getBytes(DataUtil.COLUMN_CONTENT_HASH)), source == null ? "" : source);
+            }
+        } catch (SQLException ex) {
+            throw new CompletionException(ex);
+        }
+        return hashes;
+    }
+
+    /**
+     * Compute the SHA-256 hash of the contents of a file.
+     *
+     * @param file The file
+     * @return Returns the 32 byte hash
+     * @throws IOException Thrown if the file could not be read
+     */
+    private static byte[] hashContent(@NotNull File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+        final byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Hash a file and skip it if an essay with identical content is already in the database, or if a file
+     * with identical content was already seen by this run. If the file the essay was imported from no longer
+     * exists, the file was moved or renamed, so the essay is moved to this file and is removed once this
+     * file is deleted.
+     *
+     * @param knownHashes The content hashes of every essay and of every file seen so far, mapped to their
+     *                    source paths, see {@link #loadContentHashes()}
+     * @return Returns true if the file needs to be indexed
+     */
+    private boolean filterUnchanged(@NotNull IndexingJob job, @NotNull Map<ByteBuffer, String> knownHashes) throws IOException {
+        job.contentHash = hashContent(job.file);
+        final ByteBuffer key = ByteBuffer.wrap(job.contentHash);
+        final String path = job.file.getAbsolutePath();
+        final String source = knownHashes.putIfAbsent(key, path);
+        job.skipped = source != null;
+        if (job.skipped && !path.equals(source) && (source.isEmpty() || !new File(source).exists())) {
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement update = dataUtil.newSourceMove(connection, job.contentHash, job.file)) {
+                update.executeUpdate();
+            } catch (SQLException ex) {
+                throw new IOException(ex);
+            }
+            knownHashes.put(key, path);
+        }
+        return !job.skipped;
+    }
+
+    /**
+     * Load a PDF from the disk and parse its structure.
+     */
+    private void readDocument(@NotNull IndexingJob job) throws IOException {
+        job.pdfParser = parser.newPDFParser(job.file);
+        job.pdfParser.parse();
+    }
+
+    /**
+     * Parse the metadata of an essay. Only the cover pages are needed, so invalid essays are
+     * rejected without decoding every page.
+     */
+    private void parseMetadata(@NotNull IndexingJob job) throws IOException {
+        job.coverPages = parser.parseCoverPages(job.pdfParser);
+        job.essay = parser.parseDocument(job.pdfParser, job.coverPages);
+        job.indexData = job.essay.getIndexData();
+    }
+
+    /**
+     * Extract the text of every page after the cover pages. Long essays are extracted in parallel.
+     */
+    private void extractText(@NotNull IndexingJob job) throws IOException {
+        job.pages = parser.parseRemainingPages(job.pdfParser, job.coverPages, job.file);
+    }
+
+    /**
+     * Request for files to be indexed. Files are passed through a pipeline of stages which hash the
+     * file, read the PDF, parse its metadata, extract its text and persist it, with a bounded queue between
+     * each stage. A file whose SHA-256 hash matches an essay already in the database is skipped without
+     * being parsed.
+     * The number of documents held in memory therefore depends on {@link #INDEXING_QUEUE_CAPACITY} and
+     * the number of IO threads, not on the number of files. Essays are written in batches, see
+     * {@link EssayWriter}. Any existing essays are overwritten.
+     * <p>
+     * The files are not recorded in the {@link ImportJournal}, see {@link #performImport(Collection, BiConsumer)}.
+     * </p>
      *
      * @param files        A {@link Collection} of files to be indexed
-     * @param onCompletion A listener for every time a file has been processed and whether it was indexed successfully
+     * @param onCompletion A listener for every time a file has been processed and its {@link IndexingStatus}
      * @return Returns a never-null {@link CompletableFuture} which represents current state of execution. The result of
-     * the future will always be null.
-     */
-    public @NotNull CompletableFuture<Void> performIndexing(@NotNull Collection<File> files, BiConsumer<File, Boolean> onCompletion) {
-        final Collection<CompletableFuture<Void>> futures = Collections.synchronizedList(new LinkedList<>());
-        for (File file : files) {
-            final CompletableFuture<Void> completableFuture = new CompletableFuture<>();
-            futures.add(completableFuture);
-            executorService.execute(() -> {
-                Exception exception = null;
+     * the future will always be null, and it completes exceptionally if any file could not be indexed.
+     */
+    public @NotNull CompletableFuture<Void> performIndexing(@NotNull Collection<File> files, BiConsumer<File, IndexingStatus> onCompletion) {
+        return performIndexing(files, onCompletion, false);
+    }
+
+    /**
+     * Request for files to be imported by the user, see {@link #performIndexing(Collection, BiConsumer)}.
+     * Every file is recorded in the {@link ImportJournal} when it is queued and again once it has been
+     * processed, so files which were never processed can be resumed if the application is stopped.
+     *
+     * @param files        A {@link Collection} of files to be indexed
+     * @param onCompletion A listener for every time a file has been processed and its {@link IndexingStatus}
+     * @return Returns a never-null {@link CompletableFuture} which represents current state of execution. The result of
+     * the future will always be null, and it completes exceptionally if any file could not be indexed.
+     */
+    public @NotNull CompletableFuture<Void> performImport(@NotNull Collection<File> files, BiConsumer<File, IndexingStatus> onCompletion) {
+        return performIndexing(files, onCompletion, true);
+    }
+
+    private @NotNull CompletableFuture<Void> performIndexing(@NotNull Collection<File> files,
+                                                             BiConsumer<File, IndexingStatus> onCompletion,
+                                                             final boolean journaled) {
+        final int threads = configuration.maxIOThreads() == -1 ? Runtime.getRuntime().availableProcessors() : configuration.maxIOThreads();
+        final EssayWriter writer = new EssayWriter();
+        final Map<ByteBuffer, String> knownHashes = new ConcurrentHashMap<>();
+        final Pipeline<IndexingJob> pipeline = Pipeline.<IndexingJob>builder("indexing", pipelineExecutorService, INDEXING_QUEUE_CAPACITY)
+                .filterStage("hash", threads, job -> filterUnchanged(job, knownHashes))
+                .stage("read", threads, this::readDocument)
+                .stage("metadata", threads, this::parseMetadata)
+                .stage("text", threads, this::extractText)
+                .batchStage("persist", WRITE_BATCH_DELAY, writer)
+                .build();
+        final List<IndexingJob> jobs = files.stream().map(IndexingJob::new).collect(Collectors.toList());
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        if (journaled) {
+            importJournal.begin(files);
+        }
+        final CompletableFuture<Void> all = CompletableFuture.supplyAsync(this::loadContentHashes, executorService)
+                .thenCompose(hashes -> {
+                    knownHashes.putAll(hashes);
+                    return pipeline.run(jobs, job -> {
+                        final IndexingStatus status = job.skipped ? IndexingStatus.SKIPPED : IndexingStatus.INDEXED;
+                        if (journaled) {
+                            importJournal.record(job.file, status);
+                        }
+                        onCompletion.accept(job.file, status);
+                    }, (job, ex) -> {
+                        job.close();
+                        // Re-Throw the exception as a runtime exception.
+                        failure.compareAndSet(null, new RuntimeException(String.format("Error parsing %s", job.file), ex));
+                        if (journaled) {
+                            importJournal.record(job.file, IndexingStatus.FAILED);
+                        }
+                        onCompletion.accept(job.file, IndexingStatus.FAILED);
+                    });
+                });
+        // Commit the search backend once every file has been processed, even if some failed
+        return all.whenCompleteAsync((unused, ex) -> {
+            if (journaled) {
+                importJournal.end();
+            }
+            try {
+                writer.close();
+                searchBackend.commit();
+            } catch (IOException | SQLException e) {
+                e.printStackTrace();
+            }
+        }, executorService).thenRun(() -> {
+            if (failure.get() != null) {
+                throw new CompletionException(failure.get());
+            }
+        });
+    }
+
+    /**
+     * Represents the final stage of the indexing pipeline, which merges essays and their page text into
+     * the database. Essays are added to the batches of a single set of prepared statements and committed
+     * in one transaction once {@link #WRITE_BATCH_SIZE} essays or {@link #WRITE_BATCH_BYTES} bytes of PDF
+     * data are pending, or once the oldest essay has waited {@link #WRITE_BATCH_DELAY} milliseconds. The
+     * PDF is streamed from the imported file, so the document of an essay is closed as soon as it is added.
+     * Essays are indexed by the search backend once their batch has been committed.
+     * <p>
+     * A writer holds a single connection from the pool until it is closed and is only used by one thread.
+     * </p>
+     */
+    private final class EssayWriter implements Pipeline.BatchStep<IndexingJob>, AutoCloseable {
+
+        private Connection connection;
+        private PreparedStatement entries;
+        private PreparedStatement deletions;
+        private PreparedStatement text;
+        private PreparedStatement sources;
+        private int pendingEssays;
+        private long pendingBytes;
+
+        @Override
+        public boolean add(@NotNull IndexingJob job) throws SQLException, IOException {
+            if (connection == null) {
+                connection = connectionPool.getConnection();
+                connection.setAutoCommit(false);
+                entries = dataUtil.newEntryStatement(connection, true);
+                deletions = dataUtil.newPageTextDeletionStatement(connection);
+                text = dataUtil.newPageTextEntryStatement(connection);
+                sources = dataUtil.newSourceStatement(connection);
+            }
+            final IndexData indexData = job.essay.getIndexData();
+            // The entry is bound first, nothing is batched if the file cannot be read. The original
+            // file is stored rather than re-saving the parsed document.
+            if (blobStore.isEnabled()) {
+                // A blob whose batch fails is stored regardless, and reused once the file is imported again
+                blobStore.store(job.contentHash, job.file);
+                dataUtil.addExternalEntry(entries, job.essay);
+            } else {
+                pendingBytes += dataUtil.addEntry(entries, job.essay, job.file);
+            }
+            dataUtil.addPageTextDeletion(deletions, indexData);
+            dataUtil.addPageText(text, indexData, job.pages);
+            dataUtil.addSource(sources, indexData, job.contentHash, job.file);
+            job.close(false);
+            pendingEssays++;
+            return pendingEssays >= WRITE_BATCH_SIZE || pendingBytes >= WRITE_BATCH_BYTES;
+        }
+
+        @Override
+        public void flush(@NotNull List<IndexingJob> batch) throws SQLException, IOException {
+            pendingEssays = 0;
+            pendingBytes = 0;
+            final List<byte[]> replacedHashes = new ArrayList<>();
+            try {
+                findReplacedHashes(batch, replacedHashes);
+                entries.executeBatch();
+                deletions.executeBatch();
+                text.executeBatch();
+                sources.executeBatch();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                entries.clearBatch();
+                deletions.clearBatch();
+                text.clearBatch();
+                sources.clearBatch();
+                throw ex;
+            }
+            // The PDFs of essays which were overwritten are no longer referenced
+            for (byte[] contentHash : replacedHashes) {
+                deleteBlob(contentHash);
+            }
+            // Only index the essays once they are visible to queries. The essays are committed to the
+            // database, so an essay the backend fails to index is caught up when it is next opened.
+            for (IndexingJob job : batch) {
                 try {
-                    // Load the PDF from the disk
-                    final PDFParser pdfParser = new PDFParser(new RandomAccessBufferedFileInputStream(file));
-                    // Parse the PDF
-                    pdfParser.parse();
-                    // Attempt to parse an essay from the PDF document.
-                    Essay essay = parser.parseDocument(pdfParser);
-                    // Cache the essay against its index data
-                    indexDataCache.put(essay.getIndexData(), essay);
-                    // Merge data values into database, over-writing existing values
-                    dataUtil.newEntry(connectionPool.getConnection(), essay, true).executeUpdate();
-                } catch (IOException | SQLException | IllegalArgumentException ex) {
-                    // Re-Throw the exception as a runtime exception.
-                    exception = new RuntimeException(String.format("Error parsing %s", file), ex);
-                } finally {
-                    // Run the listener
-                    onCompletion.accept(file, exception == null);
-                    if (exception != null) {
-                        completableFuture.completeExceptionally(exception);
-                    } else {
-                        completableFuture.complete(null);
+                    searchBackend.index(job.indexData, job.pages);
+                } catch (IOException | RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+                job.pages = null;
+            }
+            try {
+                searchBackend.commitBatch();
+            } catch (IOException ex) {
+                // The essays are committed to the database, the backend catches up when it is next opened
+                ex.printStackTrace();
+            }
+            invalidateQueries();
+        }
+
+        /**
+         * Find the content hashes of the existing essays a batch overwrites with a different PDF.
+         */
+        private void findReplacedHashes(@NotNull List<IndexingJob> batch, @NotNull List<byte[]> replacedHashes) throws SQLException {
+            final Map<Integer, byte[]> contentHashes = new HashMap<>();
+            for (IndexingJob job : batch) {
+                contentHashes.put(job.indexData.getUniqueID(), job.contentHash);
+            }
+            final List<IndexData> essays = batch.stream().map(job -> job.indexData).collect(Collectors.toList());
+            try (PreparedStatement query = dataUtil.newContentHashSearch(connection, essays);
+                 ResultSet resultSet = query.executeQuery()) {
+                while (resultSet.next()) {
+                    final byte[] existing = dataUtil.extractContentHash(resultSet);
+                    final byte[] replacement = contentHashes.get(resultSet.getInt(DataUtil.COLUMN_UUID));
+                    if (existing != null && !Arrays.equals(existing, replacement)) {
+                        replacedHashes.add(existing);
                     }
                 }
-            });
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (connection == null) {
+                return;
+            }
+            final Connection connection = this.connection;
+            this.connection = null;
+            try {
+                entries.close();
+                deletions.close();
+                text.close();
+                sources.close();
+                connection.setAutoCommit(true);
+            } finally {
+                // Also closes any statement left open
+                connection.close();
+            }
         }
-        // Returns a future which represents the execution state of indexing all provided files.
-        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
     }
 
+    /**
+     * Represents the state of a file as it passes through the indexing pipeline.
+     */
+    private static final class IndexingJob {
+
+        private final File file;
+        private byte[] contentHash;
+        private boolean skipped;
+        private PDFParser pdfParser;
+        private List<String> coverPages;
+        private Essay essay;
+        private IndexData indexData;
+        private List<String> pages;
+
+        private IndexingJob(@NotNull File file) {
+            this.file = file;
+        }
+
+        /**
+         * Release the document and text of this job.
+         */
+        private void close() {
+            close(true);
+        }
 
+        /**
+         * Release the document of this job.
+         *
+         * @param releaseText Whether the text of the job is released as well
+         */
+        private void close(boolean releaseText) {
+            if (essay != null) {
+                try {
+                    essay.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            } else {
+                closeQuietly(pdfParser);
+            }
+            pdfParser = null;
+            essay = null;
+            coverPages = null;
+            if (releaseText) {
+                pages = null;
+            }
+        }
+    }
+
+    /**
+     * Represents the outcome of indexing a single file.
+     */
+    public enum IndexingStatus {
+        /**
+         * The file was parsed and stored.
+         */
+        INDEXED,
+        /**
+         * An essay with identical content was already stored, so the file was not parsed.
+         */
+        SKIPPED,
+        /**
+         * The file could not be indexed.
+         */
+        FAILED
+    }
+
+    /**
+     * Represents the leading results of a query in result order, which are all of its results
+     * if complete. Only the interned {@link IndexData} of each result is kept, which the rest of the
+     * application shares, so the cache costs a reference per result. Snippets are computed again
+     * whenever results are read. This class is immutable.
+     */
+    private static final class CachedResults {
+
+        private final IndexData[] results;
+        private final boolean complete;
+
+        private CachedResults(@NotNull IndexData[] results, boolean complete) {
+            this.results = results;
+            this.complete = complete;
+        }
+
+        private CachedResults(@NotNull List<SearchResult> results, boolean complete) {
+            this(append(new IndexData[0], results), complete);
+        }
+
+        private static @NotNull IndexData[] append(@NotNull IndexData[] results, @NotNull List<SearchResult> page) {
+            final IndexData[] combined = Arrays.copyOf(results, results.length + page.size());
+            for (int i = 0; i < page.size(); i++) {
+                combined[results.length + i] = page.get(i).getIndexData();
+            }
+            return combined;
+        }
+
+        /**
+         * Check whether a cursor points at the last cached result, so the page after it continues these results.
+         */
+        boolean endsAt(@NotNull QueryCursor cursor) {
+            return results.length != 0 && cursor.equals(QueryCursor.of(results[results.length - 1]));
+        }
+
+        @NotNull CachedResults append(@NotNull List<SearchResult> page, boolean complete) {
+            return new CachedResults(append(results, page), complete);
+        }
+
+        /**
+         * Get a page of these results, as {@link SearchBackend#query} would return it but without snippets.
+         *
+         * @return Returns the page, or null if it extends past the cached results
+         */
+        @Nullable Page page(@Nullable QueryCursor cursor, int pageSize) {
+            // Results are sorted, so search for the first result after the cursor
+            int start = 0;
+            int end = results.length;
+            while (cursor != null && start < end) {
+                final int middle = (start + end) >>> 1;
+                if (cursor.isBefore(results[middle])) {
+                    end = middle;
+                } else {
+                    start = middle + 1;
+                }
+            }
+            end = Math.min(results.length, start + pageSize);
+            if (end - start < pageSize && !complete) {
+                return null;
+            }
+            final List<IndexData> page = Arrays.asList(Arrays.copyOfRange(results, start, end));
+            // A full page means there may be more results after it
+            return new Page(page, page.size() == pageSize ? QueryCursor.of(page.get(page.size() - 1)) : null);
+        }
+
+        /**
+         * Represents a page of cached results. This class is immutable.
+         */
+        private static final class Page {
+
+            private final List<IndexData> results;
+            private final QueryCursor nextCursor;
+
+            private Page(@NotNull List<IndexData> results, @Nullable QueryCursor nextCursor) {
+                this.results = results;
+                this.nextCursor = nextCursor;
+            }
+        }
+    }
 }
@@ -0,0 +1,404 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.data.*;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.QueryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Represents a {@link SearchBackend} backed by an embedded Lucene index on disk
+ * (see {@link SystemConfiguration#luceneIndexPath()}). All methods in this class are thread-safe.
+ * <p>
+ * Unlike {@link H2SearchBackend}, the query is treated as text rather than as a regular expression:
+ * regex syntax is stripped and the remaining words must appear as a phrase in the title, the research
+ * question or, for a deep search, the body text of an essay.
+ * </p>
+ * <p>
+ * When opened, the index is reconciled with the database in the background, see {@link #reconcile()}.
+ * Until then queries are answered by H2 instead, where the query is a regular expression matched against
+ * the title and research question only.
+ * </p>
+ */
+@Singleton
+public final class LuceneSearchBackend implements SearchBackend {
+
+    // Regex syntax which is removed from a query before it is analyzed
+    private static final Pattern REGEX_QUOTE = Pattern.compile("\\\\[QE]");
+    private static final Pattern REGEX_SYNTAX = Pattern.compile("\\\\[a-zA-Z]|[\\\\()\\[\\]{}|*+?.^$]");
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_ID_ORDER = "id_order";
+    private static final String FIELD_TITLE = "title";
+    private static final String FIELD_RESEARCH_QUESTION = "research_question";
+    private static final String FIELD_SUBJECT = "subject";
+    private static final String FIELD_SUBJECT_NAME = "subject_name";
+    private static final String FIELD_EXAM_SESSION = "exam_session";
+    private static final String FIELD_BODY = "body";
+
+    private static final Sort RESULT_ORDER = new Sort(
+            new SortField(FIELD_EXAM_SESSION, SortField.Type.LONG),
+            new SortField(FIELD_ID_ORDER, SortField.Type.INT));
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final QueryBuilder queryBuilder = new QueryBuilder(analyzer);
+
+    @Inject
+    private SystemConfiguration configuration;
+    @Inject
+    private DataUtil dataUtil;
+    @Inject
+    @Named("internal-pool")
+    private HikariPool connectionPool;
+    @Inject
+    private ScheduledExecutorService executorService;
+
+    private Directory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    // Set once the index has been reconciled with the database, until then queries are answered by H2
+    private volatile boolean complete;
+    // Essays deleted while the index is reconciled, which the reconciliation may have read before they were deleted
+    private final Set<Integer> deletedDuringReconcile = new HashSet<>();
+    // Guarded by deletedDuringReconcile
+    private int reconciling;
+
+    @Override
+    public synchronized void open() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        directory = FSDirectory.open(configuration.luceneIndexPath().toPath());
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+        // The index may be new, or may have missed changes if the application was stopped during an import
+        reconcile().exceptionally(ex -> {
+            ex.printStackTrace();
+            return null;
+        });
+    }
+
+    /**
+     * Reconcile this index with the database: every essay missing from the index is indexed from the
+     * metadata and page text stored in the database, and every essay which is no longer in the database
+     * is removed. A new index is therefore rebuilt entirely. Queries are answered by H2 until this completes.
+     * An essay deleted meanwhile may have been read before it was deleted, so it is removed again at the end.
+     *
+     * @return Returns a never-null {@link CompletableFuture} which represents current state of execution.
+     * The result of the future will always be null.
+     */
+    public @NotNull CompletableFuture<Void> reconcile() {
+        complete = false;
+        synchronized (deletedDuringReconcile) {
+            reconciling++;
+        }
+        return CompletableFuture.runAsync(() -> {
+            try (Connection connection = connectionPool.getConnection();
+                 PreparedStatement query = dataUtil.newMetadataScan(connection)) {
+                // Read the indexed ids before the database, an essay imported in between is indexed again
+                final Set<Integer> stale = indexedIDs();
+                try (ResultSet resultSet = query.executeQuery()) {
+                    while (resultSet.next()) {
+                        final IndexData indexData = dataUtil.extractIndexData(resultSet);
+                        if (stale.remove(indexData.getUniqueID())) {
+                            continue;
+                        }
+                        final List<String> pages = new ArrayList<>();
+                        try (PreparedStatement textQuery = dataUtil.newPageTextSearch(connection, indexData);
+                             ResultSet textResultSet = textQuery.executeQuery()) {
+                            while (textResultSet.next()) {
+                                pages.add(dataUtil.extractPageText(textResultSet));
+                            }
+                        }
+                        indexDocument(indexData, pages);
+                    }
+                }
+                for (Integer uniqueID : stale) {
+                    writer().deleteDocuments(new Term(FIELD_ID, String.valueOf(uniqueID)));
+                }
+                synchronized (deletedDuringReconcile) {
+                    for (Integer uniqueID : deletedDuringReconcile) {
+                        writer().deleteDocuments(new Term(FIELD_ID, String.valueOf(uniqueID)));
+                    }
+                }
+                commit();
+                complete = true;
+            } catch (SQLException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executorService).whenComplete((unused, ex) -> {
+            synchronized (deletedDuringReconcile) {
+                if (--reconciling == 0) {
+                    deletedDuringReconcile.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Returns the unique ids of every essay in the index
+     */
+    private @NotNull Set<Integer> indexedIDs() throws IOException {
+        writer();
+        searcherManager.maybeRefresh();
+        final Set<Integer> ids = new HashSet<>();
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                final Bits liveDocs = leaf.reader().getLiveDocs();
+                final NumericDocValues values = leaf.reader().getNumericDocValues(FIELD_ID_ORDER);
+                if (values == null) {
+                    continue;
+                }
+                for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        ids.add((int) values.longValue());
+                    }
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        return ids;
+    }
+
+    @Override
+    public void index(@NotNull IndexData indexData, @NotNull List<@NotNull String> pages) throws IOException {
+        synchronized (deletedDuringReconcile) {
+            // Imported again, so it must not be removed once the reconciliation completes
+            deletedDuringReconcile.remove(indexData.getUniqueID());
+        }
+        indexDocument(indexData, pages);
+    }
+
+    private void indexDocument(@NotNull IndexData indexData, @NotNull List<@NotNull String> pages) throws IOException {
+        final Document document = new Document();
+        final long examSession = indexData.getExamSession().epochMilli;
+        document.add(new StringField(FIELD_ID, String.valueOf(indexData.getUniqueID()), Field.Store.YES));
+        document.add(new IntPoint(FIELD_ID_ORDER, indexData.getUniqueID()));
+        document.add(new NumericDocValuesField(FIELD_ID_ORDER, indexData.getUniqueID()));
+        document.add(new TextField(FIELD_TITLE, indexData.getTitle(), Field.Store.YES));
+        document.add(new TextField(FIELD_RESEARCH_QUESTION, indexData.getResearchQuestion(), Field.Store.YES));
+        final String subject = indexData.getSubject().getDisplayName();
+        document.add(new StringField(FIELD_SUBJECT, subject.toLowerCase(), Field.Store.NO));
+        document.add(new StoredField(FIELD_SUBJECT_NAME, subject));
+        document.add(new LongPoint(FIELD_EXAM_SESSION, examSession));
+        document.add(new NumericDocValuesField(FIELD_EXAM_SESSION, examSession));
+        document.add(new StoredField(FIELD_EXAM_SESSION, examSession));
+        document.add(new TextField(FIELD_BODY, String.join("\n", pages), Field.Store.NO));
+        writer().updateDocument(new Term(FIELD_ID, String.valueOf(indexData.getUniqueID())), document);
+    }
+
+    @Override
+    public void delete(@NotNull IndexData indexData) throws IOException {
+        synchronized (deletedDuringReconcile) {
+            if (reconciling != 0) {
+                deletedDuringReconcile.add(indexData.getUniqueID());
+            }
+            writer().deleteDocuments(new Term(FIELD_ID, String.valueOf(indexData.getUniqueID())));
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        writer().commit();
+        searcherManager.maybeRefresh();
+    }
+
+    @Override
+    public void commitBatch() throws IOException {
+        commit();
+    }
+
+    @Override
+    public @NotNull SearchPage query(@NotNull QueryParameters queryParameters,
+                                     @Nullable QueryCursor cursor,
+                                     int pageSize,
+                                     @NotNull Consumer<@NotNull List<@NotNull SearchResult>> onBatch) throws IOException {
+        writer();
+        if (!complete) {
+            return performDatabaseQuery(queryParameters, cursor, pageSize, onBatch);
+        }
+        // Make changes since the last query visible
+        searcherManager.maybeRefresh();
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            final int limit = pageSize == -1 ? Math.max(1, searcher.getIndexReader().maxDoc()) : pageSize;
+            final TopDocs topDocs = searcher.search(toQuery(queryParameters, cursor), limit, RESULT_ORDER);
+            final BatchCollector collector = new BatchCollector(onBatch);
+            IndexData last = null;
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                final Document document = searcher.doc(scoreDoc.doc);
+                last = dataUtil.toIndexData(document.get(FIELD_TITLE),
+                        document.get(FIELD_SUBJECT_NAME),
+                        document.get(FIELD_RESEARCH_QUESTION),
+                        document.getField(FIELD_EXAM_SESSION).numericValue().longValue());
+                collector.accept(new SearchResult(last, Collections.emptyList()));
+            }
+            final List<SearchResult> results = collector.finish();
+            // A full page means there may be more results after it
+            return new SearchPage(results, pageSize != -1 && results.size() == pageSize ? QueryCursor.of(last) : null);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Perform a query against the database on the current thread, while the index is incomplete.
+     * Body text is not searched, as it is only indexed by Lucene.
+     */
+    private @NotNull SearchPage performDatabaseQuery(@NotNull QueryParameters queryParameters,
+                                                     @Nullable QueryCursor cursor,
+                                                     int pageSize,
+                                                     @NotNull Consumer<List<SearchResult>> onBatch) throws IOException {
+        final BatchCollector collector = new BatchCollector(onBatch);
+        QueryCursor last = null;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement query = dataUtil.newSearch(connection, queryParameters, Collections.emptySet(), cursor, pageSize);
+             ResultSet resultSet = query.executeQuery()) {
+            while (resultSet.next()) {
+                final IndexData indexData = dataUtil.extractIndexData(resultSet);
+                last = dataUtil.extractCursor(resultSet);
+                collector.accept(new SearchResult(indexData, Collections.emptyList()));
+            }
+        } catch (SQLException ex) {
+            throw new IOException(ex);
+        }
+        final List<SearchResult> results = collector.finish();
+        // A full page means there may be more results after it
+        return new SearchPage(results, pageSize != -1 && results.size() == pageSize ? last : null);
+    }
+
+    private Query toQuery(@NotNull QueryParameters queryParameters, @Nullable QueryCursor cursor) {
+        final BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        boolean constrained = false;
+        if (queryParameters.regex != null) {
+            final String text = REGEX_SYNTAX.matcher(REGEX_QUOTE.matcher(queryParameters.regex).replaceAll(" ")).replaceAll(" ");
+            final BooleanQuery.Builder textQuery = new BooleanQuery.Builder();
+            boolean hasText = false;
+            final List<String> fields = new ArrayList<>(3);
+            Collections.addAll(fields, FIELD_TITLE, FIELD_RESEARCH_QUESTION);
+            if (queryParameters.deepSearch) {
+                fields.add(FIELD_BODY);
+            }
+            for (String field : fields) {
+                final Query phrase = queryBuilder.createPhraseQuery(field, text);
+                if (phrase != null) {
+                    textQuery.add(phrase, BooleanClause.Occur.SHOULD);
+                    hasText = true;
+                }
+            }
+            if (hasText) {
+                builder.add(textQuery.build(), BooleanClause.Occur.MUST);
+                constrained = true;
+            }
+        }
+        if (queryParameters.subjects != null && !queryParameters.subjects.isEmpty()) {
+            final BooleanQuery.Builder subjectQuery = new BooleanQuery.Builder();
+            for (Subject subject : queryParameters.subjects) {
+                subjectQuery.add(new TermQuery(new Term(FIELD_SUBJECT, subject.getDisplayName().toLowerCase())), BooleanClause.Occur.SHOULD);
+            }
+            builder.add(subjectQuery.build(), BooleanClause.Occur.FILTER);
+            constrained = true;
+        }
+        final ExamSessionConstraint sessionConstraint = queryParameters.examSessionConstraint;
+        if (sessionConstraint != null) {
+            final long bound = sessionConstraint.examSession.epochMilli;
+            final Query sessionQuery;
+            switch (sessionConstraint.type) {
+                case ONLY:
+                    sessionQuery = LongPoint.newExactQuery(FIELD_EXAM_SESSION, bound);
+                    break;
+                case AFTER:
+                    sessionQuery = LongPoint.newRangeQuery(FIELD_EXAM_SESSION, Math.addExact(bound, 1), Long.MAX_VALUE);
+                    break;
+                case BEFORE:
+                    sessionQuery = LongPoint.newRangeQuery(FIELD_EXAM_SESSION, Long.MIN_VALUE, Math.addExact(bound, -1));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown session constraint: " + sessionConstraint.type);
+            }
+            builder.add(sessionQuery, BooleanClause.Occur.FILTER);
+            constrained = true;
+        }
+        if (cursor != null) {
+            // Keyset pagination, only documents after the cursor
+            final long examSession = cursor.getExamSession();
+            final int uniqueID = cursor.getUniqueID();
+            final BooleanQuery.Builder afterCursor = new BooleanQuery.Builder();
+            if (examSession != Long.MAX_VALUE) {
+                afterCursor.add(LongPoint.newRangeQuery(FIELD_EXAM_SESSION, examSession + 1, Long.MAX_VALUE), BooleanClause.Occur.SHOULD);
+            }
+            if (uniqueID != Integer.MAX_VALUE) {
+                final BooleanQuery.Builder sameSession = new BooleanQuery.Builder()
+                        .add(LongPoint.newExactQuery(FIELD_EXAM_SESSION, examSession), BooleanClause.Occur.FILTER)
+                        .add(IntPoint.newRangeQuery(FIELD_ID_ORDER, uniqueID + 1, Integer.MAX_VALUE), BooleanClause.Occur.FILTER);
+                afterCursor.add(sameSession.build(), BooleanClause.Occur.SHOULD);
+            }
+            builder.add(afterCursor.build(), BooleanClause.Occur.FILTER);
+            constrained = true;
+        }
+        return constrained ? builder.build() : new MatchAllDocsQuery();
+    }
+
+    @Override
+    public @NotNull Stats stats() throws IOException {
+        final IndexWriter writer = writer();
+        long sizeOnDisk = 0;
+        for (String file : directory.listAll()) {
+            sizeOnDisk += directory.fileLength(file);
+        }
+        return new Stats(writer.getDocStats().numDocs, sizeOnDisk);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer == null) {
+            return;
+        }
+        searcherManager.close();
+        writer.close();
+        directory.close();
+        writer = null;
+    }
+
+    private synchronized IndexWriter writer() throws IOException {
+        if (writer == null) {
+            throw new IOException("Lucene index is not open!");
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,133 @@
+package me.XXX.eesearcher.common;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents a {@link RandomAccessRead} over a memory-mapped file, so PDFBox can parse a file
+ * without copying it onto the heap. The mapping is released by the garbage collector once this
+ * instance is unreachable. This class is not thread-safe.
+ */
+final class MappedRandomAccessRead implements RandomAccessRead {
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Map a file into memory.
+     *
+     * @param path The file to map
+     * @throws IOException Thrown if the file could not be mapped, or is larger than 2GB
+     */
+    MappedRandomAccessRead(@NotNull final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("File is too large to map: %s", path));
+            }
+            // The mapping stays valid once the channel is closed
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private MappedByteBuffer checkOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("RandomAccessRead already closed");
+        }
+        return buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int read = Math.min(length, buffer.remaining());
+        buffer.get(b, offset, read);
+        return read;
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+        return checkOpen().position();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        if (position < 0) {
+            throw new IOException(String.format("Invalid position: %d", position));
+        }
+        // Seeking past the end is allowed, reads then report the end of the file
+        buffer.position((int) Math.min(position, buffer.limit()));
+    }
+
+    @Override
+    public long length() throws IOException {
+        return checkOpen().limit();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return buffer == null;
+    }
+
+    @Override
+    public int peek() throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        return buffer.hasRemaining() ? buffer.get(buffer.position()) & 0xFF : -1;
+    }
+
+    @Override
+    public void rewind(int bytes) throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        buffer.position(buffer.position() - bytes);
+    }
+
+    @Override
+    public byte[] readFully(int length) throws IOException {
+        final MappedByteBuffer buffer = checkOpen();
+        if (buffer.remaining() < length) {
+            throw new EOFException("Premature end of file");
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public boolean isEOF() throws IOException {
+        return !checkOpen().hasRemaining();
+    }
+
+    @Override
+    public int available() throws IOException {
+        return checkOpen().remaining();
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+    }
+}
@@ -0,0 +1,315 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Singleton;
+import me.XXX.eesearcher.data.ExamSessionConstraint;
+import me.XXX.eesearcher.data.IndexData;
+import me.XXX.eesearcher.data.QueryCursor;
+import me.XXX.eesearcher.data.Subject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Represents an in-memory catalog of the {@link IndexData} of every essay in the database, which
+ * allows queries to be evaluated without a round trip to the database. All methods in this class
+ * are thread-safe.
+ * <p>
+ * Every essay is given a dense document id in the order it is added, and a {@link DocIdBitmap} of
+ * document ids is kept per subject and per exam session, so subject and exam session filters are
+ * answered by uniting and intersecting bitmaps. Document ids only live as long as the catalog and
+ * the ids of removed essays are not reused.
+ * </p>
+ * <p>
+ * Essays are also kept in {@link QueryCursor#RESULT_ORDER}, so a page of a query can be found by walking
+ * the essays in order until the page is full, see {@link #scan(Set, ExamSessionConstraint, QueryCursor, Predicate, int)}.
+ * </p>
+ */
+@Singleton
+public final class MetadataCatalog {
+
+    private final Map<Integer, IndexData> entries = new ConcurrentHashMap<>();
+
+    // Non-fair sync as we expect much more reads than writes
+    private final ReentrantReadWriteLock parentLock = new ReentrantReadWriteLock(false);
+    private final Map<Integer, Integer> documentIds = new HashMap<>();
+    private IndexData[] documents = new IndexData[64];
+    private int nextDocumentId;
+    // Keyed by the lower-case display name of the subject, as subjects are matched by name
+    private final Map<String, DocIdBitmap> subjects = new HashMap<>();
+    private final NavigableMap<Long, DocIdBitmap> examSessions = new TreeMap<>();
+    // Keyed by exam session and then by unique id, which is the order of the results of a query
+    private final NavigableMap<Long, NavigableMap<Integer, IndexData>> ordered = new TreeMap<>();
+
+    private volatile boolean complete;
+
+    /**
+     * Add an essay to this catalog, replacing any essay with the same unique id.
+     *
+     * @param indexData The characteristics of the essay
+     */
+    public void put(@NotNull final IndexData indexData) {
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            Integer documentId = documentIds.get(indexData.getUniqueID());
+            if (documentId != null) {
+                unsafeUnindex(documentId);
+            } else {
+                documentId = nextDocumentId++;
+                if (documentId == documents.length) {
+                    documents = Arrays.copyOf(documents, documents.length * 2);
+                }
+                documentIds.put(indexData.getUniqueID(), documentId);
+            }
+            documents[documentId] = indexData;
+            subjects.computeIfAbsent(subjectKey(indexData.getSubject()), unused -> new DocIdBitmap()).add(documentId);
+            examSessions.computeIfAbsent(indexData.getExamSession().epochMilli, unused -> new DocIdBitmap()).add(documentId);
+            ordered.computeIfAbsent(indexData.getExamSession().epochMilli, unused -> new TreeMap<>())
+                    .put(indexData.getUniqueID(), indexData);
+            entries.put(indexData.getUniqueID(), indexData);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove an essay from this catalog.
+     *
+     * @param uniqueID The unique id of the essay
+     */
+    public void remove(final int uniqueID) {
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            final Integer documentId = documentIds.remove(uniqueID);
+            if (documentId != null) {
+                unsafeUnindex(documentId);
+                documents[documentId] = null;
+            }
+            entries.remove(uniqueID);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void unsafeUnindex(final int documentId) {
+        final IndexData indexData = documents[documentId];
+        final String subject = subjectKey(indexData.getSubject());
+        final DocIdBitmap subjectBitmap = subjects.get(subject);
+        subjectBitmap.remove(documentId);
+        if (subjectBitmap.cardinality() == 0) {
+            subjects.remove(subject);
+        }
+        final long examSession = indexData.getExamSession().epochMilli;
+        final DocIdBitmap examSessionBitmap = examSessions.get(examSession);
+        examSessionBitmap.remove(documentId);
+        if (examSessionBitmap.cardinality() == 0) {
+            examSessions.remove(examSession);
+        }
+        final NavigableMap<Integer, IndexData> session = ordered.get(examSession);
+        session.remove(indexData.getUniqueID());
+        if (session.isEmpty()) {
+            ordered.remove(examSession);
+        }
+    }
+
+    private static @NotNull String subjectKey(@NotNull final Subject subject) {
+        return subject.getDisplayName().toLowerCase();
+    }
+
+    /**
+     * Select the essays which match subject and exam session filters and are among a set of candidates.
+     * The filters are evaluated on bitmaps, which each candidate is then looked up in.
+     *
+     * @param subjects    The subjects an essay must have one of, null or empty for any subject
+     * @param constraint  The constraint on the exam session of an essay, null for any exam session
+     * @param candidates  The unique ids of the essays to select from, null for every essay
+     * @return Returns a never-null {@link Collection} of the matching essays, in no particular order
+     */
+    public @NotNull Collection<@NotNull IndexData> select(@Nullable final Set<Subject> subjects,
+                                                          @Nullable final ExamSessionConstraint constraint,
+                                                          @Nullable final Collection<Integer> candidates) {
+        final boolean anySubject = subjects == null || subjects.isEmpty();
+        if (anySubject && constraint == null && candidates == null) {
+            return values();
+        }
+        final Lock readLock = parentLock.readLock();
+        try {
+            readLock.lock();
+            DocIdBitmap selected = null;
+            if (!anySubject) {
+                selected = new DocIdBitmap();
+                for (Subject subject : subjects) {
+                    final DocIdBitmap bitmap = this.subjects.get(subjectKey(subject));
+                    if (bitmap != null) {
+                        selected = selected.or(bitmap);
+                    }
+                }
+            }
+            if (constraint != null) {
+                final DocIdBitmap sessions = unsafeSelectExamSessions(constraint);
+                selected = selected == null ? sessions : selected.and(sessions);
+            }
+            if (candidates != null) {
+                // Candidates are few, so probing the filters is cheaper than building a bitmap of them
+                final List<IndexData> result = new ArrayList<>(candidates.size());
+                for (Integer uniqueID : candidates) {
+                    final Integer documentId = documentIds.get(uniqueID);
+                    if (documentId != null && (selected == null || selected.contains(documentId))) {
+                        result.add(documents[documentId]);
+                    }
+                }
+                return result;
+            }
+            final List<IndexData> result = new ArrayList<>(selected.cardinality());
+            selected.forEach(documentId -> result.add(documents[documentId]));
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Find a page of the essays which match subject and exam session filters and a further condition,
+     * walking the essays in {@link QueryCursor#RESULT_ORDER} and stopping as soon as the page is full.
+     * Only the essays up to the last one of the page are checked against the condition, so a page of a
+     * query which many essays match is found without evaluating every essay.
+     *
+     * @param subjects   The subjects an essay must have one of, null or empty for any subject
+     * @param constraint The constraint on the exam session of an essay, null for any exam session
+     * @param cursor     The cursor of the previous page, null for the first page
+     * @param filter     The condition an essay must meet, which is evaluated on the current thread
+     * @param limit      The maximum number of essays in the page, must be positive
+     * @return Returns a never-null {@link List} of the matching essays, in result order
+     */
+    public @NotNull List<@NotNull IndexData> scan(@Nullable final Set<Subject> subjects,
+                                                  @Nullable final ExamSessionConstraint constraint,
+                                                  @Nullable final QueryCursor cursor,
+                                                  @NotNull final Predicate<IndexData> filter,
+                                                  final int limit) {
+        final Set<String> subjectKeys = new HashSet<>();
+        if (subjects != null) {
+            for (Subject subject : subjects) {
+                subjectKeys.add(subjectKey(subject));
+            }
+        }
+        final List<IndexData> page = new ArrayList<>(Math.min(limit, 1024));
+        final Lock readLock = parentLock.readLock();
+        try {
+            readLock.lock();
+            NavigableMap<Long, NavigableMap<Integer, IndexData>> sessions = ordered;
+            if (constraint != null) {
+                final long bound = constraint.examSession.epochMilli;
+                switch (constraint.type) {
+                    case ONLY:
+                        sessions = sessions.subMap(bound, true, bound, true);
+                        break;
+                    case AFTER:
+                        sessions = sessions.tailMap(bound, false);
+                        break;
+                    case BEFORE:
+                        sessions = sessions.headMap(bound, false);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown session constraint: " + constraint.type);
+                }
+            }
+            if (cursor != null) {
+                sessions = sessions.tailMap(cursor.getExamSession(), true);
+            }
+            for (Map.Entry<Long, NavigableMap<Integer, IndexData>> session : sessions.entrySet()) {
+                // Only the essays after the cursor within its own session
+                final Collection<IndexData> essays = cursor != null && session.getKey() == cursor.getExamSession()
+                        ? session.getValue().tailMap(cursor.getUniqueID(), false).values()
+                        : session.getValue().values();
+                for (IndexData indexData : essays) {
+                    if ((subjectKeys.isEmpty() || subjectKeys.contains(subjectKey(indexData.getSubject())))
+                            && filter.test(indexData)) {
+                        page.add(indexData);
+                        if (page.size() == limit) {
+                            return page;
+                        }
+                    }
+                }
+            }
+            return page;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private @NotNull DocIdBitmap unsafeSelectExamSessions(@NotNull final ExamSessionConstraint constraint) {
+        final long bound = constraint.examSession.epochMilli;
+        final Collection<DocIdBitmap> bitmaps;
+        switch (constraint.type) {
+            case ONLY:
+                bitmaps = examSessions.containsKey(bound)
+                        ? Collections.singleton(examSessions.get(bound)) : Collections.emptySet();
+                break;
+            case AFTER:
+                bitmaps = examSessions.tailMap(bound, false).values();
+                break;
+            case BEFORE:
+                bitmaps = examSessions.headMap(bound, false).values();
+                break;
+            default:
+                throw new IllegalStateException("Unknown session constraint: " + constraint.type);
+        }
+        DocIdBitmap selected = new DocIdBitmap();
+        for (DocIdBitmap bitmap : bitmaps) {
+            selected = selected.or(bitmap);
+        }
+        return selected;
+    }
+
+    /**
+     * Look up an essay by its unique id.
+     *
+     * @param uniqueID The unique id of the essay
+     * @return Returns a never-null {@link Optional} populated by the {@link IndexData} if present
+     */
+    public @NotNull Optional<@NotNull IndexData> get(final int uniqueID) {
+        return Optional.ofNullable(entries.get(uniqueID));
+    }
+
+    /**
+     * Get a live view of every essay in this catalog.
+     *
+     * @return Returns an unmodifiable {@link Collection} backed by this catalog
+     */
+    public @NotNull Collection<@NotNull IndexData> values() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Mark this catalog as containing every essay in the database.
+     */
+    public void markComplete() {
+        this.complete = true;
+    }
+
+    /**
+     * Check whether this catalog contains every essay in the database. Until then, queries
+     * must be answered by the database.
+     *
+     * @return Returns true if this catalog is complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Get the number of essays in this catalog.
+     *
+     * @return Returns the number of essays
+     */
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -2,22 +2,33 @@ package me.XXX.eesearcher.common;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import me.XXX.eesearcher.SystemConfiguration;
 import me.XXX.eesearcher.data.Essay;
 import me.XXX.eesearcher.data.IndexData;
 import me.XXX.eesearcher.data.Subject;
 import me.XXX.eesearcher.data.SubjectDatabase;
-import org.apache.pdfbox.io.RandomAccessBuffer;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
 import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.Month;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,25 +40,30 @@ import java.util.regex.Pattern;
 public final class Parser {
 
     /**
-     * Regular expressions to match specific characteristics of an Extended Essay
+     * The fewest pages extracted by a single worker, below which the cost of reopening the document
+     * outweighs the gain from extracting in parallel.
+     */
+    public static final int MIN_PAGES_PER_RANGE = 16;
+
+    /**
+     * Matches a language subject and its level, for example {@code English A}. Applied to a single word, so it
+     * cannot backtrack.
      */
-    private static final Pattern LINE_SEPARATOR = Pattern.compile(System.lineSeparator() + "|^\\s*$");
-    private static final Pattern SUBJECT_PARSER = Pattern.compile("(Subject:)\\s?(\\w*|\\s)($|\\.|\\s+)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern RESEARCH_QUESTION_PATTERN = Pattern.compile("(Research Question:)");
-    private static final Pattern RESEARCH_QUESTION_PARSER = Pattern.compile(".*\\?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern TITLE_PARSER = Pattern.compile("(((Topic|Title):)|^)(\\s?(\\w+|.|\\s)+($|\\.|\\s+))", Pattern.CASE_INSENSITIVE);
-    private static final Pattern HACKY_TITLE_PARSER = Pattern.compile("\\b\\w+(?<!(\\.))");
-    private static final Pattern EXAM_SESSION_PARSER = Pattern.compile("((may|november)(\\s?([0-9]{4})))", Pattern.CASE_INSENSITIVE);
     private static final Pattern LANGUAGE_PATTERN = Pattern.compile("^(\\w+)(\\s?([ab])|$|\\.)");
 
     @Inject
     private SubjectDatabase database;
+    @Inject
+    private SystemConfiguration configuration;
+
+    private ForkJoinPool extractionPool;
+    // Every range of a document extracted in parallel parses its own copy of the PDF, so only one document
+    // at a time is split, which bounds the extra copies to the parallelism of the extraction pool
+    private final Semaphore parallelDocument = new Semaphore(1);
 
     /**
-     * Attempt to parse an essay from a given {@link PDFParser}. This method heavily utilizes
-     * regular expressions, it is strongly advised for the max stack size to be increased depending on
-     * how much text is on each cover page. For an average of 50-100 words on an A4 sized cover page a
-     * stack size of around 2MB should be sufficient.
+     * Attempt to parse an essay from a given {@link PDFParser}. The fields of the essay are read from
+     * its cover pages by a {@link CoverPageScanner}, in time linear in the length of the text.
      *
      * @param parser The PDF parser instance
      * @return Returns an {@link Essay} representing the given PDF
@@ -55,42 +71,39 @@ public final class Parser {
      * @throws IllegalArgumentException Thrown if no Subject, Title or Research Question could be found.
      */
     public Essay parseDocument(final PDFParser parser) throws IOException, IllegalArgumentException {
-        final List<String> pages = parseTextByPage(parser);
-        final String coverPage = pages.get(0);
-        final Matcher subjectMatcher = SUBJECT_PARSER.matcher(coverPage);
-        if (!subjectMatcher.find()) {
-            throw new IllegalArgumentException("Invalid Essay: No subject found!");
-        }
+        return parseDocument(parser, parseTextByPage(parser));
+    }
 
-        // Look for a title
-        final Matcher titleMatcher = TITLE_PARSER.matcher(coverPage);
-        String title = null;
-        if (!titleMatcher.find()) {
-            final Matcher hacky = HACKY_TITLE_PARSER.matcher(coverPage);
-            while (hacky.find()) {
-                final String found = hacky.group().trim();
-                if (found.charAt(found.length() - 1) == '?') {
-                    continue;
-                }
-                title = found;
-            }
-            if (title == null) {
-                throw new IllegalArgumentException("Invalid Essay: No title/topic found!");
-            }
-        } else {
-            title = titleMatcher.group(5).trim();
+    /**
+     * Attempt to parse an essay from a given {@link PDFParser} whose text has already been extracted.
+     * Only the cover pages, see {@link SystemConfiguration#coverPages()}, are searched for metadata.
+     *
+     * @param parser The PDF parser instance
+     * @param pages  The text of the PDF split by page, as returned by {@link #parseTextByPage(PDFParser)}.
+     *               Only the cover pages are required, see {@link #parseCoverPages(PDFParser)}
+     * @return Returns an {@link Essay} representing the given PDF
+     * @throws IOException              Thrown if the parsed PDF document could not be obtained
+     * @throws IllegalArgumentException Thrown if no Subject, Title or Research Question could be found.
+     * @see #parseDocument(PDFParser)
+     */
+    public Essay parseDocument(final PDFParser parser, final List<String> pages) throws IOException, IllegalArgumentException {
+        if (pages.isEmpty()) {
+            throw new IllegalArgumentException("Invalid Essay: No pages found!");
         }
-
-        // Look for a research question
-        final Matcher rqMatcher = RESEARCH_QUESTION_PARSER.matcher(coverPage);
-        if (!rqMatcher.find()) {
+        final CoverPageScanner scanner = scanCoverPages(pages);
+        final String rawSubject = scanner.getSubject();
+        if (rawSubject == null) {
+            throw new IllegalArgumentException("Invalid Essay: No subject found!");
+        }
+        final String title = scanner.getTitle();
+        if (title == null) {
             throw new IllegalArgumentException("Invalid Essay: No title/topic found!");
         }
-        final String rawResearchQuestion = rqMatcher.group();
-        // Strip "Research Question:" from the parsed string if present.
-        final String researchQuestion = RESEARCH_QUESTION_PATTERN.matcher(rawResearchQuestion).replaceAll("").trim();
+        final String researchQuestion = scanner.getResearchQuestion();
+        if (researchQuestion == null) {
+            throw new IllegalArgumentException("Invalid Essay: No research question found!");
+        }
 
-        final String rawSubject = subjectMatcher.group(2).trim();
         // Check if subject is a language
         final Matcher languageMatcher = LANGUAGE_PATTERN.matcher(rawSubject);
         final Subject subject;
@@ -109,16 +122,11 @@ public final class Parser {
             subject = database.getSubjectByName(rawSubject).orElseThrow(() -> new IllegalArgumentException(String.format("Invalid Subject: %s", rawSubject)));
         }
         final ExamSession session;
-        final Matcher sessionMatcher = EXAM_SESSION_PARSER.matcher(coverPage);
         // Attempt to identify the exam session
-        if (sessionMatcher.find()) {
-            final String rawMonth = sessionMatcher.group(2).trim();
-            final String rawYear = sessionMatcher.group(3).trim();
+        if (scanner.getExamMonth() != null) {
             ExamSession temp;
             try {
-                Month month = Month.valueOf(rawMonth.toUpperCase(Locale.ENGLISH));
-                int year = Integer.parseInt(rawYear);
-                temp = ExamSession.of(month, year);
+                temp = ExamSession.of(scanner.getExamMonth(), scanner.getExamYear());
             } catch (IllegalArgumentException ex) {
                 // If error in parsing, fall back to the empty session
                 temp = ExamSession.EMPTY_SESSION;
@@ -133,12 +141,77 @@ public final class Parser {
         return new Essay(data, parser.getPDDocument());
     }
 
+    /**
+     * Read the title of an essay whose text has already been extracted, without the other fields it needs
+     * to be parsed, see {@link #parseDocument(PDFParser, List)}.
+     *
+     * @param pages The text of the PDF split by page. Only the cover pages are required
+     * @return Returns the title or topic, or null if none was found
+     */
+    public @Nullable String parseTitle(final List<String> pages) {
+        return pages.isEmpty() ? null : scanCoverPages(pages).getTitle();
+    }
+
+    private CoverPageScanner scanCoverPages(final List<String> pages) {
+        final String coverPage = String.join(System.lineSeparator(), pages.subList(0, Math.min(pages.size(), configuration.coverPages())));
+        return CoverPageScanner.scan(coverPage);
+    }
+
     public PDFParser parseDocument(final InputStream inputStream) throws IOException {
-        final PDFParser parser = new PDFParser(new RandomAccessBuffer(inputStream));
+        final PDFParser parser = newPDFParser(inputStream);
         parser.parse();
         return parser;
     }
 
+    /**
+     * Create a parser whose document holds its decoded streams according to
+     * {@link SystemConfiguration#pdfMemoryUsage()}, spilling them to temporary files once its share of
+     * memory is used up. The temporary files are deleted when the document is closed.
+     *
+     * @param source The raw PDF
+     * @return Returns a new {@link PDFParser} which has not parsed the PDF yet
+     * @throws IOException Thrown if the parser could not be created
+     */
+    public PDFParser newPDFParser(final RandomAccessRead source) throws IOException {
+        return new PDFParser(source, new ScratchFile(configuration.pdfMemoryUsage()));
+    }
+
+    /**
+     * Create a parser for a PDF file, see {@link #newPDFParser(RandomAccessRead)}. The file is read through
+     * a small buffer rather than loaded into memory.
+     *
+     * @param source The PDF file
+     * @return Returns a new {@link PDFParser} which has not parsed the PDF yet
+     * @throws IOException Thrown if the file could not be opened
+     */
+    public PDFParser newPDFParser(final File source) throws IOException {
+        final RandomAccessRead read = new RandomAccessBufferedFileInputStream(source);
+        try {
+            return newPDFParser(read);
+        } catch (IOException ex) {
+            read.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Create a parser for a streamed PDF, see {@link #newPDFParser(RandomAccessRead)}. The stream is
+     * buffered within the same memory limit as the decoded streams of the document.
+     *
+     * @param inputStream The raw PDF, which is fully consumed but not closed
+     * @return Returns a new {@link PDFParser} which has not parsed the PDF yet
+     * @throws IOException Thrown if the stream could not be read
+     */
+    public PDFParser newPDFParser(final InputStream inputStream) throws IOException {
+        final ScratchFile scratchFile = new ScratchFile(configuration.pdfMemoryUsage());
+        try {
+            return new PDFParser(scratchFile.createBuffer(inputStream), scratchFile);
+        } catch (IOException ex) {
+            scratchFile.close();
+            throw ex;
+        }
+    }
+
     public String parseText(final InputStream inputStream) throws IOException {
         return parseText(parseDocument(inputStream));
     }
@@ -151,11 +224,173 @@ public final class Parser {
     }
 
     public List<String> parseTextByPage(final PDFParser parser) throws IOException {
-        final PDDocument document = parser.getPDDocument();
+        return parseTextByPage(parser, 1, parser.getPDDocument().getNumberOfPages());
+    }
+
+    /**
+     * Extract the text of the cover pages of a PDF, which is all that is needed by
+     * {@link #parseDocument(PDFParser, List)}. The remaining pages are never decoded.
+     *
+     * @param parser The PDF parser instance
+     * @return Returns the text of the first {@link SystemConfiguration#coverPages()} pages, or fewer if the
+     * document is shorter
+     * @throws IOException Thrown if an error occurs when parsing the PDF into plaintext
+     * @see #parseRemainingPages(PDFParser, List, File)
+     */
+    public List<String> parseCoverPages(final PDFParser parser) throws IOException {
+        return parseCoverPages(parser.getPDDocument());
+    }
+
+    /**
+     * Extract the text of the cover pages of a loaded PDF, see {@link #parseCoverPages(PDFParser)}.
+     *
+     * @param document The PDF document
+     * @return Returns the text of the first {@link SystemConfiguration#coverPages()} pages, or fewer if the
+     * document is shorter
+     * @throws IOException Thrown if an error occurs when parsing the PDF into plaintext
+     */
+    public List<String> parseCoverPages(final PDDocument document) throws IOException {
+        final int count = Math.min(configuration.coverPages(), document.getNumberOfPages());
+        return parseTextByPage(document, 1, count, () -> false);
+    }
+
+    /**
+     * Extract the text of every page of a PDF which follows its cover pages. Long documents are split into
+     * page ranges which are extracted in parallel, see {@link #parseTextByPage(PDFParser, File, int, int)}.
+     *
+     * @param parser     The PDF parser instance
+     * @param coverPages The text of the cover pages, as returned by {@link #parseCoverPages(PDFParser)}
+     * @param source     The file the PDF was read from
+     * @return Returns the text of every page of the PDF, including the given cover pages
+     * @throws IOException Thrown if an error occurs when parsing the PDF into plaintext
+     */
+    public List<String> parseRemainingPages(final PDFParser parser, final List<String> coverPages, final File source) throws IOException {
+        final int total = parser.getPDDocument().getNumberOfPages();
+        final List<String> pages = new ArrayList<>(total);
+        pages.addAll(coverPages);
+        pages.addAll(parseTextByPage(parser, source, coverPages.size() + 1, total));
+        return pages;
+    }
+
+    /**
+     * Extract the text of a range of pages of a PDF, splitting the range across a fork-join pool once it
+     * spans at least twice {@link #MIN_PAGES_PER_RANGE} pages. A {@link PDDocument} cannot be shared between
+     * threads, so the calling thread extracts the first part with the given parser while every other worker
+     * opens its own copy of the file. Only one document is split at a time, while another document is being
+     * split the range is extracted by the calling thread alone. The text is returned in page order. Once any
+     * range fails, every other range stops before its next page.
+     *
+     * @param parser    The PDF parser instance
+     * @param source    The file the PDF was read from, which is reopened by every other worker
+     * @param firstPage The first page to extract, starting from 1
+     * @param lastPage  The last page to extract, inclusive
+     * @return Returns the text of each page in the range, empty if the range is empty
+     * @throws IOException Thrown if an error occurs when parsing the PDF into plaintext
+     */
+    public List<String> parseTextByPage(final PDFParser parser, final File source, final int firstPage, final int lastPage) throws IOException {
+        final int count = lastPage - firstPage + 1;
+        final ForkJoinPool pool = extractionPool();
+        final int ranges = Math.min(pool.getParallelism(), count / MIN_PAGES_PER_RANGE);
+        if (ranges < 2 || !parallelDocument.tryAcquire()) {
+            return parseTextByPage(parser, firstPage, lastPage);
+        }
+        try {
+            return parseTextByPage(parser, source, firstPage, lastPage, pool, ranges);
+        } finally {
+            parallelDocument.release();
+        }
+    }
+
+    /**
+     * Extract the text of a range of pages of a PDF, split into a number of ranges across a fork-join pool.
+     */
+    private List<String> parseTextByPage(final PDFParser parser, final File source, final int firstPage, final int lastPage,
+                                         final ForkJoinPool pool, final int ranges) throws IOException {
+        final int count = lastPage - firstPage + 1;
+        final int rangeSize = (count + ranges - 1) / ranges;
+        final List<ForkJoinTask<List<String>>> tasks = new ArrayList<>(ranges - 1);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        for (int start = firstPage + rangeSize; start <= lastPage; start += rangeSize) {
+            final int rangeStart = start;
+            final int rangeEnd = Math.min(lastPage, start + rangeSize - 1);
+            tasks.add(pool.submit(() -> {
+                try {
+                    return parseTextByPage(source, rangeStart, rangeEnd, stopped::get);
+                } catch (IOException | RuntimeException ex) {
+                    stopped.set(true);
+                    throw ex;
+                }
+            }));
+        }
+        final List<String> pages = new ArrayList<>(count);
+        try {
+            pages.addAll(parseTextByPage(parser.getPDDocument(), firstPage, firstPage + rangeSize - 1, stopped::get));
+            for (ForkJoinTask<List<String>> task : tasks) {
+                pages.addAll(task.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting text");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            // Stop the remaining workers if any range failed, running ones stop before their next page
+            stopped.set(true);
+            for (ForkJoinTask<List<String>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Open a PDF on the current thread and extract the text of a range of its pages.
+     */
+    private List<String> parseTextByPage(final File source, final int firstPage, final int lastPage, final BooleanSupplier stopped) throws IOException {
+        final PDFParser parser = newPDFParser(source);
+        parser.parse();
+        try (PDDocument document = parser.getPDDocument()) {
+            return parseTextByPage(document, firstPage, lastPage, stopped);
+        }
+    }
+
+    private synchronized ForkJoinPool extractionPool() {
+        if (extractionPool == null) {
+            final int threads = configuration.maxIOThreads() == -1 ? Runtime.getRuntime().availableProcessors() : configuration.maxIOThreads();
+            // Worker threads are daemons, so the pool never needs to be shut down
+            extractionPool = new ForkJoinPool(threads);
+        }
+        return extractionPool;
+    }
+
+    /**
+     * Extract the text of a range of pages of a PDF.
+     *
+     * @param parser    The PDF parser instance
+     * @param firstPage The first page to extract, starting from 1
+     * @param lastPage  The last page to extract, inclusive
+     * @return Returns the text of each page in the range, empty if the range is empty
+     * @throws IOException Thrown if an error occurs when parsing the PDF into plaintext
+     */
+    public List<String> parseTextByPage(final PDFParser parser, final int firstPage, final int lastPage) throws IOException {
+        return parseTextByPage(parser.getPDDocument(), firstPage, lastPage, () -> false);
+    }
+
+    /**
+     * Extract the text of a range of pages of a PDF, or of the pages before it was stopped.
+     */
+    private List<String> parseTextByPage(final PDDocument document, final int firstPage, final int lastPage, final BooleanSupplier stopped) throws IOException {
         final PDFTextStripper stripper = new PDFTextStripper();
-        final List<String> pages = new ArrayList<>(document.getNumberOfPages());
-        for (int i = 1; i < document.getNumberOfPages(); ) {
-            stripper.setStartPage(i++);
+        final List<String> pages = new ArrayList<>(Math.max(0, lastPage - firstPage + 1));
+        for (int i = firstPage; i <= lastPage; i++) {
+            if (stopped.getAsBoolean()) {
+                // The range which failed reports the error, the partial text is discarded
+                break;
+            }
+            stripper.setStartPage(i);
             stripper.setEndPage(i);
             final String raw = stripper.getText(document);
             pages.add(raw);
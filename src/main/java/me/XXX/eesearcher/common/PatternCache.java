@@ -0,0 +1,104 @@
+package me.XXX.eesearcher.common;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Represents a bounded cache of compiled {@link Pattern}s so that repeated queries do not
+ * recompile their regular expression. All methods in this class are thread-safe.
+ */
+@Singleton
+public final class PatternCache {
+
+    public static final int MAX_CACHE_SIZE = 64;
+
+    private final Cache<Key, Pattern> cache = CacheBuilder.newBuilder()
+            .concurrencyLevel(2)
+            .maximumSize(MAX_CACHE_SIZE)
+            .build();
+
+    /**
+     * Translate the flags of a query into {@link Pattern} flags. The flags follow the
+     * semantics of H2's {@code REGEXP_LIKE} so both evaluate a query identically.
+     *
+     * @param flags The flags of the query
+     * @return Returns the flags to compile the pattern with
+     * @throws IllegalArgumentException Thrown if a flag is not supported
+     */
+    public static int toPatternFlags(final char[] flags) throws IllegalArgumentException {
+        int result = 0;
+        for (char c : flags) {
+            switch (c) {
+                case 'i':
+                    result |= Pattern.CASE_INSENSITIVE;
+                    break;
+                case 'c':
+                    result &= ~Pattern.CASE_INSENSITIVE;
+                    break;
+                case 'n':
+                    result |= Pattern.DOTALL;
+                    break;
+                case 'm':
+                    result |= Pattern.MULTILINE;
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Invalid regex flag: %s", c));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the compiled form of a regular expression, compiling it if it has not been cached.
+     *
+     * @param regex The regular expression
+     * @param flags The flags of the query, see {@link #toPatternFlags(char[])}
+     * @return Returns a compiled {@link Pattern}
+     * @throws PatternSyntaxException   Thrown if the regular expression is invalid
+     * @throws IllegalArgumentException Thrown if a flag is not supported
+     */
+    public @NotNull Pattern compile(@NotNull final String regex, final char[] flags) throws PatternSyntaxException, IllegalArgumentException {
+        final Key key = new Key(regex, toPatternFlags(flags));
+        Pattern pattern = cache.getIfPresent(key);
+        if (pattern == null) {
+            // Compiling twice under contention is harmless
+            pattern = Pattern.compile(regex, key.flags);
+            cache.put(key, pattern);
+        }
+        return pattern;
+    }
+
+    private static final class Key {
+
+        private final String regex;
+        private final int flags;
+
+        private Key(final String regex, final int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            if (flags != key.flags) return false;
+            return regex.equals(key.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = regex.hashCode();
+            result = 31 * result + flags;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package me.XXX.eesearcher.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Represents a sequence of stages which items are passed through in order. Every stage has its own
+ * worker threads and a bounded queue in front of it, so a stage which falls behind blocks the stages
+ * before it instead of letting work pile up in memory. The number of items in flight is therefore
+ * bounded by the queue capacity and the number of workers, never by the number of items submitted.
+ * <p>
+ * An item which fails a stage, by throwing anything including an {@link Error}, is handed to the failure
+ * listener and is not passed on. An item which
+ * a filtering stage rejects skips the remaining stages and is handed to the success listener. A batching
+ * stage holds on to items until its batch is flushed, which happens once the step asks for it, once
+ * the oldest item has waited for the maximum delay or once no more items will arrive. Workers are run
+ * on the executor given to the builder, which must be able to run every worker of a run at once, as
+ * workers block while the next stage is full.
+ * </p>
+ *
+ * @param <T> The type of item, which carries its own state between stages
+ */
+final class Pipeline<T> {
+
+    private static final Object END = new Object();
+
+    private final String name;
+    private final Executor executor;
+    private final int queueCapacity;
+    private final List<Stage<T>> stages;
+
+    private Pipeline(@NotNull final String name,
+                     @NotNull final Executor executor,
+                     final int queueCapacity,
+                     @NotNull final List<Stage<T>> stages) {
+        this.name = name;
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.stages = stages;
+    }
+
+    /**
+     * Create a builder of a pipeline.
+     *
+     * @param name          The name of the pipeline, used to name the threads of its workers
+     * @param executor      The executor which runs the workers of every stage, see {@link Pipeline}
+     * @param queueCapacity The capacity of the queue in front of every stage, must be positive
+     * @param <T>           The type of item
+     * @return Returns a new builder
+     */
+    static <T> @NotNull Builder<T> builder(@NotNull final String name,
+                                           @NotNull final Executor executor,
+                                           final int queueCapacity) {
+        return new Builder<>(name, executor, queueCapacity);
+    }
+
+    /**
+     * Pass every item through this pipeline on the threads of its executor. The calling thread never blocks.
+     *
+     * @param items     The items to process
+     * @param onSuccess A listener for every item which completed the final stage
+     * @param onFailure A listener for every item which failed a stage, along with the reason
+     * @return Returns a {@link CompletableFuture} which completes once every item has either completed or
+     * failed. The future only completes exceptionally if the pipeline itself was interrupted or could not be
+     * started, and always completes once every worker has exited.
+     */
+    @NotNull CompletableFuture<Void> run(@NotNull final Collection<T> items,
+                                         @NotNull final Consumer<T> onSuccess,
+                                         @NotNull final BiConsumer<T, Throwable> onFailure) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (items.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        final List<BlockingQueue<Object>> queues = new ArrayList<>(stages.size());
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            final Stage<T> stage = stages.get(i);
+            final BlockingQueue<Object> input = queues.get(i);
+            final Stage<T> next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            final BlockingQueue<Object> output = next == null ? null : queues.get(i + 1);
+            final AtomicInteger remainingWorkers = new AtomicInteger(stage.threads);
+            for (int j = 0; j < stage.threads; j++) {
+                if (!execute(future, String.format("%s-%s-%d", name, stage.name, j), () -> {
+                    try {
+                        if (stage.batchStep == null) {
+                            work(stage, input, output, onSuccess, onFailure);
+                        } else {
+                            workInBatches(stage, input, output, onSuccess, onFailure);
+                        }
+                    } catch (Throwable ex) {
+                        // Only the queues themselves can fail, items never stop a worker
+                        future.completeExceptionally(ex);
+                    } finally {
+                        // The last worker to finish tells the next stage that no more items will arrive
+                        if (remainingWorkers.decrementAndGet() == 0) {
+                            if (next == null) {
+                                future.complete(null);
+                            } else {
+                                end(output, next.threads);
+                            }
+                        }
+                    }
+                })) {
+                    return future;
+                }
+            }
+        }
+        final BlockingQueue<Object> first = queues.get(0);
+        execute(future, String.format("%s-feeder", name), () -> {
+            try {
+                for (T item : items) {
+                    first.put(item);
+                }
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                end(first, stages.get(0).threads);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run a worker on the executor, naming its thread after the worker while it runs.
+     *
+     * @return Returns false if the executor rejected the worker, in which case the future has failed
+     */
+    private boolean execute(@NotNull final CompletableFuture<Void> future,
+                            @NotNull final String worker,
+                            @NotNull final Runnable runnable) {
+        try {
+            executor.execute(() -> {
+                final Thread thread = Thread.currentThread();
+                final String previous = thread.getName();
+                thread.setName(worker);
+                try {
+                    runnable.run();
+                } finally {
+                    thread.setName(previous);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+            return false;
+        }
+    }
+
+    /**
+     * Tell every worker of a stage that no more items will arrive, even if the current thread is interrupted.
+     */
+    private static void end(@NotNull final BlockingQueue<Object> queue, final int workers) {
+        boolean interrupted = false;
+        for (int k = 0; k < workers; k++) {
+            while (true) {
+                try {
+                    queue.put(END);
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(@NotNull final Stage<T> stage,
+                      @NotNull final BlockingQueue<Object> input,
+                      final BlockingQueue<Object> output,
+                      @NotNull final Consumer<T> onSuccess,
+                      @NotNull final BiConsumer<T, Throwable> onFailure) throws InterruptedException {
+        while (true) {
+            final Object next = input.take();
+            if (next == END) {
+                return;
+            }
+            final T item = (T) next;
+            final boolean pass;
+            try {
+                if (stage.filter == null) {
+                    stage.step.accept(item);
+                    pass = true;
+                } else {
+                    pass = stage.filter.test(item);
+                }
+            } catch (Throwable ex) {
+                notify(() -> onFailure.accept(item, ex));
+                continue;
+            }
+            if (!pass || output == null) {
+                notify(() -> onSuccess.accept(item));
+            } else {
+                // Blocks while the next stage is full
+                output.put(item);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void workInBatches(@NotNull final Stage<T> stage,
+                               @NotNull final BlockingQueue<Object> input,
+                               final BlockingQueue<Object> output,
+                               @NotNull final Consumer<T> onSuccess,
+                               @NotNull final BiConsumer<T, Throwable> onFailure) throws InterruptedException {
+        final List<T> batch = new ArrayList<>();
+        long deadline = 0;
+        while (true) {
+            final Object next;
+            if (batch.isEmpty()) {
+                next = input.take();
+            } else {
+                // Wait no longer than the oldest item of the batch is allowed to
+                next = input.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            if (next == null || next == END) {
+                flush(stage, batch, output, onSuccess, onFailure);
+                if (next == END) {
+                    return;
+                }
+                continue;
+            }
+            final T item = (T) next;
+            final boolean full;
+            try {
+                full = stage.batchStep.add(item);
+            } catch (Throwable ex) {
+                notify(() -> onFailure.accept(item, ex));
+                continue;
+            }
+            if (batch.isEmpty()) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stage.maxDelay);
+            }
+            batch.add(item);
+            if (full) {
+                flush(stage, batch, output, onSuccess, onFailure);
+            }
+        }
+    }
+
+    private void flush(@NotNull final Stage<T> stage,
+                       @NotNull final List<T> batch,
+                       final BlockingQueue<Object> output,
+                       @NotNull final Consumer<T> onSuccess,
+                       @NotNull final BiConsumer<T, Throwable> onFailure) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            stage.batchStep.flush(batch);
+        } catch (Throwable ex) {
+            // The whole batch failed
+            for (T item : batch) {
+                notify(() -> onFailure.accept(item, ex));
+            }
+            batch.clear();
+            return;
+        }
+        for (T item : batch) {
+            if (output == null) {
+                notify(() -> onSuccess.accept(item));
+            } else {
+                output.put(item);
+            }
+        }
+        batch.clear();
+    }
+
+    /**
+     * Run a listener, making sure a faulty listener cannot stop a worker.
+     */
+    private static void notify(@NotNull final Runnable listener) {
+        try {
+            listener.run();
+        } catch (Throwable ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Represents the work done on an item by a single stage.
+     *
+     * @param <T> The type of item
+     */
+    @FunctionalInterface
+    interface Step<T> {
+
+        /**
+         * Process an item, updating its state for the next stage.
+         *
+         * @param item The item
+         * @throws Exception Thrown if the item could not be processed, in which case it is not passed on
+         */
+        void accept(@NotNull T item) throws Exception;
+    }
+
+    /**
+     * Represents a stage which decides whether an item needs the remaining stages.
+     *
+     * @param <T> The type of item
+     */
+    @FunctionalInterface
+    interface Filter<T> {
+
+        /**
+         * Process an item and decide whether it is passed on.
+         *
+         * @param item The item
+         * @return Returns true to pass the item on, false if the item is already complete
+         * @throws Exception Thrown if the item could not be processed, in which case it is not passed on
+         */
+        boolean test(@NotNull T item) throws Exception;
+    }
+
+    /**
+     * Represents the work done on items by a stage which processes them in batches.
+     *
+     * @param <T> The type of item
+     */
+    interface BatchStep<T> {
+
+        /**
+         * Add an item to the current batch.
+         *
+         * @param item The item
+         * @return Returns true if the batch should be flushed immediately
+         * @throws Exception Thrown if the item could not be added, in which case only this item fails
+         */
+        boolean add(@NotNull T item) throws Exception;
+
+        /**
+         * Complete the current batch. Items are only passed on once their batch has been flushed.
+         *
+         * @param batch Every item added since the last flush, in order
+         * @throws Exception Thrown if the batch could not be completed, in which case every item in it fails
+         */
+        void flush(@NotNull List<T> batch) throws Exception;
+    }
+
+    private static final class Stage<T> {
+
+        private final String name;
+        private final int threads;
+        private final Step<T> step;
+        private final Filter<T> filter;
+        private final BatchStep<T> batchStep;
+        private final long maxDelay;
+
+        private Stage(final String name,
+                      final int threads,
+                      final Step<T> step,
+                      final Filter<T> filter,
+                      final BatchStep<T> batchStep,
+                      final long maxDelay) {
+            this.name = name;
+            this.threads = threads;
+            this.step = step;
+            this.filter = filter;
+            this.batchStep = batchStep;
+            this.maxDelay = maxDelay;
+        }
+    }
+
+    static final class Builder<T> {
+
+        private final String name;
+        private final Executor executor;
+        private final int queueCapacity;
+        private final List<Stage<T>> stages = new ArrayList<>();
+
+        private Builder(@NotNull final String name, @NotNull final Executor executor, final int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException(String.format("Invalid queue capacity: %d!", queueCapacity));
+            }
+            this.name = name;
+            this.executor = executor;
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * Append a stage to the pipeline.
+         *
+         * @param name    The name of the stage, used to name its threads
+         * @param threads The number of workers of the stage, must be positive
+         * @param step    The work done on every item
+         * @return Returns this builder
+         */
+        @NotNull Builder<T> stage(@NotNull final String name, final int threads, @NotNull final Step<T> step) {
+            if (threads < 1) {
+                throw new IllegalArgumentException(String.format("Invalid thread count: %d!", threads));
+            }
+            stages.add(new Stage<>(name, threads, step, null, null, 0));
+            return this;
+        }
+
+        /**
+         * Append a stage which may complete items early, in which case they skip every later stage.
+         *
+         * @param name    The name of the stage, used to name its threads
+         * @param threads The number of workers of the stage, must be positive
+         * @param filter  The work done on every item
+         * @return Returns this builder
+         */
+        @NotNull Builder<T> filterStage(@NotNull final String name, final int threads, @NotNull final Filter<T> filter) {
+            if (threads < 1) {
+                throw new IllegalArgumentException(String.format("Invalid thread count: %d!", threads));
+            }
+            stages.add(new Stage<>(name, threads, null, filter, null, 0));
+            return this;
+        }
+
+        /**
+         * Append a stage which processes items in batches on a single thread.
+         *
+         * @param name     The name of the stage, used to name its thread
+         * @param maxDelay The maximum time in milliseconds an item waits for its batch to be flushed
+         * @param step     The work done on every batch
+         * @return Returns this builder
+         */
+        @NotNull Builder<T> batchStage(@NotNull final String name, final long maxDelay, @NotNull final BatchStep<T> step) {
+            if (maxDelay < 0) {
+                throw new IllegalArgumentException(String.format("Invalid delay: %d!", maxDelay));
+            }
+            stages.add(new Stage<>(name, 1, null, null, step, maxDelay));
+            return this;
+        }
+
+        @NotNull Pipeline<T> build() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("A pipeline needs at least one stage!");
+            }
+            return new Pipeline<>(name, executor, queueCapacity, new ArrayList<>(stages));
+        }
+    }
+}
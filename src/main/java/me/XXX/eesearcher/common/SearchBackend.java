@@ -0,0 +1,112 @@
+package me.XXX.eesearcher.common;
+
+import me.XXX.eesearcher.data.IndexData;
+import me.XXX.eesearcher.data.QueryCursor;
+import me.XXX.eesearcher.data.QueryParameters;
+import me.XXX.eesearcher.data.SearchPage;
+import me.XXX.eesearcher.data.SearchResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Represents the component which answers queries for essays. Essays and their text are always
+ * stored in the database; a backend only maintains whatever structures it needs to search them.
+ * The implementation is chosen by {@link me.XXX.eesearcher.SystemConfiguration#searchBackend()}.
+ * All methods of an implementation must be thread-safe.
+ */
+public interface SearchBackend extends Closeable {
+
+    /**
+     * Prepare this backend for queries. Any index which has to be rebuilt from the database may
+     * be rebuilt in the background, in which case queries must still return correct results.
+     *
+     * @throws IOException Thrown if this backend could not be opened
+     */
+    void open() throws IOException;
+
+    /**
+     * Add an essay to this backend, replacing any essay with the same unique id. Changes
+     * are visible to queries immediately but are only durable once {@link #commit()} is called.
+     *
+     * @param indexData The characteristics of the essay
+     * @param pages     The text of the essay, split by page
+     * @throws IOException Thrown if the essay could not be indexed
+     */
+    void index(@NotNull IndexData indexData, @NotNull List<@NotNull String> pages) throws IOException;
+
+    /**
+     * Remove an essay from this backend.
+     *
+     * @param indexData The characteristics of the essay
+     * @throws IOException Thrown if the essay could not be removed
+     */
+    void delete(@NotNull IndexData indexData) throws IOException;
+
+    /**
+     * Persist every change made since the last commit.
+     *
+     * @throws IOException Thrown if the changes could not be persisted
+     */
+    void commit() throws IOException;
+
+    /**
+     * Called once a batch of essays has been committed to the database and indexed by this backend.
+     * A backend whose commits are cheap commits here, so that a crash during a long import loses
+     * no more than the batch being written. By default, changes are only committed by {@link #commit()}.
+     *
+     * @throws IOException Thrown if the changes could not be persisted
+     */
+    default void commitBatch() throws IOException {
+    }
+
+    /**
+     * Perform a query for a single page of results on the current thread. Results are ordered by
+     * exam session and then by unique id, see {@link QueryCursor}.
+     *
+     * @param queryParameters The query parameters
+     * @param cursor          The cursor of the previous page, null for the first page
+     * @param pageSize        The maximum number of results, -1 for an unbounded query
+     * @param onBatch         A listener for every batch of results. Batches are never empty.
+     * @return Returns a never-null {@link SearchPage}
+     * @throws IOException Thrown if the query could not be performed
+     */
+    @NotNull SearchPage query(@NotNull QueryParameters queryParameters,
+                              @Nullable QueryCursor cursor,
+                              int pageSize,
+                              @NotNull Consumer<@NotNull List<@NotNull SearchResult>> onBatch) throws IOException;
+
+    /**
+     * Get statistics about this backend.
+     *
+     * @return Returns a new {@link Stats} instance
+     * @throws IOException Thrown if the statistics could not be gathered
+     */
+    @NotNull Stats stats() throws IOException;
+
+    /**
+     * Represents statistics about a {@link SearchBackend}. This class is immutable.
+     */
+    final class Stats {
+
+        public final long documentCount;
+        public final long sizeOnDisk;
+
+        public Stats(final long documentCount, final long sizeOnDisk) {
+            this.documentCount = documentCount;
+            this.sizeOnDisk = sizeOnDisk;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "documentCount=" + documentCount +
+                    ", sizeOnDisk=" + sizeOnDisk +
+                    '}';
+        }
+    }
+}
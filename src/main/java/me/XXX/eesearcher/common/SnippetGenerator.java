@@ -0,0 +1,315 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.data.DataUtil;
+import me.XXX.eesearcher.data.IndexData;
+import me.XXX.eesearcher.data.QueryParameters;
+import me.XXX.eesearcher.data.SearchResult;
+import me.XXX.eesearcher.data.Snippet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the component which computes the {@link Snippet}s of search results. The title and
+ * research question of an essay are always highlighted in full; for deep searches the best scoring
+ * passages of the stored page text are selected as well. Body text is matched the way deep searches
+ * match it, as a phrase of the terms of the query (see {@link FullTextIndex#search(String)}) rather
+ * than by the regular expression, so the passages shown are the ones the essay was found by. Every
+ * page is scanned exactly once and the number of passages held at any time is bounded, so the cost
+ * of an essay does not depend on how often the query matches it. All methods in this class are thread-safe.
+ */
+@Singleton
+public final class SnippetGenerator {
+
+    public static final int MAX_SNIPPETS = 3;
+    public static final int SNIPPET_LENGTH = 160;
+    public static final int MAX_HIGHLIGHTS = 16;
+
+    @Inject
+    private PatternCache patternCache;
+    @Inject
+    private DataUtil dataUtil;
+    @Inject
+    @Named("internal-pool")
+    private HikariPool connectionPool;
+
+    /**
+     * Compute the snippets of a batch of search results. Body text is only read for deep searches,
+     * in which case a single query is made for the whole batch.
+     *
+     * @param queryParameters The query which produced the results
+     * @param batch           The results to compute snippets for
+     * @return Returns a new list of results in the same order, or the batch itself if the query has no pattern
+     */
+    public @NotNull List<@NotNull SearchResult> highlight(@NotNull final QueryParameters queryParameters,
+                                                         @NotNull final List<@NotNull SearchResult> batch) {
+        final String regex = queryParameters.regex;
+        if (regex == null || regex.isEmpty() || batch.isEmpty()) {
+            return batch;
+        }
+        final Pattern pattern;
+        try {
+            pattern = patternCache.compile(regex, queryParameters.flags);
+        } catch (IllegalArgumentException ex) {
+            // Includes PatternSyntaxException, the backend has already reported the invalid pattern
+            return batch;
+        }
+        final Map<Integer, List<Snippet>> bodySnippets = queryParameters.deepSearch
+                ? findBodySnippets(FullTextIndex.tokenize(regex), batch) : Collections.emptyMap();
+        final Matcher matcher = pattern.matcher("");
+        final int[] highlights = new int[MAX_HIGHLIGHTS * 2];
+        final List<SearchResult> results = new ArrayList<>(batch.size());
+        for (SearchResult result : batch) {
+            final IndexData indexData = result.getIndexData();
+            final List<Snippet> snippets = new ArrayList<>(MAX_SNIPPETS + 2);
+            final Snippet title = highlightField(matcher, highlights, Snippet.Source.TITLE, indexData.getTitle());
+            if (title != null) {
+                snippets.add(title);
+            }
+            final Snippet researchQuestion = highlightField(matcher, highlights, Snippet.Source.RESEARCH_QUESTION, indexData.getResearchQuestion());
+            if (researchQuestion != null) {
+                snippets.add(researchQuestion);
+            }
+            snippets.addAll(bodySnippets.getOrDefault(indexData.getUniqueID(), Collections.emptyList()));
+            results.add(new SearchResult(indexData, snippets));
+        }
+        return results;
+    }
+
+    /**
+     * Highlight every match of a short field, such as the title, without truncating it.
+     *
+     * @return Returns a new {@link Snippet}, or null if the field does not match
+     */
+    private static @Nullable Snippet highlightField(@NotNull final Matcher matcher,
+                                                    final int[] highlights,
+                                                    @NotNull final Snippet.Source source,
+                                                    @NotNull final String text) {
+        matcher.reset(text);
+        int count = 0;
+        while (count < MAX_HIGHLIGHTS && matcher.find()) {
+            if (matcher.start() == matcher.end()) {
+                continue;
+            }
+            highlights[count * 2] = matcher.start();
+            highlights[count * 2 + 1] = matcher.end();
+            count++;
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new Snippet(source, -1, normalise(text, 0, text.length()), false, false, Arrays.copyOf(highlights, count * 2));
+    }
+
+    private @NotNull Map<Integer, List<Snippet>> findBodySnippets(@NotNull final List<String> phrase,
+                                                                  @NotNull final List<SearchResult> batch) {
+        if (phrase.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final List<IndexData> essays = batch.stream().map(SearchResult::getIndexData).collect(Collectors.toList());
+        final Map<Integer, List<Snippet>> snippets = new HashMap<>();
+        final PassageCollector collector = new PassageCollector(phrase);
+        int currentEssay = 0;
+        try (Connection connection = connectionPool.getConnection();
+             PreparedStatement query = dataUtil.newPageTextSearch(connection, essays);
+             ResultSet resultSet = query.executeQuery()) {
+            // Rows are ordered by essay, so each essay is finished as soon as the next one starts
+            while (resultSet.next()) {
+                final int essay = resultSet.getInt(DataUtil.COLUMN_ESSAY);
+                if (essay != currentEssay && !collector.isEmpty()) {
+                    snippets.put(currentEssay, collector.finish());
+                }
+                currentEssay = essay;
+                collector.scan(resultSet.getInt(DataUtil.COLUMN_PAGE), dataUtil.extractPageText(resultSet));
+            }
+            if (!collector.isEmpty()) {
+                snippets.put(currentEssay, collector.finish());
+            }
+        } catch (SQLException | IOException ex) {
+            // Results are still usable without body snippets
+            ex.printStackTrace();
+        }
+        return snippets;
+    }
+
+    /**
+     * Replace every whitespace character with a space so passages render on a single line. The
+     * length of the text is preserved so highlight offsets remain valid.
+     */
+    private static @NotNull String normalise(@NotNull final String text, final int start, final int end) {
+        final char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            final char c = text.charAt(i);
+            chars[i - start] = Character.isWhitespace(c) ? ' ' : c;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Represents a run of matches which fit within {@link #SNIPPET_LENGTH} characters.
+     * Instances are recycled by {@link PassageCollector}.
+     */
+    private static final class Passage {
+
+        private final int[] highlights = new int[MAX_HIGHLIGHTS * 2];
+        private String text;
+        private int page;
+        private int start;
+        private int end;
+        private int matches;
+        private int highlightCount;
+
+        private void reset(final String text, final int page, final int start) {
+            this.text = text;
+            this.page = page;
+            this.start = start;
+            this.end = start;
+            this.matches = 0;
+            this.highlightCount = 0;
+        }
+
+        private void add(final int matchStart, final int matchEnd) {
+            matches++;
+            end = Math.max(end, matchEnd);
+            if (highlightCount < MAX_HIGHLIGHTS) {
+                highlights[highlightCount * 2] = matchStart;
+                highlights[highlightCount * 2 + 1] = matchEnd;
+                highlightCount++;
+            }
+        }
+
+        private @NotNull Snippet toSnippet() {
+            final int length = text.length();
+            // Centre the passage within the window
+            final int windowLength = Math.max(SNIPPET_LENGTH, end - start);
+            final int slack = windowLength - (end - start);
+            int windowEnd = Math.min(length, Math.max(0, start - slack / 2) + windowLength);
+            int windowStart = Math.max(0, windowEnd - windowLength);
+            // Avoid cutting words in half where the passage allows it
+            if (windowStart > 0) {
+                for (int i = windowStart; i < start; i++) {
+                    if (Character.isWhitespace(text.charAt(i))) {
+                        windowStart = i + 1;
+                        break;
+                    }
+                }
+            }
+            if (windowEnd < length) {
+                for (int i = windowEnd - 1; i >= end; i--) {
+                    if (Character.isWhitespace(text.charAt(i))) {
+                        windowEnd = i;
+                        break;
+                    }
+                }
+            }
+            final int[] offsets = new int[highlightCount * 2];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = Math.min(Math.max(highlights[i], windowStart), windowEnd) - windowStart;
+            }
+            return new Snippet(Snippet.Source.BODY, page, normalise(text, windowStart, windowEnd),
+                    windowStart > 0, windowEnd < length, offsets);
+        }
+    }
+
+    /**
+     * Represents the selection of the best passages of a single essay. Passages are scored by
+     * their number of matches and the earliest passage wins a tie. At most
+     * {@code MAX_SNIPPETS + 1} passages exist regardless of the number of matches.
+     */
+    private static final class PassageCollector {
+
+        private static final Comparator<Passage> PASSAGE_ORDER = Comparator.<Passage>comparingInt(passage -> -passage.matches)
+                .thenComparingInt(passage -> passage.page)
+                .thenComparingInt(passage -> passage.start);
+
+        private final List<String> phrase;
+        private final Passage[] best = new Passage[MAX_SNIPPETS];
+        private int size;
+        private Passage current = new Passage();
+
+        private PassageCollector(@NotNull final List<String> phrase) {
+            this.phrase = phrase;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void scan(final int page, @NotNull final String text) {
+            boolean open = false;
+            for (int[] occurrence : FullTextIndex.findPhrase(text, phrase)) {
+                final int matchStart = occurrence[0];
+                final int matchEnd = occurrence[1];
+                if (open && matchEnd - current.start > SNIPPET_LENGTH) {
+                    offer();
+                    open = false;
+                }
+                if (!open) {
+                    current.reset(text, page, matchStart);
+                    open = true;
+                }
+                current.add(matchStart, matchEnd);
+            }
+            if (open) {
+                offer();
+            }
+        }
+
+        /**
+         * Offer the current passage to the selection, recycling whichever passage is dropped.
+         */
+        private void offer() {
+            if (size < best.length) {
+                best[size++] = current;
+                current = new Passage();
+                return;
+            }
+            int worst = 0;
+            for (int i = 1; i < size; i++) {
+                // Prefer evicting the later passage of equal score
+                if (best[i].matches <= best[worst].matches) {
+                    worst = i;
+                }
+            }
+            if (current.matches > best[worst].matches) {
+                final Passage evicted = best[worst];
+                best[worst] = current;
+                current = evicted;
+            }
+        }
+
+        /**
+         * Build the snippets of the selected passages, best first, and reset this collector.
+         */
+        private @NotNull List<Snippet> finish() {
+            final Passage[] selected = Arrays.copyOf(best, size);
+            Arrays.sort(selected, PASSAGE_ORDER);
+            final List<Snippet> snippets = new ArrayList<>(size);
+            for (Passage passage : selected) {
+                snippets.add(passage.toSnippet());
+                passage.text = null;
+            }
+            size = 0;
+            return snippets;
+        }
+    }
+}
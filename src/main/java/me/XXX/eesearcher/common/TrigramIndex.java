@@ -0,0 +1,695 @@
+package me.XXX.eesearcher.common;
+
+import com.google.inject.Singleton;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Represents an in-memory trigram index over the title and research question of essays, which is
+ * used to narrow down the essays a regular expression has to be evaluated against. A regular
+ * expression is decomposed into a boolean query of trigrams which any match must contain, so only
+ * essays containing those trigrams are candidates. All methods in this class are thread-safe.
+ * <p>
+ * The decomposition is conservative: whenever a construct cannot be reasoned about the query falls
+ * back to matching every essay, so candidates are always a superset of the real matches. Inline flag
+ * groups such as {@code (?x)} change how the rest of the expression is read, so they always fall back.
+ * Fields and literals are case folded by {@link #fold(char)}, one character at a time, so both sides
+ * are folded identically.
+ * </p>
+ */
+@Singleton
+public final class TrigramIndex {
+
+    /**
+     * Represents a query which matches every essay, no trigrams are required.
+     */
+    private static final Query ALL = new Query(Query.Type.ALL, Collections.emptyList(), null);
+
+    // Non-fair sync as we expect much more reads than writes
+    private final ReentrantReadWriteLock parentLock = new ReentrantReadWriteLock(false);
+    private final Map<String, Postings> postings = new HashMap<>();
+    // The trigrams of every essay, shared with the posting lists rather than copied
+    private final Map<Integer, String[]> documents = new HashMap<>();
+
+    private volatile boolean unsorted;
+    private volatile boolean complete;
+
+    /**
+     * Add the fields of an essay to this index. Any values previously indexed under the same
+     * id will be replaced.
+     *
+     * @param uniqueID The unique id of the essay
+     * @param fields   The fields of the essay, trigrams never span two fields
+     */
+    public void index(final int uniqueID, @NotNull final String... fields) {
+        final Set<String> trigrams = new HashSet<>();
+        for (String field : fields) {
+            addTrigrams(fold(field), trigrams);
+        }
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            unsafeRemove(uniqueID);
+            final String[] documentTrigrams = new String[trigrams.size()];
+            int i = 0;
+            for (String trigram : trigrams) {
+                final Postings postingList = postings.computeIfAbsent(trigram, Postings::new);
+                postingList.add(uniqueID);
+                documentTrigrams[i++] = postingList.trigram;
+            }
+            documents.put(uniqueID, documentTrigrams);
+            unsorted = true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove an essay from this index.
+     *
+     * @param uniqueID The unique id of the essay
+     */
+    public void remove(final int uniqueID) {
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            unsafeRemove(uniqueID);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void unsafeRemove(final int uniqueID) {
+        // Only the posting lists of the trigrams of the essay can contain it
+        final String[] trigrams = documents.remove(uniqueID);
+        if (trigrams == null) {
+            return;
+        }
+        for (String trigram : trigrams) {
+            final Postings postingList = postings.get(trigram);
+            if (postingList != null && postingList.remove(uniqueID) && postingList.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * Mark this index as containing every essay in the database. Until then the index cannot rule
+     * out any essay, so {@link #candidates(String)} treats every essay as a candidate.
+     */
+    public void markComplete() {
+        this.complete = true;
+    }
+
+    /**
+     * Get the number of essays in this index.
+     *
+     * @return Returns the number of indexed essays
+     */
+    public int size() {
+        final Lock readLock = parentLock.readLock();
+        try {
+            readLock.lock();
+            return documents.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Find the essays which could match a regular expression.
+     *
+     * @param regex The regular expression, using {@link java.util.regex.Pattern} syntax
+     * @return Returns an {@link Optional} populated by the sorted unique ids of every candidate,
+     * or empty if the expression requires no trigrams or the index is not complete, and therefore
+     * every essay is a candidate
+     */
+    public @NotNull Optional<int[]> candidates(@NotNull final String regex) {
+        final Query query = decompose(regex);
+        if (!complete || query.type == Query.Type.ALL) {
+            return Optional.empty();
+        }
+        final Lock readLock = parentLock.readLock();
+        while (true) {
+            sortPostings();
+            try {
+                readLock.lock();
+                // An essay may have been indexed since the postings were sorted
+                if (!unsorted) {
+                    return Optional.ofNullable(evaluate(query));
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sort posting lists which were appended to since the last query. Appending and sorting
+     * lazily keeps bulk indexing linear.
+     */
+    private void sortPostings() {
+        if (!unsorted) {
+            return;
+        }
+        final Lock writeLock = parentLock.writeLock();
+        try {
+            writeLock.lock();
+            for (Postings postingList : postings.values()) {
+                postingList.sort();
+            }
+            unsorted = false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private @Nullable int[] evaluate(final Query query) {
+        switch (query.type) {
+            case ALL:
+                return null;
+            case TRIGRAM: {
+                final Postings postingList = postings.get(query.trigram);
+                return postingList == null ? new int[0] : Arrays.copyOf(postingList.ids, postingList.size);
+            }
+            case AND: {
+                // Intersect the posting lists from the shortest up, without copying them, so the
+                // intermediate results stay as small as the rarest trigram
+                final List<Postings> postingLists = new ArrayList<>();
+                int[] result = null;
+                for (Query child : query.children) {
+                    if (child.type == Query.Type.TRIGRAM) {
+                        final Postings postingList = postings.get(child.trigram);
+                        if (postingList == null) {
+                            return new int[0];
+                        }
+                        postingLists.add(postingList);
+                        continue;
+                    }
+                    final int[] ids = evaluate(child);
+                    if (ids == null) {
+                        continue;
+                    }
+                    result = result == null ? ids : intersect(result, ids, ids.length);
+                    if (result.length == 0) {
+                        return result;
+                    }
+                }
+                postingLists.sort(Comparator.comparingInt(postingList -> postingList.size));
+                for (Postings postingList : postingLists) {
+                    result = result == null ? Arrays.copyOf(postingList.ids, postingList.size)
+                            : intersect(result, postingList.ids, postingList.size);
+                    if (result.length == 0) {
+                        break;
+                    }
+                }
+                return result;
+            }
+            case OR: {
+                int[] result = new int[0];
+                for (Query child : query.children) {
+                    final int[] ids = evaluate(child);
+                    if (ids == null) {
+                        return null;
+                    }
+                    result = union(result, ids);
+                }
+                return result;
+            }
+            default:
+                throw new IllegalStateException("Unknown query type: " + query.type);
+        }
+    }
+
+    private static int[] intersect(final int[] a, final int[] b, final int bSize) {
+        final int[] result = new int[Math.min(a.length, bSize)];
+        int i = 0, j = 0, size = 0;
+        if (a.length * 16 < bSize) {
+            // Searching is cheaper than merging when one side is much shorter
+            for (int id : a) {
+                j = Arrays.binarySearch(b, j, bSize, id);
+                if (j >= 0) {
+                    result[size++] = id;
+                } else {
+                    j = -j - 1;
+                }
+            }
+            return Arrays.copyOf(result, size);
+        }
+        while (i < a.length && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int[] union(final int[] a, final int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, size = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[size++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Fold the case of a character. Unlike {@link String#toLowerCase(Locale)}, this never changes the
+     * length of the text, so the trigrams of the fields and of the literals of a query always line up.
+     */
+    static char fold(final char c) {
+        return Character.toLowerCase(c);
+    }
+
+    static @NotNull String fold(@NotNull final CharSequence text) {
+        final char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(text.charAt(i));
+        }
+        return new String(folded);
+    }
+
+    private static void addTrigrams(final String s, final Collection<String> trigrams) {
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            trigrams.add(s.substring(i, i + 3));
+        }
+    }
+
+    /**
+     * Decompose a regular expression into a query of trigrams which every match must contain.
+     *
+     * @param regex The regular expression
+     * @return Returns the query, which may match every essay
+     */
+    static @NotNull Query decompose(@NotNull final String regex) {
+        try {
+            final RegexDecomposer decomposer = new RegexDecomposer(regex);
+            final Query query = decomposer.parseAlternation();
+            // Trailing characters mean the expression was not fully understood
+            return decomposer.position == regex.length() ? query : ALL;
+        } catch (RuntimeException ex) {
+            // Invalid or unsupported syntax, fall back to a full scan
+            return ALL;
+        }
+    }
+
+    /**
+     * Represents a boolean query over trigrams. This class is immutable.
+     */
+    static final class Query {
+
+        final Type type;
+        final List<Query> children;
+        final String trigram;
+
+        private Query(final Type type, final List<Query> children, final String trigram) {
+            this.type = type;
+            this.children = children;
+            this.trigram = trigram;
+        }
+
+        static Query and(final List<Query> queries) {
+            final List<Query> children = new ArrayList<>();
+            for (Query query : queries) {
+                if (query.type == Type.AND) {
+                    children.addAll(query.children);
+                } else if (query.type != Type.ALL) {
+                    children.add(query);
+                }
+            }
+            if (children.isEmpty()) {
+                return ALL;
+            }
+            return children.size() == 1 ? children.get(0) : new Query(Type.AND, children, null);
+        }
+
+        static Query or(final List<Query> queries) {
+            for (Query query : queries) {
+                if (query.type == Type.ALL) {
+                    return ALL;
+                }
+            }
+            return queries.size() == 1 ? queries.get(0) : new Query(Type.OR, new ArrayList<>(queries), null);
+        }
+
+        static Query literal(final CharSequence literal) {
+            final Set<String> trigrams = new LinkedHashSet<>();
+            addTrigrams(literal.toString(), trigrams);
+            final List<Query> children = new ArrayList<>(trigrams.size());
+            for (String trigram : trigrams) {
+                children.add(new Query(Type.TRIGRAM, Collections.emptyList(), trigram));
+            }
+            return and(children);
+        }
+
+        enum Type {
+            ALL, TRIGRAM, AND, OR
+        }
+    }
+
+    /**
+     * Recursive descent parser which extracts the literal runs of a regular expression.
+     * This class is NOT thread safe.
+     */
+    private static final class RegexDecomposer {
+
+        private final String regex;
+        private int position;
+
+        private RegexDecomposer(final String regex) {
+            this.regex = regex;
+        }
+
+        private boolean hasNext() {
+            return position < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(position);
+        }
+
+        Query parseAlternation() {
+            final List<Query> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+            while (hasNext() && peek() == '|') {
+                position++;
+                alternatives.add(parseSequence());
+            }
+            return Query.or(alternatives);
+        }
+
+        private Query parseSequence() {
+            final List<Query> required = new ArrayList<>();
+            final StringBuilder run = new StringBuilder();
+            while (hasNext() && peek() != '|' && peek() != ')') {
+                final int runLength = run.length();
+                final Query atom = parseAtom(run, required);
+                // Handle a quantifier applied to the atom
+                final int minimum = parseQuantifier();
+                if (minimum == 0) {
+                    // The atom is optional, so it can neither contribute to nor extend the run
+                    if (run.length() > runLength) {
+                        run.setLength(runLength);
+                    }
+                    flush(run, required);
+                    continue;
+                }
+                if (atom != null) {
+                    required.add(atom);
+                }
+                if (minimum > 0) {
+                    // The atom repeats, so the run cannot extend past it
+                    flush(run, required);
+                }
+            }
+            flush(run, required);
+            return Query.and(required);
+        }
+
+        private static void flush(final StringBuilder run, final List<Query> required) {
+            required.add(Query.literal(run));
+            run.setLength(0);
+        }
+
+        /**
+         * Parse a single atom. Literal characters are appended to the run, anything else ends it.
+         *
+         * @param run      The current run of literal characters
+         * @param required The queries required by the enclosing sequence
+         * @return Returns the query required by a group, or null
+         */
+        private Query parseAtom(final StringBuilder run, final List<Query> required) {
+            final char c = regex.charAt(position++);
+            switch (c) {
+                case '\\':
+                    parseEscape(run, required);
+                    return null;
+                case '[':
+                    flush(run, required);
+                    skipClass();
+                    return null;
+                case '(':
+                    flush(run, required);
+                    return parseGroup();
+                case '.':
+                case '^':
+                case '$':
+                    flush(run, required);
+                    return null;
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new IllegalArgumentException("Dangling quantifier");
+                default:
+                    run.append(fold(c));
+                    return null;
+            }
+        }
+
+        private void parseEscape(final StringBuilder run, final List<Query> required) {
+            final char c = regex.charAt(position++);
+            if (c == 'Q') {
+                final int end = regex.indexOf("\\E", position);
+                final String quoted = end == -1 ? regex.substring(position) : regex.substring(position, end);
+                position = end == -1 ? regex.length() : end + 2;
+                run.append(fold(quoted));
+                return;
+            }
+            if (!Character.isLetterOrDigit(c)) {
+                // Escaped punctuation is a literal
+                run.append(c);
+                return;
+            }
+            // Consume the argument of the escape, so it is not mistaken for literals
+            switch (c) {
+                case 'x':
+                    if (hasNext() && peek() == '{') {
+                        skipPast('}');
+                    } else {
+                        position += 2;
+                    }
+                    break;
+                case 'u':
+                    position += 4;
+                    break;
+                case 'c':
+                    position++;
+                    break;
+                case '0':
+                    // Up to three octal digits, the first of three digits being at most 3
+                    final int digits = hasNext() && peek() >= '0' && peek() <= '3' ? 3 : 2;
+                    for (int i = 0; i < digits && hasNext() && peek() >= '0' && peek() <= '7'; i++) {
+                        position++;
+                    }
+                    break;
+                case 'k':
+                    skipPast('>');
+                    break;
+                case 'p':
+                case 'P':
+                case 'N':
+                case 'b':
+                    // Unicode properties, named characters and boundary types
+                    if (hasNext() && peek() == '{') {
+                        skipPast('}');
+                    }
+                    break;
+                default:
+                    if (c >= '1' && c <= '9') {
+                        // A back reference takes as many digits as form a group number
+                        while (hasNext() && Character.isDigit(peek())) {
+                            position++;
+                        }
+                    }
+                    break;
+            }
+            if (position > regex.length()) {
+                throw new IllegalArgumentException("Incomplete escape");
+            }
+            // Escaped characters, classes, anchors and back references all end the run
+            flush(run, required);
+        }
+
+        private void skipPast(final char c) {
+            position = regex.indexOf(c, position) + 1;
+            if (position == 0) {
+                throw new IllegalArgumentException("Unclosed escape");
+            }
+        }
+
+        private void skipClass() {
+            int depth = 1;
+            if (hasNext() && peek() == '^') {
+                position++;
+            }
+            // A leading ] is a literal
+            if (hasNext() && peek() == ']') {
+                position++;
+            }
+            while (depth > 0) {
+                final char c = regex.charAt(position++);
+                if (c == '\\') {
+                    position++;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                }
+            }
+        }
+
+        private Query parseGroup() {
+            if (hasNext() && peek() == '?') {
+                position++;
+                final char c = regex.charAt(position);
+                if (c == ':') {
+                    position++;
+                } else if (c == '<' && Character.isLetter(regex.charAt(position + 1))) {
+                    // Named group
+                    position = regex.indexOf('>', position) + 1;
+                    if (position == 0) {
+                        throw new IllegalArgumentException("Unclosed group name");
+                    }
+                } else if (c == '=' || c == '!' || c == '>' || c == '<') {
+                    // Lookarounds and atomic groups require nothing
+                    skipGroup();
+                    return null;
+                } else {
+                    // Inline flags, for example comments mode, change how the rest of the expression is read
+                    throw new IllegalArgumentException("Inline flags");
+                }
+            }
+            final Query query = parseAlternation();
+            if (!hasNext() || peek() != ')') {
+                throw new IllegalArgumentException("Unclosed group");
+            }
+            position++;
+            return query;
+        }
+
+        private void skipGroup() {
+            int depth = 1;
+            while (depth > 0) {
+                final char c = regex.charAt(position++);
+                if (c == '\\') {
+                    position++;
+                } else if (c == '[') {
+                    skipClass();
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+            }
+        }
+
+        /**
+         * Parse an optional quantifier.
+         *
+         * @return Returns -1 if there is no quantifier, otherwise the minimum number of repetitions
+         */
+        private int parseQuantifier() {
+            if (!hasNext()) {
+                return -1;
+            }
+            final int minimum;
+            switch (peek()) {
+                case '*':
+                case '?':
+                    minimum = 0;
+                    position++;
+                    break;
+                case '+':
+                    minimum = 1;
+                    position++;
+                    break;
+                case '{': {
+                    final int end = regex.indexOf('}', position);
+                    final String[] bounds = regex.substring(position + 1, end).split(",", -1);
+                    minimum = Integer.parseInt(bounds[0].trim());
+                    position = end + 1;
+                    break;
+                }
+                default:
+                    return -1;
+            }
+            // Lazy and possessive modifiers
+            if (hasNext() && (peek() == '?' || peek() == '+')) {
+                position++;
+            }
+            return minimum;
+        }
+    }
+
+    /**
+     * Represents a growable list of unique ids which is sorted lazily.
+     * This class is NOT thread safe.
+     */
+    private static final class Postings {
+
+        private final String trigram;
+        private int[] ids = new int[4];
+        private int size;
+        private boolean sorted = true;
+
+        Postings(final String trigram) {
+            this.trigram = trigram;
+        }
+
+        void add(final int uniqueID) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            if (size != 0 && ids[size - 1] >= uniqueID) {
+                sorted = false;
+            }
+            ids[size++] = uniqueID;
+        }
+
+        boolean remove(final int uniqueID) {
+            final int index = sorted ? Arrays.binarySearch(ids, 0, size, uniqueID) : indexOf(uniqueID);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        private int indexOf(final int uniqueID) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == uniqueID) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            Arrays.sort(ids, 0, size);
+            sorted = true;
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package me.XXX.eesearcher.common;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Scanner;
 import java.util.StringJoiner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class Utils {
 
@@ -38,4 +43,54 @@ public class Utils {
         return joiner.toString();
     }
 
+    /**
+     * Compress a string using the DEFLATE algorithm.
+     *
+     * @param s The string to compress
+     * @return Returns the UTF-8 bytes of the string, compressed
+     */
+    public static byte[] compress(final String s) {
+        final Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(s.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(s.length() / 2 + 16);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                bos.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress a string which was compressed by {@link #compress(String)}.
+     *
+     * @param compressed The compressed bytes
+     * @return Returns the original string
+     * @throws IOException Thrown if the bytes are not valid compressed data
+     */
+    public static String decompress(final byte[] compressed) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(compressed.length * 3);
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                final int read = inflater.inflate(buffer);
+                if (read == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated compressed data!");
+                }
+                bos.write(buffer, 0, read);
+            }
+            return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
 }
@@ -3,24 +3,30 @@ package me.XXX.eesearcher.data;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
 import me.XXX.eesearcher.common.ExamSession;
-import me.XXX.eesearcher.common.Parser;
-import org.apache.pdfbox.io.RandomAccessBuffer;
-import org.apache.pdfbox.pdfparser.PDFParser;
+import me.XXX.eesearcher.common.Utils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.h2.Driver;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.StringJoiner;
-import java.util.function.Function;
 
 /**
  * Utility class which is used to setup the backend database.
@@ -41,16 +47,48 @@ public class DataUtil {
     public static final String COLUMN_RESEARCH_QUESTION = "research_question";
     // %7
     public static final String COLUMN_PDF = "pdf";
+    // %8
+    public static final String COLUMN_CONTENT_HASH = "content_hash";
+    // Not a column, the length of the PDF selected by newPDFSearch
+    private static final String COLUMN_PDF_LENGTH = "pdf_length";
+    // %9
+    public static final String COLUMN_SOURCE_PATH = "source_path";
+
+    // %1
+    public static final String TEXT_TABLE_NAME = "EEText";
+    // %2
+    public static final String COLUMN_ESSAY = "essay_hashcode";
+    // %3
+    public static final String COLUMN_PAGE = "page_number";
+    // %4
+    public static final String COLUMN_TEXT = "page_text";
+
+    // More deep matches than this are bound as one array parameter instead of being listed in the SQL,
+    // the same limit the search backend puts on the trigram candidates it lists
+    private static final int MAX_LISTED_DEEP_MATCHES = 2048;
 
     @Inject
     @Named("internal-pool")
     private HikariPool pool;
     @Inject
-    private Parser parser;
-    @Inject
     private SubjectDatabase subjectDatabase;
+    @Inject
+    private SystemConfiguration configuration;
 
     private static String generateSqlConstraints(@NotNull QueryParameters parameters, int maxQueries) {
+        return generateSqlConstraints(parameters, null, Collections.emptySet(), null, maxQueries);
+    }
+
+    /**
+     * Generate the WHERE, ORDER BY and LIMIT clauses of a query. Whenever a limit is given,
+     * rows are ordered by exam session and then by unique id so that pages are stable. The
+     * returned SQL has already been formatted.
+     */
+    private static String generateSqlConstraints(@NotNull QueryParameters parameters,
+                                                 @Nullable int[] candidates,
+                                                 @NotNull Collection<Integer> deepMatches,
+                                                 @Nullable QueryCursor cursor,
+                                                 int maxQueries) {
 
         final String pattern = parameters.regex;
         final char[] flags = parameters.flags;
@@ -79,30 +117,56 @@ public class DataUtil {
         final String limit;
 
         if (maxQueries != -1) {
-            limit = String.format("LIMIT(%d) ", maxQueries);
+            // Order by the keyset so the index on exam_year, hashcode can be used
+            limit = String.format(" ORDER BY %%5$s, %%2$s LIMIT %d", maxQueries);
         } else {
             limit = "";
 
         }
 
-        final StringBuilder base = new StringBuilder(" WHERE ");
+        final StringBuilder base = new StringBuilder();
         final StringJoiner constraint = new StringJoiner(" AND ");
 
-        if (!pattern.isEmpty()) {
+        if (pattern != null && !pattern.isEmpty()) {
+            // Quote the pattern as an SQL literal, escaping it for String#format as well
+            final String literal = "'" + pattern.replace("'", "''").replace("%", "%%") + "'";
+            final StringJoiner regexConstraint = new StringJoiner(" OR ", "(", ")");
+            regexConstraint.add("REGEXP_LIKE(%3$s, " + literal + ", " + appendedFlags + ")");
+            regexConstraint.add("REGEXP_LIKE(%6$s, " + literal + ", " + appendedFlags + ")");
             final StringJoiner orConstraint = new StringJoiner(" OR ");
-            orConstraint.add("REGEXP_LIKE(%3$s, " + pattern + ", " + appendedFlags + ")");
-            orConstraint.add("REGEXP_LIKE(%6$s, " + pattern + ", " + appendedFlags + ")");
-            constraint.add("( " + orConstraint.toString() + " )");
+            if (candidates == null) {
+                orConstraint.add(regexConstraint.toString());
+            } else if (candidates.length != 0) {
+                // Only essays found by the trigram index need to be checked against the pattern
+                final StringJoiner ids = new StringJoiner(", ", "(%2$s IN (", ")");
+                for (int id : candidates) {
+                    ids.add(String.valueOf(id));
+                }
+                orConstraint.add(ids.toString() + " AND " + regexConstraint.toString() + ")");
+            }
+            if (deepMatches.size() > MAX_LISTED_DEEP_MATCHES) {
+                // Bound by newSearch, so the SQL stays the same size however many essays matched
+                orConstraint.add("%2$s IN (SELECT X FROM TABLE(X INT = ?))");
+            } else if (!deepMatches.isEmpty()) {
+                // Essays whose body text matched in the full text index
+                final StringJoiner ids = new StringJoiner(", ", "%2$s IN (", ")");
+                for (Integer id : deepMatches) {
+                    ids.add(String.valueOf(id));
+                }
+                orConstraint.add(ids.toString());
+            }
+            // No candidates and no deep matches means nothing can match
+            constraint.add(orConstraint.length() == 0 ? "FALSE" : "( " + orConstraint.toString() + " )");
         }
         if (rawSubjects.length != 0) {
             final StringJoiner joiner = new StringJoiner(" OR ");
             for (String s : rawSubjects) {
-                joiner.add(" %4$s LIKE " + s);
+                joiner.add(" LOWER(%4$s) LIKE '" + s.replace("'", "''") + "'");
             }
             constraint.add("(" + joiner.toString() + ")");
         }
         if (sessionConstraint != null) {
-            final String s = "WHERE %1$s %2$s %3$d ";
+            final String s = "%1$s %2$s %3$d ";
             final String comparator;
             switch (sessionConstraint.type) {
                 case ONLY:
@@ -120,18 +184,38 @@ public class DataUtil {
             final String localConstraint = String.format(s, COLUMN_EXAM_YEAR, comparator, sessionConstraint.examSession.epochMilli);
             constraint.add(localConstraint);
         }
+        if (cursor != null) {
+            // Keyset pagination, only rows after the cursor
+            constraint.add(String.format("(%%5$s > %1$d OR (%%5$s = %1$d AND %%2$s > %2$d))", cursor.examSession, cursor.uniqueID));
+        }
+        if (constraint.length() != 0) {
+            base.append(" WHERE ").append(constraint.toString());
+        }
 
-        final String rawSql = base.append(constraint.toString()).append(limit).toString();
+        final String rawSql = base.append(limit).toString();
         return String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION, COLUMN_PDF);
     }
 
     public void initDatabase() throws SQLException {
         Driver.load();
-        try (Connection connection = pool.getConnection(); PreparedStatement init = initStatement(connection)) {
+        try (Connection connection = pool.getConnection(); PreparedStatement init = initStatement(connection);
+             PreparedStatement initText = initTextStatement(connection)) {
             init.execute();
+            initText.execute();
         }
     }
 
+    private @NotNull PreparedStatement initTextStatement(@NotNull final Connection connection) throws SQLException {
+        // Page text is stored compressed, see Utils#compress
+        final String initTable = "CREATE TABLE IF NOT EXISTS %1$s (" +
+                "%2$s INT NOT NULL, " +
+                "%3$s INT NOT NULL, " +
+                "%4$s BINARY NOT NULL, " +
+                "PRIMARY KEY(%2$s, %3$s)); ";
+        final String sql = String.format(initTable, TEXT_TABLE_NAME, COLUMN_ESSAY, COLUMN_PAGE, COLUMN_TEXT);
+        return connection.prepareStatement(sql);
+    }
+
     private @NotNull PreparedStatement initStatement(@NotNull final Connection connection) throws SQLException {
         final String initTable = "CREATE TABLE IF NOT EXISTS %1$s (" +
                 "%2$s INT NOT NULL, " +
@@ -140,8 +224,15 @@ public class DataUtil {
                 "%5$s BIGINT NOT NULL, " +
                 "%6$s VARCHAR NOT NULL, " +
                 "%7$s BINARY NOT NULL, " +
+                "%8$s BINARY(32), " +
+                "%9$s VARCHAR, " +
                 "UNIQUE(%3$s, %4$s, %5$s, %6$s)," +
                 "PRIMARY KEY(%2$s)); ";
+        // Databases created before content hashes were stored
+        final String addContentHash = "ALTER TABLE %1$s ADD COLUMN IF NOT EXISTS %8$s BINARY(32); ";
+        final String addSourcePath = "ALTER TABLE %1$s ADD COLUMN IF NOT EXISTS %9$s VARCHAR; ";
+        final String initContentHashIndex = "CREATE INDEX IF NOT EXISTS %8$s_index ON %1$s (%8$s); ";
+        final String initSourcePathIndex = "CREATE INDEX IF NOT EXISTS %9$s_index ON %1$s (%9$s); ";
         final String initUUIDIndex = "CREATE INDEX IF NOT EXISTS %2$s_index ON %1$s " +
                 "(%2$s, %3$s, %4$s, %5$s, %6$s); ";
         final String initExamYearIndex = "CREATE INDEX IF NOT EXISTS %3$s_index ON %1$s " +
@@ -153,42 +244,227 @@ public class DataUtil {
         final String initSubjectIndex = "CREATE INDEX IF NOT EXISTS %6$s_index ON %1$s " +
                 "(%6$s, %2$s, %3$s, %4$s, %5$s); ";
 
-        final String sql = String.format(initTable + initUUIDIndex + initExamYearIndex + initTitleIndex + initResearchQuestionIndex + initSubjectIndex,
-                TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION, COLUMN_PDF);
+        final String sql = String.format(initTable + addContentHash + addSourcePath + initUUIDIndex + initExamYearIndex + initTitleIndex
+                        + initResearchQuestionIndex + initSubjectIndex + initContentHashIndex + initSourcePathIndex,
+                TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION, COLUMN_PDF,
+                COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH);
         return connection.prepareStatement(sql);
     }
 
-    public @NotNull Essay extractEssay(@NotNull ResultSet resultSet, @NotNull Function<IndexData, Optional<Essay>> cacheResolver) throws SQLException, IOException {
-        final String rawSubject = resultSet.getString(COLUMN_SUBJECT);
-        final Optional<Subject> optionalSubject = subjectDatabase.getSubjectByName(rawSubject);
-        final byte[] rawPDF = resultSet.getBytes(COLUMN_PDF);
-        // Just parse parse / register the subject using the parser as the indices are clearly invalid.
-        if (optionalSubject.isEmpty()) {
-            final PDFParser pdfParser = new PDFParser(new RandomAccessBuffer(rawPDF));
-            pdfParser.parse();
-            return parser.parseDocument(pdfParser);
+    /**
+     * Extract the characteristics of an essay from the current row of a result set. Only the
+     * metadata columns are read, see {@link #newSearch(Connection, QueryParameters, int)}.
+     *
+     * @param resultSet A result set obtained from a search
+     * @return Returns the {@link IndexData} of the essay
+     * @throws SQLException Thrown if the row could not be read
+     */
+    public @NotNull IndexData extractIndexData(@NotNull ResultSet resultSet) throws SQLException {
+        return toIndexData(resultSet.getString(COLUMN_TITLE),
+                resultSet.getString(COLUMN_SUBJECT),
+                resultSet.getString(COLUMN_RESEARCH_QUESTION),
+                resultSet.getLong(COLUMN_EXAM_YEAR));
+    }
+
+    /**
+     * Obtain the characteristics of an essay from their stored representation.
+     *
+     * @param title            The title of the essay
+     * @param rawSubject       The display name of the subject of the essay
+     * @param researchQuestion The research question of the essay
+     * @param examSession      The epoch milli of the exam session of the essay
+     * @return Returns the {@link IndexData} of the essay
+     */
+    public @NotNull IndexData toIndexData(@NotNull final String title,
+                                          @NotNull final String rawSubject,
+                                          @NotNull final String researchQuestion,
+                                          final long examSession) {
+        // Languages are registered on demand by the parser, so they may not be known after a restart
+        final Subject subject = subjectDatabase.getSubjectByName(rawSubject).orElseGet(() -> {
+            final Subject newSubject = new Subject((byte) 1, rawSubject, true);
+            subjectDatabase.registerSubject(newSubject);
+            return newSubject;
+        });
+        return IndexData.from(title, subject, researchQuestion, ExamSession.of(examSession));
+    }
+
+    /**
+     * Extract the position of the current row of a result set obtained from a search.
+     *
+     * @param resultSet A result set obtained from a search
+     * @return Returns a {@link QueryCursor} pointing at the current row
+     * @throws SQLException Thrown if the row could not be read
+     */
+    public @NotNull QueryCursor extractCursor(@NotNull ResultSet resultSet) throws SQLException {
+        return new QueryCursor(resultSet.getLong(COLUMN_EXAM_YEAR), resultSet.getInt(COLUMN_UUID));
+    }
+
+    /**
+     * Check whether the PDF of the current row of a result set obtained from
+     * {@link #newPDFSearch(Connection, IndexData)} is kept in the blob store rather than the database.
+     *
+     * @param resultSet A result set obtained from a PDF search
+     * @return Returns true if the PDF has to be loaded from the blob store
+     * @throws SQLException Thrown if the row could not be read
+     * @see #extractContentHash(ResultSet)
+     */
+    public boolean isStoredExternally(@NotNull ResultSet resultSet) throws SQLException {
+        return resultSet.getLong(COLUMN_PDF_LENGTH) == 0 && resultSet.getBytes(COLUMN_CONTENT_HASH) != null;
+    }
+
+    /**
+     * Extract the content hash of the current row of a result set.
+     *
+     * @param resultSet A result set which selects the content hash
+     * @return Returns the SHA-256 hash of the PDF, or null if the essay has none
+     * @throws SQLException Thrown if the row could not be read
+     */
+    public @Nullable byte[] extractContentHash(@NotNull ResultSet resultSet) throws SQLException {
+        return resultSet.getBytes(COLUMN_CONTENT_HASH);
+    }
+
+    /**
+     * Extract an essay from the current row of a result set obtained from
+     * {@link #newPDFSearch(Connection, IndexData)}. The PDF is streamed from the database.
+     *
+     * @param resultSet A result set obtained from a PDF search
+     * @param indexData The characteristics of the essay
+     * @return Returns a new {@link Essay} instance
+     * @throws SQLException Thrown if the row could not be read
+     * @throws IOException  Thrown if the PDF could not be parsed
+     */
+    public @NotNull Essay extractEssay(@NotNull ResultSet resultSet, @NotNull IndexData indexData) throws SQLException, IOException {
+        try (InputStream inputStream = resultSet.getBinaryStream(COLUMN_PDF)) {
+            return new Essay(indexData, inputStream, configuration.pdfMemoryUsage());
         }
-        final Subject subject = optionalSubject.get();
-        final String title = resultSet.getString(COLUMN_TITLE);
-        final String researchQuestion = resultSet.getString(COLUMN_RESEARCH_QUESTION);
-        final long examSession = resultSet.getLong(COLUMN_EXAM_YEAR);
-        final ExamSession session = ExamSession.of(examSession);
-        final IndexData indexData = IndexData.from(title, subject, researchQuestion, session);
-        final Optional<Essay> optionalEssay = cacheResolver.apply(indexData);
-        return optionalEssay.orElseGet(() -> new Essay(indexData, rawPDF));
+    }
+
+    /**
+     * Create a query for the PDF of a single essay.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essay to look up
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractEssay(ResultSet, IndexData)
+     */
+    public @NotNull PreparedStatement newPDFSearch(@NotNull final Connection connection, @NotNull final IndexData data) throws SQLException {
+        final String rawSql = "SELECT %7$s, %8$s, OCTET_LENGTH(%7$s) AS %9$s FROM %1$s WHERE %2$s=?;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_PDF_LENGTH);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setInt(1, data.getUniqueID());
+        return preparedStatement;
     }
 
     public @NotNull PreparedStatement newSearch(@NotNull Connection connection, @NotNull QueryParameters parameters, int maxQueries) throws SQLException {
-        final String constraint = generateSqlConstraints(parameters, maxQueries);
-        final String raw = "SELECT %3$s, %4$s, %5$s, %6$s, %7$s from %1$s" + constraint + ";";
+        return newSearch(connection, parameters, Collections.emptySet(), maxQueries);
+    }
+
+    /**
+     * Create a new search which also matches a given set of essays, regardless of whether their
+     * title or research question matches the query.
+     *
+     * @param connection  The connection to prepare the statement on
+     * @param parameters  The query parameters
+     * @param deepMatches The unique ids of essays whose body text matched the query
+     * @param maxQueries  The maximum number of rows to return, -1 for no limit
+     * @return Returns a new {@link PreparedStatement} representing the search
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newSearch(@NotNull Connection connection,
+                                                @NotNull QueryParameters parameters,
+                                                @NotNull Collection<Integer> deepMatches,
+                                                int maxQueries) throws SQLException {
+        return newSearch(connection, parameters, deepMatches, null, maxQueries);
+    }
+
+    /**
+     * Create a new search for a single page of results. Rows are ordered by exam session and
+     * then by unique id, see {@link #extractCursor(ResultSet)}.
+     *
+     * @param connection  The connection to prepare the statement on
+     * @param parameters  The query parameters
+     * @param deepMatches The unique ids of essays whose body text matched the query
+     * @param cursor      The cursor of the last row of the previous page, null for the first page
+     * @param maxQueries  The maximum number of rows to return, -1 for no limit
+     * @return Returns a new {@link PreparedStatement} representing the search
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newSearch(@NotNull Connection connection,
+                                                @NotNull QueryParameters parameters,
+                                                @NotNull Collection<Integer> deepMatches,
+                                                @Nullable QueryCursor cursor,
+                                                int maxQueries) throws SQLException {
+        return newSearch(connection, parameters, null, deepMatches, cursor, maxQueries);
+    }
+
+    /**
+     * Create a new search for a single page of results, where only a given set of candidates
+     * is checked against the regular expression of the query.
+     *
+     * @param connection  The connection to prepare the statement on
+     * @param parameters  The query parameters
+     * @param candidates  The sorted unique ids of essays which could match the regular expression,
+     *                    null if every essay is a candidate
+     * @param deepMatches The unique ids of essays whose body text matched the query
+     * @param cursor      The cursor of the last row of the previous page, null for the first page
+     * @param maxQueries  The maximum number of rows to return, -1 for no limit
+     * @return Returns a new {@link PreparedStatement} representing the search
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see me.XXX.eesearcher.common.TrigramIndex#candidates(String)
+     */
+    public @NotNull PreparedStatement newSearch(@NotNull Connection connection,
+                                                @NotNull QueryParameters parameters,
+                                                @Nullable int[] candidates,
+                                                @NotNull Collection<Integer> deepMatches,
+                                                @Nullable QueryCursor cursor,
+                                                int maxQueries) throws SQLException {
+        final String constraint = generateSqlConstraints(parameters, candidates, deepMatches, cursor, maxQueries);
+        // Only select metadata, the PDF is loaded on demand through newPDFSearch
+        final String raw = "SELECT %2$s, %3$s, %4$s, %5$s, %6$s from %1$s";
         final String sql = String.format(raw, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION, COLUMN_PDF);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql + constraint + ";");
+        if (parameters.regex != null && !parameters.regex.isEmpty() && deepMatches.size() > MAX_LISTED_DEEP_MATCHES) {
+            preparedStatement.setObject(1, deepMatches.toArray());
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the metadata of every essay.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractIndexData(ResultSet)
+     */
+    public @NotNull PreparedStatement newMetadataScan(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "SELECT %2$s, %3$s, %4$s, %5$s, %6$s FROM %1$s;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION);
         return connection.prepareStatement(sql);
     }
 
     public @NotNull PreparedStatement newEntry(@NotNull final Connection connection,
                                                @NotNull final Essay essay,
                                                final boolean includePDFData) throws SQLException {
-        final IndexData data = essay.getIndexData();
+        final PreparedStatement preparedStatement = newEntryStatement(connection, includePDFData);
+        bindEntry(preparedStatement, essay, includePDFData);
+        return preparedStatement;
+    }
+
+    /**
+     * Prepare a statement which merges essays into the database without binding any essay, so it
+     * can be reused for a batch.
+     *
+     * @param connection     The connection to prepare the statement on
+     * @param includePDFData Whether the PDF of each essay is stored as well
+     * @return Returns a new {@link PreparedStatement}
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #addEntry(PreparedStatement, Essay, boolean)
+     */
+    public @NotNull PreparedStatement newEntryStatement(@NotNull final Connection connection,
+                                                        final boolean includePDFData) throws SQLException {
         final String sql;
         if (!includePDFData) {
             String s = "MERGE INTO %1$s (%2$s, %3$s, %4$s, %5$s, %6$s) VALUES(?, ?, ?, ?, ?);";
@@ -197,26 +473,449 @@ public class DataUtil {
             String s = "MERGE INTO %1$s (%2$s, %3$s, %4$s, %5$s, %6$s, %7$s) VALUES(?, ?, ?, ?, ?, ?);";
             sql = String.format(s, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION, COLUMN_PDF);
         }
-        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Add an essay to the batch of a statement obtained from {@link #newEntryStatement(Connection, boolean)}.
+     * The PDF is serialised immediately, so the document of the essay may be closed afterwards.
+     *
+     * @param preparedStatement The statement to add the essay to
+     * @param essay             The essay
+     * @param includePDFData    Whether the statement was prepared to store the PDF
+     * @return Returns the size of the stored PDF in bytes, 0 if it is not stored
+     * @throws SQLException Thrown if the essay could not be bound
+     */
+    public long addEntry(@NotNull final PreparedStatement preparedStatement,
+                         @NotNull final Essay essay,
+                         final boolean includePDFData) throws SQLException {
+        final long size = bindEntry(preparedStatement, essay, includePDFData);
+        preparedStatement.addBatch();
+        return size;
+    }
+
+    /**
+     * Add an essay to the batch of a statement obtained from {@link #newEntryStatement(Connection, boolean)}
+     * with the PDF stored as the unmodified bytes of the file it was imported from. The file is streamed
+     * into the database, the document of the essay is never serialised.
+     *
+     * @param preparedStatement The statement to add the essay to, which must store the PDF
+     * @param essay             The essay
+     * @param source            The file the essay was parsed from
+     * @return Returns the size of the stored PDF in bytes
+     * @throws SQLException Thrown if the essay could not be bound
+     * @throws IOException  Thrown if the file could not be read
+     */
+    public long addEntry(@NotNull final PreparedStatement preparedStatement,
+                         @NotNull final Essay essay,
+                         @NotNull final File source) throws SQLException, IOException {
+        bindMetadata(preparedStatement, essay.getIndexData());
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             InputStream inputStream = Channels.newInputStream(channel)) {
+            final long size = channel.size();
+            // The stream is consumed when it is bound, so it can be closed before the batch is executed
+            preparedStatement.setBinaryStream(6, inputStream, size);
+            preparedStatement.addBatch();
+            return size;
+        }
+    }
+
+    /**
+     * Add an essay to the batch of a statement obtained from {@link #newEntryStatement(Connection, boolean)}
+     * whose PDF is kept in the blob store. The pdf column is left empty, the essay is found in the
+     * blob store by the content hash stored through {@link #addSource(PreparedStatement, IndexData, byte[], File)}.
+     *
+     * @param preparedStatement The statement to add the essay to, which must store the PDF
+     * @param essay             The essay
+     * @throws SQLException Thrown if the essay could not be bound
+     */
+    public void addExternalEntry(@NotNull final PreparedStatement preparedStatement,
+                                 @NotNull final Essay essay) throws SQLException {
+        bindMetadata(preparedStatement, essay.getIndexData());
+        preparedStatement.setBytes(6, new byte[0]);
+        preparedStatement.addBatch();
+    }
+
+    private void bindMetadata(@NotNull final PreparedStatement preparedStatement,
+                              @NotNull final IndexData data) throws SQLException {
         preparedStatement.setInt(1, data.getUniqueID());
         preparedStatement.setString(2, data.getTitle());
         preparedStatement.setString(3, data.getSubject().getDisplayName());
         preparedStatement.setLong(4, data.getExamSession().epochMilli);
         preparedStatement.setString(5, data.getResearchQuestion());
-        if (includePDFData) {
-            final PDDocument document = essay.getDocument();
-            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                document.save(bos);
-            } catch (IOException ex) {
-                // Should never happen!
-                throw new RuntimeException(ex);
-            }
-            preparedStatement.setBytes(6, bos.toByteArray());
+    }
+
+    private long bindEntry(@NotNull final PreparedStatement preparedStatement,
+                           @NotNull final Essay essay,
+                           final boolean includePDFData) throws SQLException {
+        bindMetadata(preparedStatement, essay.getIndexData());
+        if (!includePDFData) {
+            return 0;
+        }
+        final PDDocument document = essay.getDocument();
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            document.save(bos);
+        } catch (IOException ex) {
+            // Should never happen!
+            throw new RuntimeException(ex);
+        }
+        final byte[] bytes = bos.toByteArray();
+        preparedStatement.setBytes(6, bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Prepare a statement which records the file essays were imported from without binding any essay,
+     * so it can be reused for a batch.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement}
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #addSource(PreparedStatement, IndexData, byte[], File)
+     */
+    public @NotNull PreparedStatement newSourceStatement(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "UPDATE %1$s SET %8$s=?, %9$s=? WHERE %2$s=?;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Add an essay to the batch of a statement obtained from {@link #newSourceStatement(Connection)}.
+     *
+     * @param preparedStatement The statement to add the essay to
+     * @param data              The essay
+     * @param contentHash       The SHA-256 hash of the file the essay was imported from
+     * @param source            The file the essay was imported from
+     * @throws SQLException Thrown if the essay could not be bound
+     */
+    public void addSource(@NotNull final PreparedStatement preparedStatement,
+                          @NotNull final IndexData data,
+                          final byte[] contentHash,
+                          @NotNull final File source) throws SQLException {
+        preparedStatement.setBytes(1, contentHash);
+        preparedStatement.setString(2, source.getAbsolutePath());
+        preparedStatement.setInt(3, data.getUniqueID());
+        preparedStatement.addBatch();
+    }
+
+    /**
+     * Create a query for every essay imported from a file, or from any file within a directory.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param source     The file or directory
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractIndexData(ResultSet)
+     */
+    public @NotNull PreparedStatement newSourceSearch(@NotNull final Connection connection, @NotNull final File source) throws SQLException {
+        final String rawSql = "SELECT %2$s, %3$s, %4$s, %5$s, %6$s, %9$s FROM %1$s WHERE %9$s=? OR %9$s LIKE ? ESCAPE '\\';";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH);
+        final String path = source.getAbsolutePath();
+        final String escaped = path.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setString(1, path);
+        preparedStatement.setString(2, escaped + File.separator.replace("\\", "\\\\") + "%");
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the unique id and content hash of several essays.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essays to look up, must not be empty
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractContentHash(ResultSet)
+     */
+    public @NotNull PreparedStatement newContentHashSearch(@NotNull final Connection connection,
+                                                           @NotNull final Collection<@NotNull IndexData> data) throws SQLException {
+        if (data.isEmpty()) {
+            throw new IllegalArgumentException("No essays to look up!");
+        }
+        final StringJoiner ids = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < data.size(); i++) {
+            ids.add("?");
+        }
+        final String rawSql = "SELECT %2$s, %8$s FROM %1$s WHERE %2$s IN %10$s;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH, ids.toString());
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        int index = 1;
+        for (IndexData indexData : data) {
+            preparedStatement.setInt(index++, indexData.getUniqueID());
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the content hash and source path of every essay which has a content hash.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newContentHashScan(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "SELECT %8$s, %9$s FROM %1$s WHERE %8$s IS NOT NULL;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Create a statement which records a new file for the essays imported from a file with the given
+     * content, for example once the file has been moved or renamed.
+     *
+     * @param connection  The connection to prepare the statement on
+     * @param contentHash The SHA-256 hash of the file
+     * @param source      The new location of the file
+     * @return Returns a new {@link PreparedStatement} representing the update
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newSourceMove(@NotNull final Connection connection,
+                                                    final byte[] contentHash,
+                                                    @NotNull final File source) throws SQLException {
+        final String rawSql = "UPDATE %1$s SET %9$s=? WHERE %8$s=?;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR,
+                COLUMN_RESEARCH_QUESTION, COLUMN_PDF, COLUMN_CONTENT_HASH, COLUMN_SOURCE_PATH);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setString(1, source.getAbsolutePath());
+        preparedStatement.setBytes(2, contentHash);
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the metadata of every essay whose title is empty or a single character, which is
+     * all the title pattern of earlier versions captured.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractIndexData(ResultSet)
+     */
+    public @NotNull PreparedStatement newUntitledSearch(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "SELECT %2$s, %3$s, %4$s, %5$s, %6$s FROM %1$s WHERE CHAR_LENGTH(%3$s) <= 1;";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Create an update which changes the title of an essay, and with it its unique id. Nothing is updated
+     * if another essay already has the new unique id.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essay to update
+     * @param retitled   The characteristics of the essay with its new title
+     * @return Returns a new {@link PreparedStatement} representing the update
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #newPageTextMove(Connection, IndexData, IndexData)
+     */
+    public @NotNull PreparedStatement newRetitle(@NotNull final Connection connection,
+                                                 @NotNull final IndexData data,
+                                                 @NotNull final IndexData retitled) throws SQLException {
+        final String rawSql = "UPDATE %1$s SET %2$s=?, %3$s=? WHERE %2$s=? AND NOT EXISTS (SELECT 1 FROM %1$s WHERE %2$s=?);";
+        final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setInt(1, retitled.getUniqueID());
+        preparedStatement.setString(2, retitled.getTitle());
+        preparedStatement.setInt(3, data.getUniqueID());
+        preparedStatement.setInt(4, retitled.getUniqueID());
+        return preparedStatement;
+    }
+
+    /**
+     * Create an update which moves the page text of an essay to its new unique id.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essay the pages belong to
+     * @param retitled   The characteristics of the essay with its new title
+     * @return Returns a new {@link PreparedStatement} representing the update
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #newRetitle(Connection, IndexData, IndexData)
+     */
+    public @NotNull PreparedStatement newPageTextMove(@NotNull final Connection connection,
+                                                      @NotNull final IndexData data,
+                                                      @NotNull final IndexData retitled) throws SQLException {
+        final String rawSql = "UPDATE %1$s SET %2$s=? WHERE %2$s=?;";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setInt(1, retitled.getUniqueID());
+        preparedStatement.setInt(2, data.getUniqueID());
+        return preparedStatement;
+    }
+
+    /**
+     * Create a batch of entries which store the text of every page of an essay. The returned
+     * statement should be executed using {@link PreparedStatement#executeBatch()}.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essay the pages belong to
+     * @param pages      The text of each page, in order
+     * @return Returns a new {@link PreparedStatement} with one batch entry per page
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #newPageTextDeletion(Connection, IndexData)
+     */
+    public @NotNull PreparedStatement newPageTextEntry(@NotNull final Connection connection,
+                                                       @NotNull final IndexData data,
+                                                       @NotNull final List<String> pages) throws SQLException {
+        final PreparedStatement preparedStatement = newPageTextEntryStatement(connection);
+        addPageText(preparedStatement, data, pages);
+        return preparedStatement;
+    }
+
+    /**
+     * Prepare a statement which stores page text without binding any page, so it can be reused
+     * for a batch.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement}
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #addPageText(PreparedStatement, IndexData, List)
+     */
+    public @NotNull PreparedStatement newPageTextEntryStatement(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "MERGE INTO %1$s (%2$s, %3$s, %4$s) VALUES(?, ?, ?);";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY, COLUMN_PAGE, COLUMN_TEXT);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Add every page of an essay to the batch of a statement obtained from
+     * {@link #newPageTextEntryStatement(Connection)}.
+     *
+     * @param preparedStatement The statement to add the pages to
+     * @param data              The essay the pages belong to
+     * @param pages             The text of each page, in order
+     * @throws SQLException Thrown if a page could not be bound
+     */
+    public void addPageText(@NotNull final PreparedStatement preparedStatement,
+                            @NotNull final IndexData data,
+                            @NotNull final List<String> pages) throws SQLException {
+        for (int i = 0; i < pages.size(); i++) {
+            preparedStatement.setInt(1, data.getUniqueID());
+            preparedStatement.setInt(2, i);
+            preparedStatement.setBytes(3, Utils.compress(pages.get(i)));
+            preparedStatement.addBatch();
         }
+    }
+
+    /**
+     * Create a query for the stored text of an essay, ordered by page.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essay to look up
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractPageText(ResultSet)
+     */
+    public @NotNull PreparedStatement newPageTextSearch(@NotNull final Connection connection, @NotNull final IndexData data) throws SQLException {
+        final String rawSql = "SELECT %2$s, %3$s, %4$s FROM %1$s WHERE %2$s=? ORDER BY %3$s;";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY, COLUMN_PAGE, COLUMN_TEXT);
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        preparedStatement.setInt(1, data.getUniqueID());
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the stored text of several essays, ordered by essay and then by page.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param data       The essays to look up, must not be empty
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #extractPageText(ResultSet)
+     */
+    public @NotNull PreparedStatement newPageTextSearch(@NotNull final Connection connection,
+                                                       @NotNull final Collection<@NotNull IndexData> data) throws SQLException {
+        if (data.isEmpty()) {
+            throw new IllegalArgumentException("No essays to look up!");
+        }
+        final StringJoiner ids = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < data.size(); i++) {
+            ids.add("?");
+        }
+        final String rawSql = "SELECT %2$s, %3$s, %4$s FROM %1$s WHERE %2$s IN %5$s ORDER BY %2$s, %3$s;";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY, COLUMN_PAGE, COLUMN_TEXT, ids.toString());
+        final PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        int index = 1;
+        for (IndexData indexData : data) {
+            preparedStatement.setInt(index++, indexData.getUniqueID());
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Create a query for the stored text of every essay, ordered by essay and then by page.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newPageTextScan(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "SELECT %2$s, %3$s, %4$s FROM %1$s ORDER BY %2$s, %3$s;";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY, COLUMN_PAGE, COLUMN_TEXT);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Decompress the page text of the current row of a result set.
+     *
+     * @param resultSet A result set obtained from a page text query
+     * @return Returns the text of the page
+     * @throws SQLException Thrown if the row could not be read
+     * @throws IOException  Thrown if the stored text is corrupted
+     */
+    public @NotNull String extractPageText(@NotNull final ResultSet resultSet) throws SQLException, IOException {
+        return Utils.decompress(resultSet.getBytes(COLUMN_TEXT));
+    }
+
+    /**
+     * Create a query for the number of essays in the database.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement} representing the query
+     * @throws SQLException Thrown if the statement could not be prepared
+     */
+    public @NotNull PreparedStatement newCount(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "SELECT COUNT(*) FROM %1$s;";
+        final String sql = String.format(rawSql, TABLE_NAME);
+        return connection.prepareStatement(sql);
+    }
+
+    public @NotNull PreparedStatement newPageTextDeletion(@NotNull final Connection connection, @NotNull IndexData data) throws SQLException {
+        final PreparedStatement preparedStatement = newPageTextDeletionStatement(connection);
+        preparedStatement.setInt(1, data.getUniqueID());
         return preparedStatement;
     }
 
+    /**
+     * Prepare a statement which deletes the page text of essays without binding any essay, so it
+     * can be reused for a batch.
+     *
+     * @param connection The connection to prepare the statement on
+     * @return Returns a new {@link PreparedStatement}
+     * @throws SQLException Thrown if the statement could not be prepared
+     * @see #addPageTextDeletion(PreparedStatement, IndexData)
+     */
+    public @NotNull PreparedStatement newPageTextDeletionStatement(@NotNull final Connection connection) throws SQLException {
+        final String rawSql = "DELETE FROM %1$s WHERE %2$s=?;";
+        final String sql = String.format(rawSql, TEXT_TABLE_NAME, COLUMN_ESSAY);
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Add an essay to the batch of a statement obtained from {@link #newPageTextDeletionStatement(Connection)}.
+     *
+     * @param preparedStatement The statement to add the essay to
+     * @param data              The essay whose page text is deleted
+     * @throws SQLException Thrown if the essay could not be bound
+     */
+    public void addPageTextDeletion(@NotNull final PreparedStatement preparedStatement, @NotNull IndexData data) throws SQLException {
+        preparedStatement.setInt(1, data.getUniqueID());
+        preparedStatement.addBatch();
+    }
+
     public @NotNull PreparedStatement newDeletion(@NotNull final Connection connection, @NotNull IndexData data) throws SQLException {
         final String rawSql = "DELETE FROM %1$s WHERE %2$s=?;";
         final String sql = String.format(rawSql, TABLE_NAME, COLUMN_UUID);
@@ -227,8 +926,7 @@ public class DataUtil {
 
     public @NotNull PreparedStatement newDeletion(@NotNull final Connection connection,
                                                   @NotNull final QueryParameters parameters) throws SQLException {
-        final String rawSQL = "DELETE FROM %1$s" + generateSqlConstraints(parameters, -1) + ";";
-        final String sql = String.format(rawSQL, TABLE_NAME, COLUMN_UUID, COLUMN_TITLE, COLUMN_SUBJECT, COLUMN_EXAM_YEAR, COLUMN_RESEARCH_QUESTION);
+        final String sql = String.format("DELETE FROM %1$s", TABLE_NAME) + generateSqlConstraints(parameters, -1) + ";";
         return connection.prepareStatement(sql);
     }
 
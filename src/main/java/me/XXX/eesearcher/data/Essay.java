@@ -1,25 +1,50 @@
 package me.XXX.eesearcher.data;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.io.RandomAccessBuffer;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.ScratchFile;
 import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
- * Represents an Essay which is effectively immutable and thread-safe.
+ * Represents an Essay which is thread-safe.
+ * <p>
+ * An essay is reference counted, as its document may hold temporary files. It starts with one
+ * reference held by its creator, {@link #retain()} takes another and {@link #release()} returns one,
+ * and the essay is closed once the last reference has been released. {@link #close()} closes the essay
+ * at once, whatever references are still held.
+ * </p>
  */
 public class Essay implements AutoCloseable {
 
     private IndexData indexData;
     private volatile boolean closed;
     private PDDocument document;
+    private long size;
+    private int references = 1;
 
     public Essay(final IndexData indexData, final byte[] rawPDF) {
+        this(indexData, rawPDF, MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * Create an essay from a PDF held in memory. The decoded streams of the PDF are held according to
+     * the given settings, so they may be spilled to temporary files rather than kept on the heap.
+     *
+     * @param indexData    The characteristics of the essay
+     * @param rawPDF       The raw PDF
+     * @param memoryUsage  The memory settings of the document
+     */
+    public Essay(final IndexData indexData, final byte[] rawPDF, @NotNull final MemoryUsageSetting memoryUsage) {
         this.indexData = indexData;
+        this.size = rawPDF.length;
         try {
-            PDFParser parser = new PDFParser(new RandomAccessBuffer(rawPDF));
+            PDFParser parser = new PDFParser(new RandomAccessBuffer(rawPDF), new ScratchFile(memoryUsage));
             parser.parse();
             this.document = parser.getPDDocument();
         } catch (IOException ex) {
@@ -36,12 +61,62 @@ public class Essay implements AutoCloseable {
         }
     }
 
+    /**
+     * Create an essay by streaming its PDF. The stream is buffered to a temporary file rather than
+     * into memory, so the size of the PDF does not affect the heap.
+     *
+     * @param indexData   The characteristics of the essay
+     * @param inputStream The raw PDF, which is fully consumed but not closed
+     * @throws IOException Thrown if the PDF could not be read or parsed
+     */
+    public Essay(@NotNull final IndexData indexData, @NotNull final InputStream inputStream) throws IOException {
+        this(indexData, inputStream, MemoryUsageSetting.setupMainMemoryOnly());
+    }
+
+    /**
+     * Create an essay by streaming its PDF. The stream is buffered to a temporary file, and the decoded
+     * streams of the PDF are held according to the given settings, so neither has to fit on the heap.
+     *
+     * @param indexData   The characteristics of the essay
+     * @param inputStream The raw PDF, which is fully consumed but not closed
+     * @param memoryUsage The memory settings of the document
+     * @throws IOException Thrown if the PDF could not be read or parsed
+     */
+    public Essay(@NotNull final IndexData indexData,
+                 @NotNull final InputStream inputStream,
+                 @NotNull final MemoryUsageSetting memoryUsage) throws IOException {
+        this.indexData = indexData;
+        final RandomAccessBufferedFileInputStream source = new RandomAccessBufferedFileInputStream(inputStream);
+        try {
+            final PDFParser parser = new PDFParser(source, new ScratchFile(memoryUsage));
+            parser.parse();
+            this.document = parser.getPDDocument();
+            this.size = source.length();
+        } catch (IOException ex) {
+            // Release the temporary file backing the stream
+            source.close();
+            throw ex;
+        }
+    }
+
     public Essay(@NotNull final IndexData indexData, @NotNull final PDDocument document) {
+        this(indexData, document, 0);
+    }
+
+    /**
+     * Create an essay from a PDF which has already been parsed.
+     *
+     * @param indexData The characteristics of the essay
+     * @param document  The parsed PDF, which is owned by this essay from now on
+     * @param size      The size of the raw PDF in bytes, or 0 if unknown
+     */
+    public Essay(@NotNull final IndexData indexData, @NotNull final PDDocument document, final long size) {
         if (document.getDocument().isClosed()) {
             throw new IllegalArgumentException("PDDocument is already closed!");
         }
         this.indexData = indexData;
         this.document = document;
+        this.size = size;
     }
 
     public @NotNull IndexData getIndexData() {
@@ -55,6 +130,46 @@ public class Essay implements AutoCloseable {
         return this.document;
     }
 
+    /**
+     * Get the size of the raw PDF of this essay, which is used to estimate the memory the essay occupies.
+     *
+     * @return Returns the size in bytes, or 0 if unknown
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Take a reference to this essay, so it stays open until the reference is released.
+     *
+     * @return Returns false if this essay is already closed, in which case no reference was taken
+     */
+    public synchronized boolean retain() {
+        if (this.closed) {
+            return false;
+        }
+        this.references++;
+        return true;
+    }
+
+    /**
+     * Release a reference to this essay, see {@link #retain()}. Releasing the last reference closes it.
+     *
+     * @throws IOException Thrown if the document could not be closed
+     */
+    public synchronized void release() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        if (--this.references == 0) {
+            close();
+        }
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (this.closed) {
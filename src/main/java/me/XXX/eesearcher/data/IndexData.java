@@ -1,23 +1,23 @@
 package me.XXX.eesearcher.data;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import me.XXX.eesearcher.common.ExamSession;
 import org.jetbrains.annotations.NotNull;
 
-import java.time.Duration;
-
 /**
  * Represents the characteristics of the ExtendedEssay.
  * This class is immutable and is therefore thread-safe.
+ * <p>
+ * Instances are interned, so equal characteristics share one instance for as long as it is referenced.
+ * Two instances are equal only if all of their characteristics are, so essays whose unique ids collide
+ * are still told apart.
+ * </p>
  */
 public final class IndexData {
 
-    private static final Cache<Integer, IndexData> CACHE = CacheBuilder.newBuilder()
-            .concurrencyLevel(2)
-            .weakValues()
-            .expireAfterAccess(Duration.ofMinutes(1))
-            .build();
+    // Reads are lock-free and writes only lock one segment, instances are released once unreferenced
+    private static final Interner<IndexData> INTERNER = Interners.newWeakInterner();
 
     public final int uniqueID;
     private final Subject subject;
@@ -55,21 +55,14 @@ public final class IndexData {
      * @param subject The subject of the essay
      * @param researchQuestion The research question of the essay
      * @param examSession The exam session of the essay
-     * @return Returns a cached {@link IndexData} instance or instantiates a new one
+     * @return Returns the interned {@link IndexData} instance for these characteristics
      */
     public static @NotNull IndexData from(@NotNull final String title,
                                           @NotNull final Subject subject,
                                           @NotNull final String researchQuestion,
                                           @NotNull final ExamSession examSession) {
         final int hash = getUniqueID(title, subject, researchQuestion, examSession);
-        synchronized (CACHE) {
-            IndexData indexData = CACHE.getIfPresent(hash);
-            if (indexData == null) {
-                indexData = new IndexData(title, subject, researchQuestion, examSession, hash);
-                CACHE.put(hash, indexData);
-            }
-            return indexData;
-        }
+        return INTERNER.intern(new IndexData(title, subject, researchQuestion, examSession, hash));
     }
 
     /**
@@ -114,7 +107,12 @@ public final class IndexData {
         if (o == null || getClass() != o.getClass()) return false;
 
         IndexData other = (IndexData) o;
-        return this.uniqueID == other.uniqueID;
+        // Compare the unique id first, it differs for almost every other instance
+        return this.uniqueID == other.uniqueID
+                && this.title.equals(other.title)
+                && this.subject.equals(other.subject)
+                && this.researchQuestion.equals(other.researchQuestion)
+                && this.examSession.equals(other.examSession);
     }
 
     @Override
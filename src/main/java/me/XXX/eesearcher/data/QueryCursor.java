@@ -0,0 +1,117 @@
+package me.XXX.eesearcher.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Represents an opaque position within the results of a query, used to fetch the next page
+ * of results. Results are ordered by exam session and then by unique id, which is stable
+ * as essays are added to the database. This class is immutable.
+ */
+public final class QueryCursor {
+
+    /**
+     * The order of the results of a query, by exam session and then by unique id.
+     */
+    public static final Comparator<IndexData> RESULT_ORDER = Comparator
+            .<IndexData>comparingLong(indexData -> indexData.getExamSession().epochMilli)
+            .thenComparingInt(IndexData::getUniqueID);
+
+    final long examSession;
+    final int uniqueID;
+
+    QueryCursor(final long examSession, final int uniqueID) {
+        this.examSession = examSession;
+        this.uniqueID = uniqueID;
+    }
+
+    /**
+     * Get the exam session of the last result before this cursor.
+     *
+     * @return Returns the epoch milli of the exam session
+     */
+    public long getExamSession() {
+        return examSession;
+    }
+
+    /**
+     * Get the unique id of the last result before this cursor.
+     *
+     * @return Returns the unique id
+     */
+    public int getUniqueID() {
+        return uniqueID;
+    }
+
+    /**
+     * Create a cursor pointing at an essay.
+     *
+     * @param indexData The characteristics of the essay
+     * @return Returns a new {@link QueryCursor}
+     */
+    public static @NotNull QueryCursor of(@NotNull final IndexData indexData) {
+        return new QueryCursor(indexData.getExamSession().epochMilli, indexData.getUniqueID());
+    }
+
+    /**
+     * Check whether an essay comes after this cursor, that is whether it belongs on a later page.
+     *
+     * @param indexData The characteristics of the essay
+     * @return Returns true if the essay is ordered after this cursor
+     */
+    public boolean isBefore(@NotNull final IndexData indexData) {
+        final long session = indexData.getExamSession().epochMilli;
+        return session > examSession || (session == examSession && indexData.getUniqueID() > uniqueID);
+    }
+
+    /**
+     * Decode a cursor previously obtained from {@link #encode()}.
+     *
+     * @param encoded The encoded cursor
+     * @return Returns the decoded {@link QueryCursor}
+     * @throws IllegalArgumentException Thrown if the string is not a valid cursor
+     */
+    public static @NotNull QueryCursor decode(@NotNull final String encoded) throws IllegalArgumentException {
+        final byte[] raw = Base64.getUrlDecoder().decode(encoded);
+        if (raw.length != Long.BYTES + Integer.BYTES) {
+            throw new IllegalArgumentException(String.format("Invalid cursor: %s", encoded));
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(raw);
+        return new QueryCursor(buffer.getLong(), buffer.getInt());
+    }
+
+    /**
+     * Encode this cursor as a URL-safe string.
+     *
+     * @return Returns a string which can be decoded using {@link #decode(String)}
+     */
+    public @NotNull String encode() {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        buffer.putLong(examSession).putInt(uniqueID);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        QueryCursor that = (QueryCursor) o;
+        return examSession == that.examSession && uniqueID == that.uniqueID;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(examSession);
+        result = 31 * result + uniqueID;
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package me.XXX.eesearcher.data;
+
+import me.XXX.eesearcher.common.PatternCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Represents the canonical form of a {@link QueryParameters}, so that queries which always produce the
+ * same results are equal and can share cached results. This class is immutable.
+ * <ul>
+ *     <li>An empty regular expression is the same as none, and without one flags and deep search are ignored</li>
+ *     <li>Flags are compared by the {@link java.util.regex.Pattern} flags they produce, as their order
+ *     matters. Invalid flags, with which the query always fails, are all the same</li>
+ *     <li>Subjects are compared by their lower-case display names, as they are matched, and sorted.
+ *     No subjects are the same as an empty set</li>
+ *     <li>Exam session constraints are compared by their type and the epoch milli of their session</li>
+ * </ul>
+ */
+public final class QueryKey {
+
+    private final String regex;
+    private final int flags;
+    private final boolean deepSearch;
+    private final List<String> subjects;
+    private final ExamSessionConstraint.Type sessionType;
+    private final long session;
+    private final int hashCode;
+
+    private QueryKey(@Nullable final String regex,
+                     final int flags,
+                     final boolean deepSearch,
+                     @NotNull final List<String> subjects,
+                     @Nullable final ExamSessionConstraint.Type sessionType,
+                     final long session) {
+        this.regex = regex;
+        this.flags = flags;
+        this.deepSearch = deepSearch;
+        this.subjects = subjects;
+        this.sessionType = sessionType;
+        this.session = session;
+        int result = Objects.hashCode(regex);
+        result = 31 * result + flags;
+        result = 31 * result + (deepSearch ? 1 : 0);
+        result = 31 * result + subjects.hashCode();
+        result = 31 * result + Objects.hashCode(sessionType);
+        result = 31 * result + Long.hashCode(session);
+        this.hashCode = result;
+    }
+
+    /**
+     * Obtain the canonical form of some query parameters.
+     *
+     * @param parameters The query parameters
+     * @return Returns a new {@link QueryKey}
+     */
+    public static @NotNull QueryKey of(@NotNull final QueryParameters parameters) {
+        final boolean hasRegex = parameters.regex != null && !parameters.regex.isEmpty();
+        int flags = 0;
+        if (hasRegex) {
+            try {
+                flags = PatternCache.toPatternFlags(parameters.flags);
+            } catch (IllegalArgumentException ex) {
+                flags = -1;
+            }
+        }
+        final List<String> subjects;
+        if (parameters.subjects == null || parameters.subjects.isEmpty()) {
+            subjects = Collections.emptyList();
+        } else {
+            final List<String> names = new ArrayList<>(parameters.subjects.size());
+            for (Subject subject : parameters.subjects) {
+                final String name = subject.getDisplayName().toLowerCase();
+                if (!names.contains(name)) {
+                    names.add(name);
+                }
+            }
+            Collections.sort(names);
+            subjects = Collections.unmodifiableList(names);
+        }
+        final ExamSessionConstraint constraint = parameters.examSessionConstraint;
+        return new QueryKey(hasRegex ? parameters.regex : null,
+                flags,
+                hasRegex && parameters.deepSearch,
+                subjects,
+                constraint == null ? null : constraint.type,
+                constraint == null ? 0 : constraint.examSession.epochMilli);
+    }
+
+    @Override
+    public String toString() {
+        return "QueryKey{" +
+                "regex='" + regex + '\'' +
+                ", flags=" + flags +
+                ", deepSearch=" + deepSearch +
+                ", subjects=" + subjects +
+                ", sessionType=" + sessionType +
+                ", session=" + session +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        QueryKey that = (QueryKey) o;
+        if (hashCode != that.hashCode) return false;
+        if (deepSearch != that.deepSearch) return false;
+        if (session != that.session) return false;
+        if (!Objects.equals(regex, that.regex)) return false;
+        if (flags != that.flags) return false;
+        if (!subjects.equals(that.subjects)) return false;
+        return sessionType == that.sessionType;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
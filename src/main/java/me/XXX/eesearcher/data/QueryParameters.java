@@ -14,6 +14,9 @@ import java.util.Set;
  */
 public class QueryParameters {
 
+    /**
+     * The raw regular expression in {@link java.util.regex.Pattern} syntax, it is quoted when the SQL is generated.
+     */
     public final String regex;
     public final char[] flags;
     public final boolean deepSearch;
@@ -0,0 +1,36 @@
+package me.XXX.eesearcher.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Represents a single page of {@link SearchResult}s from a paged query. This class is immutable.
+ */
+public class SearchPage {
+
+    private final List<SearchResult> results;
+    private final QueryCursor next;
+
+    public SearchPage(@NotNull final List<SearchResult> results, @Nullable final QueryCursor next) {
+        this.results = new ArrayList<>(results);
+        this.next = next;
+    }
+
+    public @NotNull List<@NotNull SearchResult> getResults() {
+        return new ArrayList<>(this.results);
+    }
+
+    /**
+     * Get the cursor to fetch the page after this one.
+     *
+     * @return Returns an {@link Optional} populated by the {@link QueryCursor} of the next page,
+     * empty if this is the last page
+     */
+    public @NotNull Optional<@NotNull QueryCursor> getNextCursor() {
+        return Optional.ofNullable(next);
+    }
+}
@@ -7,22 +7,32 @@ import java.util.List;
 
 /**
  * Represents a {@link SearchResult} from a query. This class is immutable.
+ * <p>
+ * A result only holds the metadata of an essay, the underlying PDF is never loaded when
+ * searching. Use {@link me.XXX.eesearcher.common.IndexDataController#loadEssay(IndexData)}
+ * to obtain the {@link Essay} once it is actually needed.
+ * </p>
  */
 public class SearchResult {
 
-    private final Essay essay;
-    private final List<String> matchingText;
+    private final IndexData indexData;
+    private final List<Snippet> matchingText;
 
-    public SearchResult(@NotNull final Essay essay, @NotNull final List<String> matchingText) {
-        this.essay = essay;
+    public SearchResult(@NotNull final IndexData indexData, @NotNull final List<Snippet> matchingText) {
+        this.indexData = indexData;
         this.matchingText = new ArrayList<>(matchingText);
     }
 
-    public @NotNull Essay getEssay() {
-        return essay;
+    public @NotNull IndexData getIndexData() {
+        return indexData;
     }
 
-    public @NotNull List<String> getMatchingText() {
+    /**
+     * Get the passages of the essay which matched the query, best first.
+     *
+     * @return Returns a copy of the matching {@link Snippet}s, empty if none were computed
+     */
+    public @NotNull List<@NotNull Snippet> getMatchingText() {
         return new ArrayList<>(this.matchingText);
     }
 }
@@ -0,0 +1,113 @@
+package me.XXX.eesearcher.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Represents a passage of text which matched a query, along with the character offsets of
+ * every match within the passage. This class is immutable.
+ */
+public final class Snippet {
+
+    private final Source source;
+    private final int page;
+    private final String text;
+    private final boolean truncatedStart;
+    private final boolean truncatedEnd;
+    // Pairs of start (inclusive) and end (exclusive) offsets into text
+    private final int[] highlights;
+
+    public Snippet(@NotNull final Source source,
+                   final int page,
+                   @NotNull final String text,
+                   final boolean truncatedStart,
+                   final boolean truncatedEnd,
+                   final int[] highlights) {
+        if (highlights.length % 2 != 0) {
+            throw new IllegalArgumentException("Highlights must be pairs of offsets!");
+        }
+        this.source = source;
+        this.page = page;
+        this.text = text;
+        this.truncatedStart = truncatedStart;
+        this.truncatedEnd = truncatedEnd;
+        this.highlights = Arrays.copyOf(highlights, highlights.length);
+    }
+
+    public @NotNull Source getSource() {
+        return source;
+    }
+
+    /**
+     * Get the page the passage was taken from.
+     *
+     * @return Returns the zero-based page number, or -1 if the passage was not taken from the body text
+     */
+    public int getPage() {
+        return page;
+    }
+
+    public @NotNull String getText() {
+        return text;
+    }
+
+    /**
+     * Check whether the passage starts part way through its source text.
+     *
+     * @return Returns true if text precedes this passage
+     */
+    public boolean isTruncatedStart() {
+        return truncatedStart;
+    }
+
+    /**
+     * Check whether the passage ends part way through its source text.
+     *
+     * @return Returns true if text follows this passage
+     */
+    public boolean isTruncatedEnd() {
+        return truncatedEnd;
+    }
+
+    public int getHighlightCount() {
+        return highlights.length / 2;
+    }
+
+    /**
+     * Get the offset at which a match starts.
+     *
+     * @param index The index of the match
+     * @return Returns the inclusive offset into {@link #getText()}
+     */
+    public int getHighlightStart(final int index) {
+        return highlights[index * 2];
+    }
+
+    /**
+     * Get the offset at which a match ends.
+     *
+     * @param index The index of the match
+     * @return Returns the exclusive offset into {@link #getText()}
+     */
+    public int getHighlightEnd(final int index) {
+        return highlights[index * 2 + 1];
+    }
+
+    @Override
+    public String toString() {
+        return "Snippet{" +
+                "source=" + source +
+                ", page=" + page +
+                ", text='" + text + '\'' +
+                ", highlights=" + Arrays.toString(highlights) +
+                '}';
+    }
+
+    /**
+     * Represents the text a {@link Snippet} was taken from.
+     */
+    public enum Source {
+        TITLE, RESEARCH_QUESTION, BODY
+    }
+}
@@ -1,6 +1,8 @@
 package me.XXX.eesearcher.module;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -10,8 +12,18 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.pool.HikariPool;
 import me.XXX.eesearcher.SearchHistoryController;
 import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.common.FolderWatcher;
+import me.XXX.eesearcher.common.FullTextIndex;
+import me.XXX.eesearcher.common.H2SearchBackend;
+import me.XXX.eesearcher.common.ImportJournal;
 import me.XXX.eesearcher.common.IndexDataController;
+import me.XXX.eesearcher.common.LuceneSearchBackend;
+import me.XXX.eesearcher.common.MetadataCatalog;
 import me.XXX.eesearcher.common.Parser;
+import me.XXX.eesearcher.common.PatternCache;
+import me.XXX.eesearcher.common.SearchBackend;
+import me.XXX.eesearcher.common.SnippetGenerator;
+import me.XXX.eesearcher.common.TrigramIndex;
 import me.XXX.eesearcher.data.DataUtil;
 import me.XXX.eesearcher.data.SubjectDatabase;
 import me.XXX.eesearcher.data.Subjects;
@@ -19,6 +31,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -32,7 +45,14 @@ public class BackendModule extends AbstractModule {
         bind(Parser.class).asEagerSingleton();
         bind(SubjectDatabase.class).asEagerSingleton();
         bind(Subjects.class).asEagerSingleton();
+        bind(FullTextIndex.class).asEagerSingleton();
+        bind(TrigramIndex.class).asEagerSingleton();
+        bind(MetadataCatalog.class).asEagerSingleton();
+        bind(PatternCache.class).asEagerSingleton();
+        bind(SnippetGenerator.class).asEagerSingleton();
         bind(IndexDataController.class).asEagerSingleton();
+        bind(ImportJournal.class).asEagerSingleton();
+        bind(FolderWatcher.class).asEagerSingleton();
         bind(SearchHistoryController.class).asEagerSingleton();
     }
 
@@ -72,9 +92,38 @@ public class BackendModule extends AbstractModule {
         return new HikariPool(config);
     }
 
+    @Provides
+    @Singleton
+    public @NotNull SearchBackend provideSearchBackend(@NotNull final SystemConfiguration configuration,
+                                                       @NotNull final Provider<H2SearchBackend> h2,
+                                                       @NotNull final Provider<LuceneSearchBackend> lucene) {
+        switch (configuration.searchBackend()) {
+            case H2:
+                return h2.get();
+            case LUCENE:
+                return lucene.get();
+            default:
+                throw new IllegalStateException("Unknown search backend: " + configuration.searchBackend());
+        }
+    }
+
     @Provides
     @Singleton
     public ScheduledExecutorService provideExecutorService(@NotNull final SystemConfiguration configuration) {
         return Executors.newScheduledThreadPool(configuration.maxIOThreads() == -1 ? Runtime.getRuntime().availableProcessors() : configuration.maxIOThreads());
     }
+
+    /**
+     * Provide the executor of the indexing pipeline. Its workers block on each other, so they cannot share
+     * the bounded IO pool. Idle threads are kept for a while, so consecutive imports reuse them.
+     */
+    @Provides
+    @Singleton
+    @Named("pipeline-pool")
+    public ExecutorService providePipelineExecutorService() {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("pipeline-%d")
+                .setDaemon(true)
+                .build());
+    }
 }
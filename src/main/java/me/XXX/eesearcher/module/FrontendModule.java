@@ -8,14 +8,17 @@ import org.jetbrains.annotations.NotNull;
 public class FrontendModule extends AbstractModule {
 
     private final javafx.stage.Stage uiStage;
+    private final javafx.application.HostServices hostServices;
 
-    public FrontendModule(@NotNull final javafx.stage.Stage uiStage) {
+    public FrontendModule(@NotNull final javafx.stage.Stage uiStage, @NotNull final javafx.application.HostServices hostServices) {
         this.uiStage = uiStage;
+        this.hostServices = hostServices;
     }
 
     @Override
     protected void configure() {
         bind(javafx.stage.Stage.class).annotatedWith(Names.named("main")).toInstance(uiStage);
+        bind(javafx.application.HostServices.class).toInstance(hostServices);
         bind(SceneController.class).asEagerSingleton();
     }
 }
@@ -5,6 +5,7 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import javafx.application.HostServices;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -20,16 +21,22 @@ import javafx.stage.Stage;
 import me.XXX.eesearcher.common.IndexDataController;
 import me.XXX.eesearcher.SearchHistoryController;
 import me.XXX.eesearcher.data.IndexData;
+import me.XXX.eesearcher.data.QueryCursor;
 import me.XXX.eesearcher.data.QueryParameters;
 import me.XXX.eesearcher.data.SearchResult;
+import me.XXX.eesearcher.data.Snippet;
 import me.XXX.eesearcher.data.SubjectDatabase;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Represents the landing page users will see. This class will draw a window which contains:
  *  - A text input field (search box)
+ *  - A check box (search the text of the essays too)
  *  - A ListView (search history)
  *  - A ListView (search results)
  *  - A button (Add EEs)
@@ -39,6 +46,8 @@ import java.util.List;
 @Singleton
 public class GuestHomepage {
 
+    public static final int PAGE_SIZE = 50;
+
     private final VBox root = new VBox();
     private final HBox boxInfo = new HBox();
     private final Label info = new Label(" ");
@@ -48,6 +57,8 @@ public class GuestHomepage {
 
     private final ListView<Hyperlink> viewSearchHistory = new ListView<>();
     private final TextField fieldSearchInput = new TextField(" ");
+    private final CheckBox checkDeepSearch = new CheckBox("Search essay text");
+    private final HBox boxSearch = new HBox();
     private final TitledPane paneSearchResultsParent = new TitledPane();
     private final ScrollPane paneSearchResults = new ScrollPane();
     private final TextFlow flowSearchResults = new TextFlow();
@@ -65,9 +76,13 @@ public class GuestHomepage {
     private IndexDataController indexDataController;
     @Inject
     private SearchHistoryController historyController;
+    @Inject
+    private HostServices hostServices;
 
 
     private boolean searching;
+    private QueryParameters currentQuery;
+    private QueryCursor nextCursor;
 
     @Inject
     public GuestHomepage(@Named("main") Stage stage, @NotNull SceneController controller) {
@@ -117,6 +132,15 @@ public class GuestHomepage {
             event.consume();
         });
         viewSearchHistory.getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+        // Fetch more results once the user scrolls near the bottom of the current results
+        paneSearchResults.vvalueProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal.doubleValue() >= paneSearchResults.getVmax() * 0.9) {
+                fetchNextPage();
+            }
+        });
+        // The view cannot be scrolled while the results do not fill it, so keep fetching until they do
+        flowSearchResults.heightProperty().addListener((obs, oldVal, newVal) -> fillViewport());
+        paneSearchResults.viewportBoundsProperty().addListener((obs, oldVal, newVal) -> fillViewport());
 
     }
 
@@ -128,6 +152,12 @@ public class GuestHomepage {
         root.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
 
         fieldSearchInput.setMaxSize(Double.MAX_VALUE, Control.USE_PREF_SIZE);
+        // Searching the body text of every essay is slower, so it is opt-in
+        checkDeepSearch.setSelected(false);
+        boxSearch.setSpacing(10);
+        boxSearch.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(fieldSearchInput, Priority.ALWAYS);
+        boxSearch.getChildren().addAll(fieldSearchInput, checkDeepSearch);
 
         /// Init search history display
         viewSearchHistory.setBackground(Background.EMPTY);
@@ -180,19 +210,20 @@ public class GuestHomepage {
         HBox.setHgrow(info, Priority.ALWAYS);
         HBox.setHgrow(progressBar, Priority.ALWAYS);
         boxInfo.getChildren().addAll(importerButton, info, progressBar);
-        root.getChildren().addAll(fieldSearchInput, paneCentralView, boxInfo);
+        root.getChildren().addAll(boxSearch, paneCentralView, boxInfo);
     }
 
     private void performSearch(@NotNull final String search, boolean allowRawRegex) {
-        if (search.isBlank() || searching) {
+        // A new search replaces one which is still running
+        if (search.isBlank()) {
             return;
         }
         final String regex;
         if (allowRawRegex) {
-            regex = String.format("'(%s)'", search.trim());
+            regex = String.format("(%s)", search.trim());
         } else {
             // Force REGEX escaping
-            regex = String.format("'\\Q(%s)\\E'", search.trim());
+            regex = Pattern.quote(search.trim());
         }
         // Remove duplicate values from the search history
         viewSearchHistory.getItems().removeIf(hl -> hl.getText().equals(search));
@@ -206,72 +237,202 @@ public class GuestHomepage {
         historyController.addEntry(search);
         // Update info text
         info.setText("Searching... ");
+        // Build search query
+        final QueryParameters parameters = QueryParameters.builder().regex(regex).regexFlags('i')
+                .deepSearch(checkDeepSearch.isSelected()).build();
+        this.currentQuery = parameters;
+        this.nextCursor = null;
+        // Reset the "Search Results column"
+        this.flowSearchResults.getChildren().clear();
+        paneSearchResults.setVvalue(0);
+        fetchPage(parameters, null);
+    }
+
+    /**
+     * Fetch the next page of the current search, if there is one and no page is being fetched.
+     */
+    private void fetchNextPage() {
+        if (searching || currentQuery == null || nextCursor == null) {
+            return;
+        }
+        info.setText("Loading more results... ");
+        fetchPage(currentQuery, nextCursor);
+    }
+
+    /**
+     * Fetch the next page of the current search if the results do not fill the view, as no scrolling
+     * will ever ask for it then.
+     */
+    private void fillViewport() {
+        if (flowSearchResults.getHeight() < paneSearchResults.getViewportBounds().getHeight()) {
+            fetchNextPage();
+        }
+    }
+
+    private void fetchPage(@NotNull final QueryParameters parameters, @Nullable final QueryCursor cursor) {
         searching = true;
         // Make progressbar visible
         progressBar.setVisible(true);
-        // Build search query
-        final QueryParameters parameters = QueryParameters.builder().regex(regex).regexFlags('i').deepSearch(false).build();
-        // Perform the query asynchronously
-        indexDataController.performQuery(parameters).thenAccept(results ->
+        // Perform the query asynchronously, rendering each batch of results as soon as it arrives
+        indexDataController.performPagedQuery(parameters, cursor, PAGE_SIZE, batch ->
                 // Synchronise back to the display thread
                 Platform.runLater(() -> {
-                    // Reset the "Search Results column"
-            this.flowSearchResults.getChildren().clear();
-            if (results.isEmpty()) {
-                this.flowSearchResults.getChildren().add(new Text("No Results"));
+                    if (this.currentQuery != parameters) {
+                        // A newer search has replaced this one
+                        return;
+                    }
+                    for (SearchResult result : batch) {
+                        // Append each individual result to the list view
+                        processSearchResultEntries(result);
+                    }
+                })).whenComplete((page, ex) ->
+                Platform.runLater(() -> {
+                    if (ex != null) {
+                        ex.printStackTrace();
+                    }
+                    if (this.currentQuery != parameters) {
+                        // A newer search has replaced this one and is still busy
+                        return;
+                    }
+                    this.nextCursor = page == null ? null : page.getNextCursor().orElse(null);
+                    if (cursor == null && (page == null || page.getResults().isEmpty())) {
+                        this.flowSearchResults.getChildren().clear();
+                        this.flowSearchResults.getChildren().add(new Text("No Results"));
+                    }
+                    progressBar.setProgress(0);
+                    progressBar.setVisible(false);
+                    searching = false;
+                    info.setText(" ");
+                    // The results of this page have been added, lay them out to know whether they fill the view
+                    paneSearchResults.layout();
+                    fillViewport();
+                }));
+    }
+
+    /**
+     * Split a snippet into plain and highlighted text nodes.
+     *
+     * @param snippet The snippet to display
+     * @return Returns a new list of {@link Text} nodes which together display the whole snippet
+     */
+    private static @NotNull List<@NotNull Text> toHighlightedText(@NotNull final Snippet snippet) {
+        final String text = snippet.getText();
+        final List<Text> nodes = new ArrayList<>();
+        if (snippet.isTruncatedStart()) {
+            nodes.add(new Text("..."));
+        }
+        int offset = 0;
+        for (int i = 0; i < snippet.getHighlightCount(); i++) {
+            final int start = Math.max(offset, snippet.getHighlightStart(i));
+            final int end = snippet.getHighlightEnd(i);
+            if (end <= start) {
+                continue;
+            }
+            if (start > offset) {
+                nodes.add(new Text(text.substring(offset, start)));
+            }
+            final Text highlight = new Text(text.substring(start, end));
+            changeFontWeight(highlight, FontWeight.BOLD);
+            highlight.setFill(Color.DARKORANGE);
+            nodes.add(highlight);
+            offset = end;
+        }
+        if (offset < text.length()) {
+            nodes.add(new Text(text.substring(offset)));
+        }
+        if (snippet.isTruncatedEnd()) {
+            nodes.add(new Text("..."));
+        }
+        return nodes;
+    }
+
+    /**
+     * Open the PDF of an essay in the default PDF viewer.
+     *
+     * @param indexData The essay to open
+     */
+    private void openEssay(@NotNull final IndexData indexData) {
+        info.setText("Opening essay... ");
+        indexDataController.exportEssay(indexData).whenComplete((file, ex) -> Platform.runLater(() -> {
+            if (ex != null) {
+                ex.printStackTrace();
+                info.setText("The essay could not be opened");
+            } else if (file.isPresent()) {
+                info.setText(" ");
+                hostServices.showDocument(file.get().toURI().toString());
             } else {
-                for (SearchResult result : results) {
-                    // Append each individual result to the list view
-                    processSearchResultEntries(result);
-                }
+                info.setText("The essay no longer exists");
             }
-            progressBar.setProgress(0);
-            progressBar.setVisible(false);
-            searching = false;
-            info.setText(" ");
         }));
     }
 
     private void processSearchResultEntries(@NotNull final SearchResult result) {
-        final List<String> correctText = result.getMatchingText();
-        // FIXME keyword highlighting
-        final IndexData indexData = result.getEssay().getIndexData();
+        final List<Snippet> snippets = result.getMatchingText();
+        final IndexData indexData = result.getIndexData();
         // Parse values
         final String subject = indexData.getSubject().getDisplayName();
         final String examSession = indexData.getExamSession().displayName;
         final String elementDisplayName = String.format("%1$s | %2$s", subject, examSession);
-        final String title = indexData.getTitle();
-        final String researchQuestion = indexData.getResearchQuestion();
+        Snippet titleSnippet = null;
+        Snippet researchQuestionSnippet = null;
+        final List<Snippet> bodySnippets = new ArrayList<>();
+        for (Snippet snippet : snippets) {
+            switch (snippet.getSource()) {
+                case TITLE:
+                    titleSnippet = snippet;
+                    break;
+                case RESEARCH_QUESTION:
+                    researchQuestionSnippet = snippet;
+                    break;
+                default:
+                    bodySnippets.add(snippet);
+            }
+        }
 
         // Begin adding elements to search history
         final TextFlow newFlow = this.flowSearchResults;
 
-        final Text entryTitle = new Text(elementDisplayName + System.lineSeparator());
+        final Text entryTitle = new Text(elementDisplayName + " ");
         entryTitle.setFill(Color.DARKGREEN);
         incrementFontWeight(entryTitle, FontWeight.BOLD, 4);
+        final Hyperlink linkOpen = new Hyperlink("Open PDF");
+        linkOpen.setOnAction(event -> {
+            openEssay(indexData);
+            event.consume();
+        });
 
         // Setup Title
         final Text textEssayTitleIdentifier = new Text("Title: ");
         changeFontWeight(textEssayTitleIdentifier, FontWeight.BOLD);
         textEssayTitleIdentifier.setFill(Color.DARKGRAY);
-        final Text textEssayTitle = new Text(title + System.lineSeparator());
-        changeFontWeight(textEssayTitle, FontWeight.NORMAL);
 
         // Setup Research Question
         final Text textEssayRQIdentifier = new Text("Research Question: ");
         textEssayRQIdentifier.setFill(Color.DARKGRAY);
         changeFontWeight(textEssayRQIdentifier, FontWeight.BOLD);
-        final Text textRQ = new Text(researchQuestion + System.lineSeparator());
-        changeFontWeight(textRQ, FontWeight.NORMAL);
 
         // Update root node to display text
-        newFlow.getChildren().addAll(entryTitle, textEssayTitleIdentifier, textEssayTitle, textEssayRQIdentifier, textRQ);
-        for (String s : correctText) {
-            newFlow.getChildren().add(new Text(s + System.lineSeparator()));
+        newFlow.getChildren().addAll(entryTitle, linkOpen, new Text(System.lineSeparator()), textEssayTitleIdentifier);
+        if (titleSnippet == null) {
+            newFlow.getChildren().add(new Text(indexData.getTitle()));
+        } else {
+            newFlow.getChildren().addAll(toHighlightedText(titleSnippet));
+        }
+        newFlow.getChildren().addAll(new Text(System.lineSeparator()), textEssayRQIdentifier);
+        if (researchQuestionSnippet == null) {
+            newFlow.getChildren().add(new Text(indexData.getResearchQuestion()));
+        } else {
+            newFlow.getChildren().addAll(toHighlightedText(researchQuestionSnippet));
         }
-        if (correctText.isEmpty()) {
+        newFlow.getChildren().add(new Text(System.lineSeparator()));
+        for (Snippet snippet : bodySnippets) {
+            final Text textPage = new Text(String.format("p. %d: ", snippet.getPage() + 1));
+            textPage.setFill(Color.DARKGRAY);
+            newFlow.getChildren().add(textPage);
+            newFlow.getChildren().addAll(toHighlightedText(snippet));
             newFlow.getChildren().add(new Text(System.lineSeparator()));
         }
+        newFlow.getChildren().add(new Text(System.lineSeparator()));
     }
 
 }
@@ -18,6 +18,7 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import me.XXX.eesearcher.common.ImportJournal;
 import me.XXX.eesearcher.common.IndexDataController;
 
 import java.io.File;
@@ -32,6 +33,10 @@ import java.util.concurrent.CompletableFuture;
  * - A button to submit essays for indexing
  * - A button to return to the homepage
  * - A progress bar to indicate current progress
+ * <p>
+ * If an earlier import was interrupted, the files it never processed are selected again when the page
+ * is drawn, and the progress bar continues from the progress recorded in the {@link ImportJournal}.
+ * </p>
  *
  * @see GuestHomepage
  */
@@ -65,6 +70,10 @@ public class ImportPage {
 
     private boolean indexing = false;
     private int indexingProgress = 0;
+    // The number of files an interrupted import had already processed
+    private int resumedProgress = 0;
+    // Whether the selection holds the files of an interrupted import
+    private boolean resumed = false;
 
     private Runnable toPreviousPage = () -> {
     };
@@ -72,6 +81,8 @@ public class ImportPage {
     @Inject
     private IndexDataController dataController;
     @Inject
+    private ImportJournal importJournal;
+    @Inject
     private Injector injector;
     // Stateful variables
     private SelectionState selectionState = SelectionState.EMPTY;
@@ -137,12 +148,17 @@ public class ImportPage {
             }
         }
         listView.getItems().removeAll(removed);
+        if (resumed) {
+            // Removed files of an interrupted import will not be resumed
+            importJournal.discard(removed);
+        }
         analyseState();
         evaluateState();
         return removed.size();
     }
 
     public void clearFiles() {
+        abandonInterruptedImport();
         this.fileCache.clear();
         listView.getItems().clear();
         this.selectionState = SelectionState.EMPTY;
@@ -204,6 +220,40 @@ public class ImportPage {
     public void draw() {
         sceneController.setSceneFrom(this);
         stage.setTitle("Add Extended Essays");
+        resumeInterruptedImport();
+    }
+
+    /**
+     * Select the files of an interrupted import which were never processed, unless files are already selected.
+     */
+    private void resumeInterruptedImport() {
+        if (indexing || !fileCache.isEmpty()) {
+            return;
+        }
+        final ImportJournal.Progress progress = importJournal.progress();
+        // Files which were removed since the import was interrupted are already dropped
+        final List<File> remaining = progress.getRemaining();
+        if (remaining.isEmpty()) {
+            return;
+        }
+        this.resumed = true;
+        addFiles(remaining);
+        this.resumedProgress = progress.getCompleted();
+        progressBar.setProgress(resumedProgress / (double) (resumedProgress + remaining.size()));
+        progressBar.setVisible(true);
+        displayInfo(Color.BLACK, String.format("Resuming an interrupted import: %d of %d files remaining, submit to continue",
+                remaining.size(), resumedProgress + remaining.size()));
+    }
+
+    /**
+     * Discard the interrupted import the selection was resumed from, if any, so it is not offered again.
+     */
+    private void abandonInterruptedImport() {
+        if (resumed) {
+            importJournal.discard();
+            this.resumed = false;
+        }
+        this.resumedProgress = 0;
     }
 
     private void initStage() {
@@ -216,6 +266,7 @@ public class ImportPage {
 
         buttonBack.setOnAction(event -> {
             // Clear current selection
+            abandonInterruptedImport();
             removeFiles(new ArrayList<>(this.fileCache));
             toPreviousPage.run();
             event.consume();
@@ -412,13 +463,23 @@ public class ImportPage {
         disableButton(buttonBack);
         final List<File> items = new ArrayList<>(listView.getItems());
         final List<File> successfulItems = new ArrayList<>();
-        final double size = items.size();
+        final List<File> skippedItems = new ArrayList<>();
+        final int resumed = this.resumedProgress;
+        final double size = resumed + items.size();
         progressBar.setVisible(true);
-        final CompletableFuture<Void> future = dataController.performIndexing(items, (file, success) -> Platform.runLater(() -> {
-            final int done = ++indexingProgress;
+        final CompletableFuture<Void> future = dataController.performImport(items, (file, status) -> Platform.runLater(() -> {
+            final int done = resumed + ++indexingProgress;
             progressBar.setProgress(done / size);
-            if (success) {
-                successfulItems.add(file);
+            switch (status) {
+                case INDEXED:
+                    successfulItems.add(file);
+                    break;
+                case SKIPPED:
+                    // Already indexed with identical content
+                    skippedItems.add(file);
+                    break;
+                default:
+                    break;
             }
         }));
         future.exceptionally((ex) -> {
@@ -426,10 +487,17 @@ public class ImportPage {
             return null;
         }).thenRun(() -> Platform.runLater(() -> {
             this.indexingProgress = 0;
+            this.resumedProgress = 0;
+            this.resumed = false;
             this.indexing = false;
             listView.getItems().removeAll(successfulItems);
+            listView.getItems().removeAll(skippedItems);
             fileCache.removeAll(successfulItems);
+            fileCache.removeAll(skippedItems);
             progressBar.setVisible(false);
+            final int failed = items.size() - successfulItems.size() - skippedItems.size();
+            displayInfo(failed == 0 ? Color.GREEN : Color.RED,
+                    String.format("%d files indexed, %d unchanged files skipped, %d failed", successfulItems.size(), skippedItems.size(), failed));
             enableButton(buttonBack);
         }));
     }
@@ -0,0 +1,206 @@
+package me.XXX.eesearcher.common;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.data.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Month;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the queries answered by the {@link MetadataCatalog} with the same queries answered by H2, as
+ * {@link H2SearchBackend} does until the catalog has been loaded. The database is filled with the metadata
+ * of generated essays, without any PDFs. Both paths must return the same pages, and the time each takes per
+ * page is printed. The name keeps it out of the default test run, run it with
+ * {@code mvn test -Dtest=CatalogQueryBenchmark -Dbenchmark.essays=100000}.
+ */
+public class CatalogQueryBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int WARMUP = 500;
+    private static final int ITERATIONS = 200;
+    private static final String[] WORDS = {"energy", "growth", "light", "water", "market", "memory", "poetry",
+            "climate", "protein", "velocity", "tariff", "identity", "novel", "theorem", "sound", "voltage"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HikariPool pool;
+    private ScheduledExecutorService executorService;
+    private Subjects subjects;
+    private DataUtil dataUtil;
+    private TrigramIndex trigramIndex;
+    private MetadataCatalog catalog;
+    private H2SearchBackend backend;
+
+    @Before
+    public void setUp() throws Exception {
+        final SystemConfiguration configuration = new SystemConfiguration();
+        configuration.setDatabasePath(new File(folder.getRoot(), "data.db"));
+        final HikariConfig config = new HikariConfig();
+        config.setUsername(configuration.databaseUsername());
+        config.setPassword(configuration.databasePassword());
+        config.setJdbcUrl("jdbc:h2://" + configuration.databasePath().getAbsolutePath());
+        config.setMaximumPoolSize(2);
+        pool = new HikariPool(config);
+        executorService = Executors.newScheduledThreadPool(2);
+        // Only Guice creates the subject database in the application
+        final Constructor<SubjectDatabase> constructor = SubjectDatabase.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        final SubjectDatabase subjectDatabase = constructor.newInstance();
+        subjects = new Subjects(subjectDatabase);
+        dataUtil = new DataUtil();
+        inject(dataUtil, "pool", pool);
+        inject(dataUtil, "subjectDatabase", subjectDatabase);
+        inject(dataUtil, "configuration", configuration);
+        final FullTextIndex fullTextIndex = new FullTextIndex();
+        inject(fullTextIndex, "configuration", configuration);
+        trigramIndex = new TrigramIndex();
+        catalog = new MetadataCatalog();
+        backend = new H2SearchBackend();
+        inject(backend, "dataUtil", dataUtil);
+        inject(backend, "connectionPool", pool);
+        inject(backend, "executorService", executorService);
+        inject(backend, "configuration", configuration);
+        inject(backend, "fullTextIndex", fullTextIndex);
+        inject(backend, "trigramIndex", trigramIndex);
+        inject(backend, "catalog", catalog);
+        inject(backend, "patternCache", new PatternCache());
+        dataUtil.initDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executorService.shutdown();
+        pool.shutdown();
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Test
+    public void compareWithDatabase() throws Exception {
+        final int essays = Integer.getInteger("benchmark.essays", 50_000);
+        insertEssays(essays);
+        backend.open();
+        while (!catalog.isComplete()) {
+            Thread.sleep(10);
+        }
+
+        final Map<String, QueryParameters> queries = new LinkedHashMap<>();
+        queries.put("selective regex", QueryParameters.builder().regex("tariff.*voltage").build());
+        queries.put("rare regex", QueryParameters.builder().regex("voltage 123").build());
+        queries.put("rare in subject", QueryParameters.builder().regex("voltage 1").subjects(subjects.PHYSICS).build());
+        queries.put("broad regex", QueryParameters.builder().regex("e").regexFlags('i').build());
+        queries.put("subject filter", QueryParameters.builder().subjects(subjects.PHYSICS, subjects.ECONOMICS).build());
+        queries.put("no filter", QueryParameters.builder().build());
+        System.out.printf("%d essays, pages of %d, mean of %d runs%n", essays, PAGE_SIZE, ITERATIONS);
+        for (Map.Entry<String, QueryParameters> query : queries.entrySet()) {
+            final QueryParameters parameters = query.getValue();
+            final int[] candidates = candidates(parameters);
+            // The second page starts after a cursor, so both paths must agree on it as well
+            final List<IndexData> firstPage = catalogPage(parameters, null);
+            assertEquals(query.getKey(), databasePage(parameters, candidates, null), firstPage);
+            final QueryCursor cursor = firstPage.isEmpty() ? null : QueryCursor.of(firstPage.get(firstPage.size() - 1));
+            assertEquals(query.getKey(), databasePage(parameters, candidates, cursor), catalogPage(parameters, cursor));
+
+            final double catalogMillis = time(() -> catalogPage(parameters, null).size());
+            // The backend looks the trigrams up before querying H2 as well, so that is part of the time
+            final double databaseMillis = time(() -> databasePage(parameters, candidates(parameters), null).size());
+            System.out.printf("%-16s catalog %8.3f ms   h2 %8.3f ms%n", query.getKey(), catalogMillis, databaseMillis);
+        }
+    }
+
+    private int[] candidates(QueryParameters parameters) {
+        return parameters.regex == null ? null : trigramIndex.candidates(parameters.regex)
+                .filter(ids -> ids.length <= H2SearchBackend.MAX_TRIGRAM_CANDIDATES)
+                .orElse(null);
+    }
+
+    private List<IndexData> catalogPage(QueryParameters parameters, QueryCursor cursor) throws Exception {
+        final List<IndexData> page = new ArrayList<>();
+        for (SearchResult result : backend.query(parameters, cursor, PAGE_SIZE, batch -> {
+        }).getResults()) {
+            page.add(result.getIndexData());
+        }
+        return page;
+    }
+
+    private List<IndexData> databasePage(QueryParameters parameters, int[] candidates, QueryCursor cursor) throws Exception {
+        final List<IndexData> page = new ArrayList<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = dataUtil.newSearch(connection, parameters, candidates,
+                     Collections.emptySet(), cursor, PAGE_SIZE);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                page.add(dataUtil.extractIndexData(resultSet));
+            }
+        }
+        return page;
+    }
+
+    private void insertEssays(int essays) throws Exception {
+        final Subject[] choices = {subjects.PHYSICS, subjects.ECONOMICS, subjects.HISTORY, subjects.BIOLOGY,
+                subjects.CHEMISTRY, subjects.GEOGRAPHY, subjects.PSYCHOLOGY, subjects.COMPUTER_SCIENCE};
+        final Random random = new Random(42);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = dataUtil.newEntryStatement(connection, true)) {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < essays; i++) {
+                final String title = word(random) + " and " + word(random) + " " + i;
+                final String question = "To what extent does " + word(random) + " affect " + word(random) + "?";
+                final ExamSession session = ExamSession.of(random.nextBoolean() ? Month.MAY : Month.NOVEMBER, 2010 + random.nextInt(12));
+                final IndexData indexData = IndexData.from(title, choices[random.nextInt(choices.length)], question, session);
+                // Only the metadata is stored, the PDF column is left empty as for essays in the blob store
+                try (Essay essay = new Essay(indexData, new PDDocument())) {
+                    dataUtil.addExternalEntry(statement, essay);
+                }
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static double time(Query query) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            query.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+    }
+
+    @FunctionalInterface
+    private interface Query {
+        int run() throws Exception;
+    }
+}
@@ -0,0 +1,93 @@
+package me.XXX.eesearcher.common;
+
+import org.junit.Test;
+
+import java.time.Month;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoverPageScannerTest {
+
+    private static final int MAX_READS_PER_CHARACTER = 16;
+
+    @Test
+    public void labelledFields() {
+        final CoverPageScanner scanner = CoverPageScanner.scan("Subject: Physics HL\n"
+                + "Title: Damping of a pendulum.\n"
+                + "Research Question: How does the length of a pendulum\n"
+                + "affect its damping? An investigation\n"
+                + "May 2021\n");
+        assertEquals("Physics", scanner.getSubject());
+        assertEquals("Damping of a pendulum", scanner.getTitle());
+        assertEquals("How does the length of a pendulum affect its damping?", scanner.getResearchQuestion());
+        assertEquals(Month.MAY, scanner.getExamMonth());
+        assertEquals(2021, scanner.getExamYear());
+    }
+
+    @Test
+    public void questionMarkBeforeLabel() {
+        // A question mark on an earlier line does not end the research question
+        final CoverPageScanner scanner = CoverPageScanner.scan("Why?\nResearch Question: To what extent\ndoes it?\n");
+        assertEquals("To what extent does it?", scanner.getResearchQuestion());
+    }
+
+    @Test
+    public void readsScaleLinearly() {
+        // Lines which open and continue fields, or nearly match labels and exam sessions
+        final String lines = "Research Question: x\n"
+                + "Research Question: no question mark\ncontinued without one\n"
+                + "Title: Topic: Subject: research question: title:\n"
+                + "title titl research questio subject\n"
+                + "May 20 November 201 may2021 Why?\n"
+                + "\n";
+        for (int count : new int[]{2000, 8000}) {
+            final CountingText text = new CountingText(lines.repeat(count));
+            CoverPageScanner.scan(text);
+            final double readsPerCharacter = text.reads / (double) text.length();
+            // A quadratic scan reads every character once per line before it, thousands of times
+            assertTrue(String.format("%.1f reads per character of %d lines", readsPerCharacter, count * 7),
+                    readsPerCharacter < MAX_READS_PER_CHARACTER);
+        }
+        // A single line holding every label
+        final CountingText text = new CountingText("Title: Research Question: Subject: ".repeat(20000));
+        CoverPageScanner.scan(text);
+        assertTrue(text.reads < MAX_READS_PER_CHARACTER * text.length());
+    }
+
+    /**
+     * Counts every character read by the scanner.
+     */
+    private static final class CountingText implements CharSequence {
+
+        private final String text;
+        private long reads;
+
+        private CountingText(final String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            reads++;
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            reads += end - start;
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            reads += text.length();
+            return text;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package me.XXX.eesearcher.common;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DocIdBitmapTest {
+
+    private static final int CHUNK = 1 << 16;
+
+    private static DocIdBitmap bitmap(final Iterable<Integer> ids) {
+        final DocIdBitmap bitmap = new DocIdBitmap();
+        ids.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static List<Integer> ids(final DocIdBitmap bitmap) {
+        final List<Integer> ids = new ArrayList<>();
+        bitmap.forEach(ids::add);
+        return ids;
+    }
+
+    /**
+     * Assert that a bitmap holds exactly the expected ids, in ascending order.
+     */
+    private static void assertIds(final TreeSet<Integer> expected, final DocIdBitmap bitmap) {
+        assertEquals(new ArrayList<>(expected), ids(bitmap));
+        assertEquals(expected.size(), bitmap.cardinality());
+        for (int id : expected) {
+            assertTrue(bitmap.contains(id));
+        }
+    }
+
+    /**
+     * @return Returns every id of a chunk whose lower bits are a multiple of a step
+     */
+    private static TreeSet<Integer> every(final int chunk, final int step, final int count) {
+        final TreeSet<Integer> ids = new TreeSet<>();
+        for (int i = 0; i < count; i++) {
+            ids.add(chunk * CHUNK + i * step);
+        }
+        return ids;
+    }
+
+    @Test
+    public void arrayLimit() {
+        final DocIdBitmap bitmap = new DocIdBitmap();
+        final TreeSet<Integer> expected = new TreeSet<>();
+        // Added in descending order so every id is inserted at the front of the array
+        for (int i = DocIdBitmap.ARRAY_LIMIT; i >= 0; i--) {
+            bitmap.add(i * 3);
+            expected.add(i * 3);
+        }
+        // The last id turned the chunk into a bitmap, adding it again changes nothing
+        bitmap.add(0);
+        assertIds(expected, bitmap);
+        assertFalse(bitmap.contains(1));
+
+        // Back to the limit turns it into an array again
+        bitmap.remove(DocIdBitmap.ARRAY_LIMIT * 3);
+        expected.remove(DocIdBitmap.ARRAY_LIMIT * 3);
+        assertIds(expected, bitmap);
+        bitmap.remove(1);
+        assertIds(expected, bitmap);
+
+        // And past it once more
+        bitmap.add(1);
+        expected.add(1);
+        assertIds(expected, bitmap);
+
+        for (int id : new ArrayList<>(expected)) {
+            bitmap.remove(id);
+        }
+        assertEquals(0, bitmap.cardinality());
+        assertEquals(new ArrayList<>(), ids(bitmap));
+    }
+
+    @Test
+    public void mixedRepresentations() {
+        // A full chunk, a sparse one, and chunks the other side lacks
+        final TreeSet<Integer> dense = every(0, 2, DocIdBitmap.ARRAY_LIMIT * 2);
+        dense.addAll(every(2, 1, 10));
+        final TreeSet<Integer> sparse = every(0, 3, 1000);
+        sparse.addAll(every(1, 7, 10));
+        final TreeSet<Integer> denser = every(0, 3, DocIdBitmap.ARRAY_LIMIT * 2);
+
+        for (TreeSet<Integer> a : List.of(dense, sparse, denser)) {
+            for (TreeSet<Integer> b : List.of(dense, sparse, denser)) {
+                final DocIdBitmap left = bitmap(a);
+                final DocIdBitmap right = bitmap(b);
+                final TreeSet<Integer> intersection = new TreeSet<>(a);
+                intersection.retainAll(b);
+                final TreeSet<Integer> union = new TreeSet<>(a);
+                union.addAll(b);
+                assertIds(intersection, left.and(right));
+                assertIds(union, left.or(right));
+                // The operands are left unchanged
+                assertIds(a, left);
+                assertIds(b, right);
+            }
+        }
+    }
+
+    @Test
+    public void operationResults() {
+        // Two bitmaps whose intersection is small enough for an array, and two arrays whose union is not
+        final DocIdBitmap evens = bitmap(every(0, 2, DocIdBitmap.ARRAY_LIMIT * 2));
+        final DocIdBitmap thirds = bitmap(every(0, 3, DocIdBitmap.ARRAY_LIMIT * 2));
+        final TreeSet<Integer> sixths = every(0, 6, (DocIdBitmap.ARRAY_LIMIT * 2 * 2 + 5) / 6);
+        final DocIdBitmap intersection = evens.and(thirds);
+        assertIds(sixths, intersection);
+        // The result must still switch representation correctly when it grows
+        final TreeSet<Integer> grown = new TreeSet<>(sixths);
+        for (int id = 1; grown.size() <= DocIdBitmap.ARRAY_LIMIT + 1; id += 6) {
+            intersection.add(id);
+            grown.add(id);
+        }
+        assertIds(grown, intersection);
+
+        final TreeSet<Integer> low = every(0, 2, DocIdBitmap.ARRAY_LIMIT);
+        final TreeSet<Integer> high = new TreeSet<>();
+        low.forEach(id -> high.add(id + 1));
+        final TreeSet<Integer> union = new TreeSet<>(low);
+        union.addAll(high);
+        final DocIdBitmap merged = bitmap(low).or(bitmap(high));
+        assertIds(union, merged);
+        merged.remove(0);
+        union.remove(0);
+        assertIds(union, merged);
+    }
+
+    @Test
+    public void forEachAcrossChunks() {
+        final TreeSet<Integer> expected = new TreeSet<>();
+        // Both sides of chunk boundaries, with an empty chunk in between
+        expected.add(0);
+        expected.add(CHUNK - 1);
+        expected.add(CHUNK);
+        expected.addAll(every(3, 1, DocIdBitmap.ARRAY_LIMIT + 1));
+        expected.add(4 * CHUNK - 1);
+        expected.add(5 * CHUNK);
+        final DocIdBitmap bitmap = new DocIdBitmap();
+        expected.descendingSet().forEach(bitmap::add);
+        assertIds(expected, bitmap);
+        // Emptied chunks are skipped
+        bitmap.remove(CHUNK);
+        expected.remove(CHUNK);
+        assertIds(expected, bitmap);
+    }
+
+    @Test
+    public void randomOperations() {
+        final Random random = new Random(7);
+        final DocIdBitmap bitmap = new DocIdBitmap();
+        final TreeSet<Integer> expected = new TreeSet<>();
+        // Three chunks with about ARRAY_LIMIT ids each, so they keep crossing the limit
+        final int slots = DocIdBitmap.ARRAY_LIMIT * 5 / 3;
+        for (int i = 0; i < 200_000; i++) {
+            final int slot = random.nextInt(3 * slots);
+            final int id = slot / slots * CHUNK + slot % slots * 9;
+            if (random.nextInt(5) < 3) {
+                bitmap.add(id);
+                expected.add(id);
+            } else {
+                bitmap.remove(id);
+                expected.remove(id);
+            }
+        }
+        assertIds(expected, bitmap);
+        assertIds(expected, bitmap.copy());
+    }
+}
@@ -0,0 +1,96 @@
+package me.XXX.eesearcher.common;
+
+import me.XXX.eesearcher.SystemConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FullTextIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FullTextIndex newIndex() throws Exception {
+        final SystemConfiguration configuration = new SystemConfiguration();
+        configuration.setDatabasePath(new File(folder.getRoot(), "data.db"));
+        final FullTextIndex index = new FullTextIndex();
+        final Field field = FullTextIndex.class.getDeclaredField("configuration");
+        field.setAccessible(true);
+        field.set(index, configuration);
+        return index;
+    }
+
+    @Test
+    public void phrases() throws Exception {
+        final FullTextIndex index = newIndex();
+        // Ids out of order, so lookups rely on the posting lists being sorted
+        index.index(7, Arrays.asList("The speed of sound", "in dry air"));
+        index.index(3, Collections.singletonList("Sound travels at a speed"));
+        index.index(5, Collections.singletonList("speed of light"));
+        assertEquals(new HashSet<>(Arrays.asList(5, 7)), index.search("speed of"));
+        assertEquals(Collections.singleton(7), index.search("sound in dry"));
+        assertEquals(new HashSet<>(Arrays.asList(3, 7)), index.search("SOUND"));
+        assertTrue(index.search("light speed").isEmpty());
+    }
+
+    @Test
+    public void phraseOffsets() {
+        final String text = "Speed of sound; the SPEED  of sound, speed of speed of light";
+        final List<int[]> occurrences = FullTextIndex.findPhrase(text, FullTextIndex.tokenize("speed of"));
+        assertEquals(4, occurrences.size());
+        assertEquals("Speed of", text.substring(occurrences.get(0)[0], occurrences.get(0)[1]));
+        assertEquals("SPEED  of", text.substring(occurrences.get(1)[0], occurrences.get(1)[1]));
+        // A repeated phrase is found at every occurrence
+        assertEquals(text.indexOf("speed of speed"), occurrences.get(2)[0]);
+        assertEquals(text.lastIndexOf("speed of"), occurrences.get(3)[0]);
+        // Regex syntax only separates terms, as in a search
+        assertEquals(1, FullTextIndex.findPhrase(text, FullTextIndex.tokenize("(sound)\\W+the")).size());
+        assertTrue(FullTextIndex.findPhrase(text, FullTextIndex.tokenize("light speed")).isEmpty());
+        assertTrue(FullTextIndex.findPhrase(text, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void replaceAndRemove() throws Exception {
+        final FullTextIndex index = newIndex();
+        for (int i = 0; i < 100; i++) {
+            index.index(i, Collections.singletonList("common word" + i));
+        }
+        index.index(42, Collections.singletonList("replaced"));
+        assertEquals(99, index.search("common").size());
+        assertTrue(index.search("word42").isEmpty());
+        assertEquals(Collections.singleton(42), index.search("replaced"));
+        for (int i = 0; i < 100; i += 2) {
+            index.remove(i);
+        }
+        assertEquals(50, index.search("common").size());
+        assertEquals(50, index.documentCount());
+        // The terms of removed essays leave the dictionary
+        assertEquals(51, index.termCount());
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        final FullTextIndex index = newIndex();
+        index.index(2, Arrays.asList("one two three two", "one two"));
+        index.index(1, Collections.singletonList("two one"));
+        index.save();
+        final FullTextIndex loaded = newIndex();
+        assertTrue(loaded.load());
+        assertEquals(index.termCount(), loaded.termCount());
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), loaded.search("two one"));
+        assertEquals(Collections.singleton(2), loaded.search("three two one"));
+        loaded.remove(2);
+        assertEquals(Collections.singleton(1), loaded.search("two"));
+        assertEquals(1, loaded.documentCount());
+    }
+}
@@ -0,0 +1,125 @@
+package me.XXX.eesearcher.common;
+
+import me.XXX.eesearcher.SystemConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImportJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SystemConfiguration configuration;
+    private File first;
+    private File second;
+    private File third;
+
+    @Before
+    public void setUp() throws IOException {
+        configuration = new SystemConfiguration();
+        configuration.setDatabasePath(new File(folder.getRoot(), "data.db"));
+        first = folder.newFile("first.pdf");
+        second = folder.newFile("second.pdf");
+        third = folder.newFile("third.pdf");
+    }
+
+    private ImportJournal journal() throws ReflectiveOperationException {
+        final ImportJournal journal = new ImportJournal();
+        final Field field = ImportJournal.class.getDeclaredField("configuration");
+        field.setAccessible(true);
+        field.set(journal, configuration);
+        return journal;
+    }
+
+    /**
+     * Index the first file of a run and stop, as if the application was closed.
+     */
+    private void interruptedRun() throws Exception {
+        final ImportJournal journal = journal();
+        journal.begin(Arrays.asList(first, second, third));
+        journal.record(first, IndexDataController.IndexingStatus.INDEXED);
+        journal.close();
+    }
+
+    @Test
+    public void resumesInterruptedRun() throws Exception {
+        interruptedRun();
+        final ImportJournal journal = journal();
+        final ImportJournal.Progress progress = journal.progress();
+        assertEquals(Arrays.asList(second.getAbsoluteFile(), third.getAbsoluteFile()), progress.getRemaining());
+        assertEquals(1, progress.getIndexed());
+        assertEquals(3, progress.getTotal());
+
+        // Finishing the remaining files deletes the journal
+        journal.begin(progress.getRemaining());
+        journal.record(second, IndexDataController.IndexingStatus.SKIPPED);
+        journal.record(third, IndexDataController.IndexingStatus.INDEXED);
+        journal.end();
+        assertFalse(configuration.importJournalPath().exists());
+        assertEquals(0, journal().progress().getTotal());
+    }
+
+    @Test
+    public void dropsMissingFiles() throws Exception {
+        interruptedRun();
+        assertTrue(second.delete());
+        assertEquals(Collections.singletonList(third.getAbsoluteFile()), journal().progress().getRemaining());
+
+        // Once no queued file exists the journal is deleted, along with the outcome of the run
+        assertTrue(third.delete());
+        final ImportJournal.Progress progress = journal().progress();
+        assertEquals(0, progress.getTotal());
+        assertFalse(configuration.importJournalPath().exists());
+    }
+
+    @Test
+    public void discardsInterruptedRun() throws Exception {
+        interruptedRun();
+        final ImportJournal journal = journal();
+        assertEquals(2, journal.progress().getRemaining().size());
+        journal.discard();
+        assertEquals(0, journal.progress().getTotal());
+        assertFalse(configuration.importJournalPath().exists());
+        assertEquals(0, journal().progress().getTotal());
+    }
+
+    @Test
+    public void discardsRemovedFiles() throws Exception {
+        interruptedRun();
+        final ImportJournal journal = journal();
+        journal.discard(Collections.singletonList(second));
+        final List<File> remaining = journal().progress().getRemaining();
+        assertEquals(Collections.singletonList(third.getAbsoluteFile()), remaining);
+
+        journal.discard(remaining);
+        assertFalse(configuration.importJournalPath().exists());
+    }
+
+    @Test
+    public void keepsActiveRun() throws Exception {
+        final ImportJournal journal = journal();
+        journal.begin(Arrays.asList(first, second));
+        journal.discard();
+        journal.discard(Collections.singletonList(first));
+        assertEquals(2, journal.progress().getRemaining().size());
+        journal.record(first, IndexDataController.IndexingStatus.FAILED);
+        journal.end();
+        // The second file was never processed, so it is still queued
+        final ImportJournal.Progress progress = journal().progress();
+        assertEquals(Collections.singletonList(second.getAbsoluteFile()), progress.getRemaining());
+        assertEquals(1, progress.getFailed());
+    }
+}
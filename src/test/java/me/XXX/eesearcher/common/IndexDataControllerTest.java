@@ -0,0 +1,233 @@
+package me.XXX.eesearcher.common;
+
+import com.google.common.cache.CacheStats;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.pool.HikariPool;
+import me.XXX.eesearcher.SystemConfiguration;
+import me.XXX.eesearcher.data.*;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IndexDataControllerTest {
+
+    private static final int BUDGET = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HikariPool pool;
+    private ScheduledExecutorService executorService;
+    private Subjects subjects;
+    private DataUtil dataUtil;
+    private IndexDataController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        final SystemConfiguration configuration = new SystemConfiguration();
+        configuration.setDatabasePath(new File(folder.getRoot(), "data.db"));
+        configuration.setEssayCacheBudget(BUDGET / (1024 * 1024));
+        final HikariConfig config = new HikariConfig();
+        config.setUsername(configuration.databaseUsername());
+        config.setPassword(configuration.databasePassword());
+        config.setJdbcUrl("jdbc:h2://" + configuration.databasePath().getAbsolutePath());
+        config.setMaximumPoolSize(2);
+        pool = new HikariPool(config);
+        executorService = Executors.newScheduledThreadPool(2);
+        // Only Guice creates the subject database in the application
+        final Constructor<SubjectDatabase> constructor = SubjectDatabase.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        final SubjectDatabase subjectDatabase = constructor.newInstance();
+        subjects = new Subjects(subjectDatabase);
+        dataUtil = new DataUtil();
+        inject(dataUtil, "pool", pool);
+        inject(dataUtil, "subjectDatabase", subjectDatabase);
+        inject(dataUtil, "configuration", configuration);
+        dataUtil.initDatabase();
+        // Deleting an essay only needs the backend to accept the deletion
+        final SearchBackend searchBackend = (SearchBackend) Proxy.newProxyInstance(SearchBackend.class.getClassLoader(),
+                new Class<?>[]{SearchBackend.class}, (proxy, method, args) -> null);
+        controller = new IndexDataController();
+        inject(controller, "dataUtil", dataUtil);
+        inject(controller, "connectionPool", pool);
+        inject(controller, "executorService", executorService);
+        inject(controller, "configuration", configuration);
+        inject(controller, "searchBackend", searchBackend);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Essay essay : controller.getCachedEssays()) {
+            essay.close();
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(5, TimeUnit.SECONDS);
+        pool.shutdown();
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        final Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * Store an essay whose PDF is about a number of bytes long.
+     */
+    private IndexData insert(final String title, final int bytes) throws Exception {
+        final IndexData indexData = IndexData.from(title, subjects.PHYSICS, "Why " + title + "?", ExamSession.of(Month.MAY, 2020));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            final PDPage page = new PDPage();
+            // An unfiltered content stream of spaces, which are valid content and stored as they are
+            final byte[] content = new byte[bytes];
+            Arrays.fill(content, (byte) ' ');
+            page.setContents(new PDStream(document, new ByteArrayInputStream(content)));
+            document.addPage(page);
+            document.save(output);
+        }
+        try (Connection connection = pool.getConnection();
+             Essay essay = new Essay(indexData, output.toByteArray());
+             PreparedStatement statement = dataUtil.newEntry(connection, essay, true)) {
+            statement.executeUpdate();
+        }
+        return indexData;
+    }
+
+    private Essay load(final IndexData indexData) throws Exception {
+        final Optional<Essay> essay = controller.loadEssay(indexData).get(10, TimeUnit.SECONDS);
+        assertTrue(essay.isPresent());
+        return essay.get();
+    }
+
+    /**
+     * @return Returns the total size of the cached essays
+     */
+    private long cachedBytes() {
+        long bytes = 0;
+        for (Essay essay : controller.getCachedEssays()) {
+            bytes += essay.getSize();
+        }
+        return bytes;
+    }
+
+    @Test
+    public void weighsEssaysBySize() throws Exception {
+        final List<IndexData> essays = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            essays.add(insert("Essay " + i, BUDGET / 5));
+        }
+        for (IndexData indexData : essays) {
+            final Essay essay = load(indexData);
+            assertTrue(essay.getSize() >= BUDGET / 5);
+            essay.release();
+            // The essay just loaded is never the least recently used one
+            final Optional<Essay> cached = controller.getCachedEssay(indexData);
+            assertTrue(cached.isPresent());
+            cached.get().release();
+            assertTrue(cachedBytes() <= BUDGET);
+        }
+        final CacheStats stats = controller.getEssayCacheStats();
+        assertEquals(8, stats.missCount());
+        assertEquals(8, stats.hitCount());
+        // Every essay is slightly larger than a fifth of the budget, so at most four fit at once
+        assertTrue(stats.evictionCount() >= 4);
+        assertEquals(8 - stats.evictionCount(), controller.getCachedEssays().size());
+
+        // An essay larger than the whole budget is never kept
+        final IndexData large = insert("Large", BUDGET * 2);
+        final Essay essay = load(large);
+        assertFalse(controller.getCachedEssay(large).isPresent());
+        assertFalse(essay.isClosed());
+        essay.release();
+        assertTrue(essay.isClosed());
+    }
+
+    @Test
+    public void cachedEssayIsShared() throws Exception {
+        final IndexData indexData = insert("Shared", 1024);
+        final Essay first = load(indexData);
+        final Essay second = load(indexData);
+        assertSame(first, second);
+        assertEquals(1, controller.getEssayCacheStats().hitCount());
+        first.release();
+        second.release();
+        // Still referenced by the cache
+        assertFalse(first.isClosed());
+        assertTrue(controller.exportEssay(indexData).get(10, TimeUnit.SECONDS).isPresent());
+        assertFalse(first.isClosed());
+    }
+
+    @Test
+    public void evictedEssaysCloseOnceReleased() throws Exception {
+        final IndexData inUse = insert("In use", BUDGET / 3);
+        final IndexData unused = insert("Unused", BUDGET / 3);
+        final Essay used = load(inUse);
+        final Essay released = load(unused);
+        released.release();
+        // Load essays until both are evicted
+        for (int i = 0; controller.getCachedEssay(inUse).map(this::release).orElse(false)
+                || controller.getCachedEssay(unused).map(this::release).orElse(false); i++) {
+            assertTrue("Never evicted", i < 20);
+            load(insert("Filler " + i, BUDGET / 3)).release();
+        }
+        // The essay nobody holds is closed at once, the other one once its user is done with it
+        assertTrue(released.isClosed());
+        assertFalse(used.isClosed());
+        assertEquals(1, used.getDocument().getNumberOfPages());
+        used.release();
+        assertTrue(used.isClosed());
+    }
+
+    @Test
+    public void deletedEssaysCloseAtOnce() throws Exception {
+        final IndexData indexData = insert("Deleted", 1024);
+        final Essay essay = load(indexData);
+        controller.performDeletion(indexData).get(10, TimeUnit.SECONDS);
+        // Closed although it is still in use, as its PDF is gone
+        assertTrue(essay.isClosed());
+        essay.release();
+        assertFalse(controller.loadEssay(indexData).get(10, TimeUnit.SECONDS).isPresent());
+    }
+
+    /**
+     * Release an essay obtained from the cache.
+     *
+     * @return Returns true
+     */
+    private boolean release(final Essay essay) {
+        try {
+            essay.release();
+        } catch (Exception ex) {
+            throw new AssertionError(ex);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package me.XXX.eesearcher.common;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+    @AfterClass
+    public static void shutdown() {
+        EXECUTOR.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void errorsFailOnlyTheirItem() throws Exception {
+        final Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", EXECUTOR, 1)
+                .stage("first", 2, item -> {
+                    if (item == 3) {
+                        throw new StackOverflowError();
+                    }
+                })
+                .batchStage("second", 10, new Pipeline.BatchStep<Integer>() {
+                    @Override
+                    public boolean add(Integer item) {
+                        if (item == 5) {
+                            throw new AssertionError();
+                        }
+                        return false;
+                    }
+
+                    @Override
+                    public void flush(List<Integer> batch) {
+                    }
+                })
+                .build();
+        final Set<Integer> succeeded = ConcurrentHashMap.newKeySet();
+        final Set<Integer> failed = ConcurrentHashMap.newKeySet();
+        pipeline.run(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), succeeded::add, (item, ex) -> {
+            assertTrue(ex instanceof Error);
+            failed.add(item);
+        }).get(5, TimeUnit.SECONDS);
+        assertEquals(6, succeeded.size());
+        assertEquals(2, failed.size());
+        assertTrue(failed.contains(3) && failed.contains(5));
+    }
+
+    @Test(timeout = 10000)
+    public void failedBatchesComplete() throws Exception {
+        final Pipeline<Integer> pipeline = Pipeline.<Integer>builder("test", EXECUTOR, 2)
+                .batchStage("batch", 0, new Pipeline.BatchStep<Integer>() {
+                    @Override
+                    public boolean add(Integer item) {
+                        return true;
+                    }
+
+                    @Override
+                    public void flush(List<Integer> batch) {
+                        throw new LinkageError();
+                    }
+                })
+                .build();
+        final Set<Integer> failed = ConcurrentHashMap.newKeySet();
+        pipeline.run(Arrays.asList(1, 2, 3), item -> {
+        }, (item, ex) -> failed.add(item)).get(5, TimeUnit.SECONDS);
+        assertEquals(3, failed.size());
+    }
+}
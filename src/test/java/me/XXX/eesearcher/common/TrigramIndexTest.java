@@ -0,0 +1,127 @@
+package me.XXX.eesearcher.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrigramIndexTest {
+
+    private static Set<String> trigrams(final TrigramIndex.Query query) {
+        final Set<String> trigrams = new TreeSet<>();
+        collect(query, trigrams);
+        return trigrams;
+    }
+
+    private static void collect(final TrigramIndex.Query query, final Set<String> trigrams) {
+        if (query.type == TrigramIndex.Query.Type.TRIGRAM) {
+            trigrams.add(query.trigram);
+        }
+        for (TrigramIndex.Query child : query.children) {
+            collect(child, trigrams);
+        }
+    }
+
+    private static Set<String> set(final String... trigrams) {
+        return new TreeSet<>(Arrays.asList(trigrams));
+    }
+
+    /**
+     * Assert that an essay matched by the regular expression is always a candidate.
+     */
+    private static void assertCandidate(final String regex, final String text) {
+        assertTrue(regex + " should match " + text, Pattern.compile(regex).matcher(text).find());
+        final TrigramIndex index = new TrigramIndex();
+        index.index(1, text);
+        index.markComplete();
+        final Optional<int[]> candidates = index.candidates(regex);
+        assertTrue(regex + " ruled out " + text, !candidates.isPresent() || Arrays.equals(new int[]{1}, candidates.get()));
+    }
+
+    @Test
+    public void literals() {
+        assertEquals(set("abc", "bcd"), trigrams(TrigramIndex.decompose("abcd")));
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("ab").type);
+        assertCandidate("Research Question", "the Research Question");
+    }
+
+    @Test
+    public void hexEscapes() {
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("\\x41bc").type);
+        assertEquals(set("bcd"), trigrams(TrigramIndex.decompose("\\x41bcd")));
+        assertEquals(set("bcd"), trigrams(TrigramIndex.decompose("\\x{41}bcd")));
+        assertCandidate("\\x41bc", "Abc");
+        assertCandidate("\\x{41}bcd", "Abcd");
+    }
+
+    @Test
+    public void unicodeEscapes() {
+        assertEquals(set("bcd"), trigrams(TrigramIndex.decompose("\\u0041bcd")));
+        assertCandidate("\\u0041bcd", "Abcd");
+    }
+
+    @Test
+    public void octalEscapes() {
+        assertEquals(set("bcd"), trigrams(TrigramIndex.decompose("\\0101bcd")));
+        // A first digit above 3 allows only two digits
+        assertEquals(set("234", "345"), trigrams(TrigramIndex.decompose("\\0712345")));
+        assertCandidate("\\0101bcd", "Abcd");
+        assertCandidate("\\0712345", "92345");
+    }
+
+    @Test
+    public void controlEscapes() {
+        assertEquals(set("bcd"), trigrams(TrigramIndex.decompose("\\cAbcd")));
+        assertCandidate("\\cAbcd", "\u0001bcd");
+    }
+
+    @Test
+    public void backReferences() {
+        assertEquals(set("xyz"), trigrams(TrigramIndex.decompose("(?<n>a)\\k<n>xyz")));
+        assertEquals(set("xyz"), trigrams(TrigramIndex.decompose("(a)\\1xyz")));
+        assertCandidate("(?<name>ab)\\k<name>xyz", "ababxyz");
+        assertCandidate("(a)\\1xyz", "aaxyz");
+    }
+
+    @Test
+    public void inlineFlags() {
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("(?x)a b c").type);
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("(?i)abc").type);
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("abc(?-i)def").type);
+        assertEquals(TrigramIndex.Query.Type.ALL, TrigramIndex.decompose("(?x:a b c)").type);
+        assertCandidate("(?x)a b c", "abc");
+    }
+
+    @Test
+    public void caseFolding() {
+        // String.toLowerCase turns the dotted capital I into two chars, Character.toLowerCase into one
+        assertEquals(set("ist", "sta", "tan"), trigrams(TrigramIndex.decompose("\u0130stan")));
+        assertCandidate("\u0130stanbul", "\u0130stanbul");
+        assertCandidate("\\Q\u0130stanbul\\E", "\u0130stanbul");
+    }
+
+    @Test
+    public void removal() {
+        final TrigramIndex index = new TrigramIndex();
+        index.markComplete();
+        index.index(1, "alpha", "beta");
+        index.index(2, "alphabet");
+        index.index(3, "gamma");
+        assertEquals(Optional.of("[1, 2]"), index.candidates("alpha").map(Arrays::toString));
+        // Re-indexing replaces the trigrams of the essay, even before the postings are sorted again
+        index.index(1, "gamma");
+        index.remove(2);
+        assertEquals(Optional.of("[]"), index.candidates("alpha").map(Arrays::toString));
+        assertEquals(Optional.of("[1, 3]"), index.candidates("gamma").map(Arrays::toString));
+        index.remove(3);
+        index.remove(3);
+        assertEquals(Optional.of("[1]"), index.candidates("gamma").map(Arrays::toString));
+        assertEquals(1, index.size());
+    }
+}
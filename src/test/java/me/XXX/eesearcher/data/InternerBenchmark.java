@@ -0,0 +1,207 @@
+package me.XXX.eesearcher.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import me.XXX.eesearcher.common.ExamSession;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Compares the interner of {@link IndexData} with the synchronized cache it replaced, with several threads
+ * interning the same essays at once. Both intern an object with the characteristics of an essay, so only the
+ * interning differs, and {@link IndexData#from(String, Subject, String, ExamSession)} itself is timed as well.
+ * The time each takes per call is printed. The name keeps it out of the default test run, run it with
+ * {@code mvn test -Dtest=InternerBenchmark -Dbenchmark.threads=4}.
+ */
+public class InternerBenchmark {
+
+    private static final int ESSAYS = 1000;
+    private static final int CALLS = 500_000;
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+
+    private static final Subject[] SUBJECTS = {new Subject((byte) 1, "Physics", false),
+            new Subject((byte) 1, "History", false), new Subject((byte) 1, "Economics", false)};
+    // Built once, so the calls only differ in how they intern
+    private static final String[] TITLES = new String[ESSAYS];
+    private static final String[] QUESTIONS = new String[ESSAYS];
+    private static final ExamSession[] SESSIONS = new ExamSession[ESSAYS];
+
+    static {
+        for (int i = 0; i < ESSAYS; i++) {
+            TITLES[i] = "Essay " + i;
+            QUESTIONS[i] = "To what extent is " + i + " interesting?";
+            SESSIONS[i] = ExamSession.of(i % 2 == 0 ? Month.MAY : Month.NOVEMBER, 2010 + i % 10);
+        }
+    }
+
+    @Test
+    public void compareWithSynchronizedCache() throws Exception {
+        final int maxThreads = Integer.getInteger("benchmark.threads", 4);
+        final Interner<Characteristics> interner = Interners.newWeakInterner();
+        final SynchronizedCache cache = new SynchronizedCache();
+        // Referenced for the whole run, as the weak interner would otherwise release the instances
+        final List<Object> retained = new ArrayList<>();
+        for (int i = 0; i < ESSAYS; i++) {
+            retained.add(interner.intern(characteristics(i)));
+            retained.add(cache.intern(characteristics(i)));
+            retained.add(indexData(i));
+        }
+
+        System.out.printf("%d essays, %d calls per thread, best of %d runs%n", ESSAYS, CALLS, ITERATIONS);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final double cacheNanos = time(threads, i -> cache.intern(characteristics(i)));
+            final double internerNanos = time(threads, i -> interner.intern(characteristics(i)));
+            final double indexDataNanos = time(threads, InternerBenchmark::indexData);
+            System.out.printf("%d threads   synchronized cache %6.1f ns   weak interner %6.1f ns   IndexData.from %6.1f ns%n",
+                    threads, cacheNanos, internerNanos, indexDataNanos);
+        }
+
+        for (int i = 0; i < ESSAYS; i++) {
+            assertSame(indexData(i), indexData(i));
+        }
+        // Different essays whose unique ids collide, "Aa" and "BB" have the same hash code
+        final IndexData first = IndexData.from("Aa", SUBJECTS[0], "Why?", ExamSession.of(Month.MAY, 2020));
+        final IndexData second = IndexData.from("BB", SUBJECTS[0], "Why?", ExamSession.of(Month.MAY, 2020));
+        assertEquals(first.getUniqueID(), second.getUniqueID());
+        assertNotSame(first, second);
+        retained.clear();
+    }
+
+    private static Characteristics characteristics(final int essay) {
+        return new Characteristics(title(essay), SUBJECTS[essay % SUBJECTS.length], question(essay), session(essay));
+    }
+
+    private static IndexData indexData(final int essay) {
+        return IndexData.from(title(essay), SUBJECTS[essay % SUBJECTS.length], question(essay), session(essay));
+    }
+
+    private static String title(final int essay) {
+        return TITLES[essay];
+    }
+
+    private static String question(final int essay) {
+        return QUESTIONS[essay];
+    }
+
+    private static ExamSession session(final int essay) {
+        return SESSIONS[essay];
+    }
+
+    /**
+     * Time a number of threads interning essays at once.
+     *
+     * @return Returns the mean time per call of the fastest run, in nanoseconds
+     */
+    private static double time(final int threads, final Intern intern) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < WARMUP + ITERATIONS; run++) {
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Object>> futures = new ArrayList<>();
+                for (int thread = 0; thread < threads; thread++) {
+                    final int offset = thread * 7;
+                    futures.add(executor.submit((Callable<Object>) () -> {
+                        start.await();
+                        Object last = null;
+                        for (int i = 0; i < CALLS; i++) {
+                            last = intern.intern((i + offset) % ESSAYS);
+                        }
+                        return last;
+                    }));
+                }
+                final long begin = System.nanoTime();
+                start.countDown();
+                for (Future<Object> future : futures) {
+                    future.get();
+                }
+                final long elapsed = System.nanoTime() - begin;
+                if (run >= WARMUP) {
+                    best = Math.min(best, elapsed);
+                }
+            }
+            return best / (double) (threads * CALLS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Intern {
+        Object intern(int essay);
+    }
+
+    /**
+     * The interning of {@link IndexData} before it was replaced: a cache keyed by the unique id, locked for
+     * every call.
+     */
+    private static final class SynchronizedCache {
+
+        private final Cache<Integer, Characteristics> cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(2)
+                .weakValues()
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .build();
+
+        private Characteristics intern(final Characteristics characteristics) {
+            synchronized (cache) {
+                Characteristics interned = cache.getIfPresent(characteristics.uniqueID);
+                if (interned == null) {
+                    interned = characteristics;
+                    cache.put(characteristics.uniqueID, interned);
+                }
+                return interned;
+            }
+        }
+    }
+
+    /**
+     * The characteristics of an essay, equal as {@link IndexData} is.
+     */
+    private static final class Characteristics {
+
+        private final String title;
+        private final Subject subject;
+        private final String researchQuestion;
+        private final ExamSession examSession;
+        private final int uniqueID;
+
+        private Characteristics(final String title, final Subject subject, final String researchQuestion, final ExamSession examSession) {
+            this.title = title;
+            this.subject = subject;
+            this.researchQuestion = researchQuestion;
+            this.examSession = examSession;
+            this.uniqueID = IndexData.getUniqueID(title, subject, researchQuestion, examSession);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Characteristics other = (Characteristics) o;
+            return uniqueID == other.uniqueID && title.equals(other.title) && subject.equals(other.subject)
+                    && researchQuestion.equals(other.researchQuestion) && examSession.equals(other.examSession);
+        }
+
+        @Override
+        public int hashCode() {
+            return uniqueID;
+        }
+    }
+}
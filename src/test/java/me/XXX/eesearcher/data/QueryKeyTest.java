@@ -0,0 +1,27 @@
+package me.XXX.eesearcher.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class QueryKeyTest {
+
+    private static QueryKey key(final String regex, final char... flags) {
+        return QueryKey.of(QueryParameters.builder().regex(regex).regexFlags(flags).build());
+    }
+
+    @Test
+    public void flagOrderMatters() {
+        // 'c' clears case insensitivity only if it comes after 'i'
+        assertNotEquals(key("abc", 'i', 'c'), key("abc", 'c', 'i'));
+        assertEquals(key("abc", 'i', 'c'), key("abc"));
+        assertEquals(key("abc", 'c', 'i'), key("abc", 'i'));
+    }
+
+    @Test
+    public void equivalentFlags() {
+        assertEquals(key("abc", 'n', 'm'), key("abc", 'm', 'n', 'm'));
+        assertEquals(key("", 'i'), key(null));
+    }
+}